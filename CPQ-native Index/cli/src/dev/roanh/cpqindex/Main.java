@@ -29,7 +29,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -39,6 +41,8 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import dev.roanh.cpqindex.ConcurrentCache.EvictionPolicy;
+import dev.roanh.cpqindex.Nauty.Backend;
 import dev.roanh.gmark.lang.cpq.CPQ;
 import dev.roanh.gmark.lang.cpq.QueryGraphCPQ;
 import dev.roanh.gmark.lang.cpq.QueryGraphCPQ.Vertex;
@@ -91,20 +95,59 @@ public class Main{
 	/**
 	 * Handles the input arguments.
 	 * @param cli The command line arguments.
+	 * @throws ParseException When a required argument is missing or invalid.
 	 */
-	private static void handleInput(CommandLine cli){
+	private static void handleInput(CommandLine cli) throws ParseException{
 		Path data = Paths.get(cli.getOptionValue('d'));
+		Path output = Paths.get(cli.getOptionValue('o'));
+		int threads = Integer.parseInt(cli.getOptionValue('t', "1"));
+		if(cli.hasOption("convert")){
+			convertGraph(data, output, threads);
+			return;
+		}else if(!cli.hasOption('k')){
+			throw new ParseException("Missing required option: k");
+		}
+		
 		int k = Integer.parseInt(cli.getOptionValue('k'));
 		boolean cores = cli.hasOption('c');
 		boolean labels = cli.hasOption('l');
-		int threads = Integer.parseInt(cli.getOptionValue('t', "1"));
 		int intersections = Integer.parseInt(cli.getOptionValue('i', String.valueOf(Integer.MAX_VALUE)));
 		boolean verbose = cli.hasOption('v');
 		String logFile = verbose ? cli.getOptionValue('v') : null;
-		Path output = Paths.get(cli.getOptionValue('o'));
 		boolean full = cli.hasOption('f');
+		boolean mapped = cli.hasOption('m');
+		boolean compress = cli.hasOption('z');
+		Path checkpoint = cli.hasOption("checkpoint") ? Paths.get(cli.getOptionValue("checkpoint")) : null;
+		CoreBudget budget;
+		try{
+			budget = new CoreBudget(
+				Long.parseLong(cli.getOptionValue("budget-candidates", String.valueOf(Long.MAX_VALUE))),
+				cli.hasOption("budget-time") ? TimeUnit.SECONDS.toMillis(Long.parseLong(cli.getOptionValue("budget-time"))) : Long.MAX_VALUE,
+				Long.parseLong(cli.getOptionValue("budget-cores", String.valueOf(Long.MAX_VALUE)))
+			);
+		}catch(IllegalArgumentException e){
+			throw new ParseException("Invalid core budget: " + e.getMessage());
+		}
+		
+		int cacheSize = Integer.parseInt(cli.getOptionValue("canon-cache", "0"));
+		EvictionPolicy cachePolicy;
+		try{
+			cachePolicy = EvictionPolicy.valueOf(cli.getOptionValue("canon-cache-policy", "LRU").toUpperCase(Locale.ROOT));
+		}catch(IllegalArgumentException e){
+			throw new ParseException("Invalid canonical form cache policy: " + cli.getOptionValue("canon-cache-policy"));
+		}
 		
-		try(InputStream in = new BufferedInputStream(Files.newInputStream(data))){
+		try{
+			if(cli.hasOption("canon-backend")){
+				Nauty.setBackend(Backend.parse(cli.getOptionValue("canon-backend")));
+			}
+		}catch(IllegalArgumentException e){
+			throw new ParseException(e.getMessage());
+		}catch(LinkageError e){
+			throw new ParseException("Canonical labelling backend not available: " + e.getMessage());
+		}
+		
+		try{
 			Path name = data.getFileName();
 			if(name == null){
 				throw new IllegalArgumentException("Input file has no name");
@@ -125,30 +168,54 @@ public class Main{
 			Index index;
 			if(name.toString().endsWith(".idx")){
 				System.out.println("Reading an existing index using " + threads + " threads, cores=" + cores + ", intersections=" + intersections + ".");
-				index = new Index(in);
+				try(InputStream in = new BufferedInputStream(Files.newInputStream(data))){
+					index = new Index(in, threads);
+				}
+				
 				index.setProgressListener(listener);
 				index.setIntersections(intersections);
+				index.setCanonCache(cacheSize, cachePolicy);
+				index.setCoreBudget(budget);
 				if(cores){
-					index.computeCores(threads);
+					index.computeCores(threads, checkpoint);
 				}
 			}else{
 				System.out.println("Computing index k=" + k + ", cores=" + cores + ", labels=" + labels + ", threads=" + threads + ", intersections=" + intersections + ".");
+				CompactGraph graph = readGraph(data, threads);
 				index = new Index(
-					IndexUtil.readGraph(in),
+					graph,
 					k,
-					cores,
+					false,
 					labels,
 					threads,
 					intersections,
 					listener
 				);
+				
+				index.setCanonCache(cacheSize, cachePolicy);
+				index.setCoreBudget(budget);
+				if(cores){
+					index.computeCores(threads, checkpoint);
+				}
+			}
+			
+			if(index.getCanonCache() != null){
+				System.out.println("Canonical form cache: " + index.getCanonCache());
+			}
+			
+			if(!budget.isUnlimited()){
+				System.out.println("Blocks truncated by the core budget: " + index.getTruncatedBlocks());
 			}
 			
 			Duration time = Duration.between(start, Instant.now());
 			System.out.printf("Total cores: %d (Unique: %d), raw runtime: %d:%02d:%02d%n", index.getTotalCores(), index.getUniqueCores(), time.toHours(), time.toMinutesPart(), time.toSecondsPart());
 			System.out.println("Saving index to disk...");
 			try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))){
-				index.write(out, full);
+				if(mapped){
+					index.writeMapped(out);
+				}else{
+					index.write(out, full, compress);
+				}
 				System.out.println("Index succesfully saved to disk.");
 			}
 		}catch(IllegalArgumentException | InterruptedException | IOException | URISyntaxException e){
@@ -156,6 +223,46 @@ public class Main{
 		}
 	}
 	
+	/**
+	 * Reads the given graph file in either the plain text or binary
+	 * graph format and reports the parsing throughput.
+	 * @param data The graph file to read.
+	 * @param threads The number of threads to use.
+	 * @return The read graph.
+	 * @throws IOException When an IOException occurs.
+	 * @see CompactGraph#read(Path, int)
+	 */
+	private static CompactGraph readGraph(Path data, int threads) throws IOException{
+		Instant start = Instant.now();
+		CompactGraph graph = CompactGraph.read(data, threads);
+		Duration time = Duration.between(start, Instant.now());
+		System.out.printf(
+			"Read graph with %d vertices and %d edges in %.3f seconds (%.0f edges/s).%n",
+			graph.getVertexCount(),
+			graph.getEdgeCount(),
+			time.toNanos() / 1e9,
+			graph.getEdgeCount() / Math.max(time.toNanos() / 1e9, 1e-9)
+		);
+		
+		return graph;
+	}
+	
+	/**
+	 * Converts the given graph file to the binary graph format.
+	 * @param data The graph file to convert.
+	 * @param output The file to write the binary graph to.
+	 * @param threads The number of threads to use for parsing.
+	 * @see CompactGraph#write(OutputStream)
+	 */
+	private static void convertGraph(Path data, Path output, int threads){
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))){
+			readGraph(data, threads).write(out);
+			System.out.println("Graph succesfully converted to the binary format.");
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * Small testing subroutine to find random CPQ cores.
 	 */
@@ -178,7 +285,7 @@ public class Main{
 		options = new Options();
 		options.addOption("h", "help", false, "Prints this help text");
 		options.addOption(Option.builder("d").required().longOpt("data").hasArg().argName("file").desc("The graph file to create an index for or a saved index file.").build());
-		options.addOption(Option.builder("k").required().longOpt("diameter").hasArg().argName("k").desc("The value of k (diameter) to compute the index for.").build());
+		options.addOption(Option.builder("k").longOpt("diameter").hasArg().argName("k").desc("The value of k (diameter) to compute the index for, required unless converting a graph.").build());
 		options.addOption(Option.builder("c").longOpt("cores").desc("If passed then cores will be computed.").build());
 		options.addOption(Option.builder("l").longOpt("labels").desc("If passed then labels will be computed.").build());
 		options.addOption(Option.builder("t").longOpt("threads").hasArg().argName("number").desc("The number of threads to use for core computation (1 by default).").build());
@@ -186,5 +293,15 @@ public class Main{
 		options.addOption(Option.builder("v").longOpt("verbose").hasArg().optionalArg(true).argName("file").desc("Turns on verbose logging of construction steps, optionally to a file or Discord.").build());
 		options.addOption(Option.builder("o").required().longOpt("output").hasArg().argName("file").desc("The file to save the constructed index to.").build());
 		options.addOption(Option.builder("f").longOpt("full").desc("If passed the saved index has all information required to compute cores later.").build());
+		options.addOption(Option.builder().longOpt("budget-candidates").hasArg().argName("max").desc("The maximum number of candidate cores to construct for a single block (unlimited by default).").build());
+		options.addOption(Option.builder().longOpt("budget-time").hasArg().argName("seconds").desc("The maximum time to spend computing cores for a single block (unlimited by default).").build());
+		options.addOption(Option.builder().longOpt("budget-cores").hasArg().argName("max").desc("The maximum number of cores for a single block (unlimited by default).").build());
+		options.addOption(Option.builder().longOpt("checkpoint").hasArg().argName("file").desc("The file to checkpoint core computation progress to. If this file already exists, core computation resumes from it.").build());
+		options.addOption(Option.builder().longOpt("canon-backend").hasArg().argName("backend").desc("The canonical labelling backend to use, one of FFM, JNI or JAVA (FFM by default if the native library supports it, JNI otherwise). FFM and JNI are equivalent, but an index computed with JAVA can only be read with JAVA and the other way around.").build());
+		options.addOption(Option.builder().longOpt("canon-cache").hasArg().argName("size").desc("The number of canonical forms to cache during core computation (disabled by default).").build());
+		options.addOption(Option.builder().longOpt("canon-cache-policy").hasArg().argName("policy").desc("The eviction policy for the canonical form cache, either LRU or FIFO (LRU by default).").build());
+		options.addOption(Option.builder().longOpt("convert").desc("If passed the graph file is converted to the binary graph format and saved to the output file instead of computing an index.").build());
+		options.addOption(Option.builder("z").longOpt("compress").desc("If passed the saved index is compressed in chunks that are decompressed in parallel when it is read back (ignored with -m).").build());
+		options.addOption(Option.builder("m").longOpt("mapped").desc("If passed the index is saved in a format that can be memory mapped for querying (ignores -f).").build());
 	}
 }
@@ -83,3 +83,135 @@ void parseColoring(JNIEnv* env, int len, jintArray* colors, int* labels, int* pt
 	}
 	(*env)->ReleaseIntArrayElements(env, *colors, colorData, 0);
 }
+
+/**
+ * Computes the canonical labelling of a single colored graph using the sparse
+ * version of nauty. The graph is given in the packed format also used for batched
+ * canonical labelling, this function does not depend on JNI.
+ * @param n The number of vertices in the graph.
+ * @param nde The total number of (directed) edges in the graph.
+ * @param colors The array containing raw color information data, in the same format
+ *        as used by the parseColoring function.
+ * @param degrees For each vertex the number of outgoing edges.
+ * @param edges The targets of all edges in the graph grouped by source vertex.
+ * @param labelling The array to write the computed canonical labelling to, this array
+ *        needs to have space for at least n elements.
+ * @return The nauty error status, 0 if the labelling was computed successfully.
+ */
+int computeCanonPacked(int n, int nde, const int* colors, const int* degrees, const int* edges, int* labelling){
+	static TLS_ATTR SG_DECL(graph);
+
+	//construct input graph
+	SG_ALLOC(graph, n, nde, "canon packed");
+	size_t offset = 0;
+	for(int i = 0; i < n; i++){
+		graph.v[i] = offset;
+		graph.d[i] = degrees[i];
+		offset += degrees[i];
+	}
+
+	for(int i = 0; i < nde; i++){
+		graph.e[i] = edges[i];
+	}
+
+	//allocated data structures
+	DYNALLSTAT(int, ptn, ptn_sz);
+	DYNALLSTAT(int, orbits, orbits_sz);
+	DYNALLOC1(int, ptn, ptn_sz, n, "canon packed");
+	DYNALLOC1(int, orbits, orbits_sz, n, "canon packed");
+
+	//initialise the coloring of the graph
+	for(int i = 0; i < n; i++){
+		if(colors[i] < 0){
+			labelling[i] = -colors[i] - 1;
+			ptn[i] = 0;
+		}else{
+			labelling[i] = colors[i] - 1;
+			ptn[i] = 1;
+		}
+	}
+
+	//compute canonical form and labeling
+	return computeCanonSparseGraph(n, nde, graph.v, graph.d, graph.e, labelling, ptn, orbits);
+}
+
+/**
+ * Computes the canonical labellings of a batch of colored graphs using the sparse
+ * version of nauty. All graphs are given packed in a single array in the same format
+ * as used by the JNI batch function. This function is intended to be called through
+ * the Java foreign function interface and does not depend on JNI.
+ * @param graphs The packed input graphs. The first element is the number of graphs
+ *        in the batch, this is followed by the data for each graph. For each graph
+ *        this is first the number of vertices n and the total number of edges nde,
+ *        followed by n elements of color data, n vertex degrees and finally nde
+ *        edge targets grouped by source vertex.
+ * @param labellings The array to write the canonical labellings of all graphs to,
+ *        concatenated in the same order as the input graphs. This array needs to
+ *        have space for the total number of vertices in all graphs.
+ * @return The nauty error status, 0 if all labellings were computed successfully.
+ */
+JNIEXPORT int computeCanonSparseBatchGraphs(const int* graphs, int* labellings){
+	int count = graphs[0];
+	size_t offset = 0;
+	size_t idx = 1;
+	for(int i = 0; i < count; i++){
+		int n = graphs[idx];
+		int nde = graphs[idx + 1];
+		const int* colors = graphs + idx + 2;
+		int status = computeCanonPacked(n, nde, colors, colors + n, colors + 2 * n, labellings + offset);
+		if(status != 0){
+			return status;
+		}
+
+		offset += n;
+		idx += 2 + 2 * (size_t)n + nde;
+	}
+
+	return 0;
+}
+
+/**
+ * Computes the canonical labelling of a single colored graph using the sparse version
+ * of nauty. All memory is owned by the caller and the graph arrays are passed directly
+ * to nauty without being copied. This function is intended to be called through the
+ * Java foreign function interface and does not depend on JNI.
+ * @param n The number of vertices in the graph.
+ * @param nde The total number of (directed) edges in the graph.
+ * @param v For each vertex the index in e of its first outgoing edge.
+ * @param d For each vertex the number of outgoing edges.
+ * @param e The targets of all edges in the graph.
+ * @param lab The vertex indices for the coloring of the graph, combined with the ptn array
+ *        this describes the graph coloring. After this function returns successfully
+ *        this array contains the canonical labelling of the graph.
+ * @param ptn Array indicating at which indices in the labels array a block of vertices with
+ *        the same color ends. End indices will have a value of 0 while all other indices
+ *        will have a value of 1.
+ * @param orbits Working array of size n for nauty to write the vertex orbits to.
+ * @return The nauty error status, 0 if the labelling was computed successfully.
+ */
+JNIEXPORT int computeCanonSparseGraph(int n, size_t nde, size_t* v, int* d, int* e, int* lab, int* ptn, int* orbits){
+	static TLS_ATTR SG_DECL(canon);
+	nauty_check(WORDSIZE, SETWORDSNEEDED(n), n, NAUTYVERSIONID);
+
+	//wrap the input graph
+	sparsegraph graph;
+	SG_INIT(graph);
+	graph.nv = n;
+	graph.nde = nde;
+	graph.v = v;
+	graph.vlen = n;
+	graph.d = d;
+	graph.dlen = n;
+	graph.e = e;
+	graph.elen = nde;
+
+	//set nauty settings
+	static DEFAULTOPTIONS_SPARSEDIGRAPH(options);
+	statsblk stats;
+	options.getcanon = TRUE;
+	options.defaultptn = FALSE;
+
+	//compute canonical form and labeling
+	sparsenauty(&graph, lab, ptn, orbits, &options, &stats, &canon);
+	return stats.errstatus;
+}
@@ -84,3 +84,61 @@ JNIEXPORT jintArray JNICALL Java_dev_roanh_cpqindex_Nauty_computeCanonSparse(JNI
 	//return the labeling
 	return result;
 }
+
+/**
+ * Computes the canonical labellings of a batch of colored graphs using the sparse
+ * version of nauty. All graphs are passed packed in a single array so that only one
+ * JNI call is required for the entire batch.
+ * @param The JNI environment.
+ * @param Calling class.
+ * @param graphs The packed input graphs. The first element is the number of graphs
+ *        in the batch, this is followed by the data for each graph. For each graph
+ *        this is first the number of vertices n and the total number of edges nde,
+ *        followed by n elements of color data (see computeCanonSparse), n vertex
+ *        degrees and finally nde edge targets grouped by source vertex.
+ * @return The canonical relabeling functions of all the graphs in the batch concatenated
+ *         in the same order as the input graphs, or NULL if nauty reported an error.
+ *         For each graph the relabeling function has the same format as returned by
+ *         computeCanonSparse.
+ */
+JNIEXPORT jintArray JNICALL Java_dev_roanh_cpqindex_Nauty_computeCanonSparseBatch(JNIEnv* env, jclass obj, jintArray graphs){
+	jint* data = (*env)->GetIntArrayElements(env, graphs, 0);
+	if(data == NULL){
+		return NULL;
+	}
+
+	//compute the total size of the output
+	int count = data[0];
+	size_t total = 0;
+	size_t idx = 1;
+	for(int i = 0; i < count; i++){
+		int n = data[idx];
+		int nde = data[idx + 1];
+		total += n;
+		idx += 2 + 2 * (size_t)n + nde;
+	}
+
+	//compute all canonical labellings
+	jint* out = malloc((total == 0 ? 1 : total) * sizeof(jint));
+	if(out == NULL){
+		(*env)->ReleaseIntArrayElements(env, graphs, data, JNI_ABORT);
+		(*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/OutOfMemoryError"), "Failed to allocate memory for the canonical labellings.");
+		return NULL;
+	}
+
+	int status = computeCanonSparseBatchGraphs(data, out);
+	(*env)->ReleaseIntArrayElements(env, graphs, data, JNI_ABORT);
+	if(status != 0){
+		free(out);
+		return NULL;
+	}
+
+	//return the labelings
+	jintArray result = (*env)->NewIntArray(env, total);
+	if(result != NULL){
+		(*env)->SetIntArrayRegion(env, result, 0, total, out);
+	}
+
+	free(out);
+	return result;
+}
@@ -34,4 +34,22 @@ void constructSparseGraph(JNIEnv*, jobjectArray*, sparsegraph*);
  */
 void parseColoring(JNIEnv*, int, jintArray*, int*, int*);
 
+/**
+ * Computes the canonical labelling of a single colored
+ * graph given in the packed batch format.
+ */
+int computeCanonPacked(int, int, const int*, const int*, const int*, int*);
+
+/**
+ * Computes the canonical labellings of a batch of
+ * colored graphs given in the packed batch format.
+ */
+JNIEXPORT int computeCanonSparseBatchGraphs(const int*, int*);
+
+/**
+ * Computes the canonical labelling of a single colored graph
+ * directly from caller owned sparse graph arrays.
+ */
+JNIEXPORT int computeCanonSparseGraph(int, size_t, size_t*, int*, int*, int*, int*, int*);
+
 #endif
@@ -15,6 +15,14 @@ extern "C" {
 JNIEXPORT jintArray JNICALL Java_dev_roanh_cpqindex_Nauty_computeCanonSparse
   (JNIEnv *, jclass, jobjectArray, jintArray);
 
+/*
+ * Class:     dev_roanh_cpqindex_Nauty
+ * Method:    computeCanonSparseBatch
+ * Signature: ([I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_dev_roanh_cpqindex_Nauty_computeCanonSparseBatch
+  (JNIEnv *, jclass, jintArray);
+
 #ifdef __cplusplus
 }
 #endif
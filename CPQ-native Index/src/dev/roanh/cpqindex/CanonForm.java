@@ -126,8 +126,48 @@ public class CanonForm{
 		ColoredGraph input = toColoredGraph(core);
 		
 		//compute the canonical labelling with nauty
-		int[] relabel = Nauty.computeCanonicalLabelling(input);
-
+		return fromLabelling(cpq, original, core, input, Nauty.computeCanonicalLabelling(input));
+	}
+	
+	/**
+	 * Constructs canonical forms for the cores of all the given CPQs. All
+	 * canonical labellings are computed with a single call to nauty.
+	 * @param cpqs The CPQs to compute canonical forms for.
+	 * @param isCore If the given CPQs are all guaranteed to be cores.
+	 * @return The computed canonical forms, in the same order as the input CPQs.
+	 * @see Nauty#computeCanonicalLabellings(List)
+	 */
+	public static List<CanonForm> computeCanon(List<CPQ> cpqs, boolean isCore){
+		QueryGraphCPQ[] originals = new QueryGraphCPQ[cpqs.size()];
+		QueryGraphCPQ[] cores = new QueryGraphCPQ[cpqs.size()];
+		List<ColoredGraph> inputs = new ArrayList<ColoredGraph>(cpqs.size());
+		for(int i = 0; i < originals.length; i++){
+			originals[i] = cpqs.get(i).toQueryGraph();
+			cores[i] = isCore ? originals[i] : originals[i].computeCore();
+			inputs.add(toColoredGraph(cores[i]));
+		}
+		
+		//compute all canonical labellings with nauty
+		List<int[]> relabels = Nauty.computeCanonicalLabellings(inputs);
+		
+		List<CanonForm> forms = new ArrayList<CanonForm>(originals.length);
+		for(int i = 0; i < originals.length; i++){
+			forms.add(fromLabelling(cpqs.get(i), originals[i], cores[i], inputs.get(i), relabels.get(i)));
+		}
+		
+		return forms;
+	}
+	
+	/**
+	 * Constructs a canonical form from a computed canonical labelling.
+	 * @param cpq The CPQ the canonical form is for.
+	 * @param original The query graph of the CPQ.
+	 * @param core The core of the query graph of the CPQ.
+	 * @param input The coloured graph constructed from the core.
+	 * @param relabel The canonical labelling of the coloured graph.
+	 * @return The constructed canonical form.
+	 */
+	private static CanonForm fromLabelling(CPQ cpq, QueryGraphCPQ original, QueryGraphCPQ core, ColoredGraph input, int[] relabel){
 		//compute the inverse of the relabelling function.
 		int[] inv = new int[relabel.length];
  		for(int i = 0; i < relabel.length; i++){
@@ -371,6 +411,15 @@ public class CanonForm{
 			hash = Arrays.hashCode(canon);
 		}
 		
+		/**
+		 * Gets the binary canonical form wrapped by this core hash.
+		 * @return The binary canonical form.
+		 * @see CanonForm#toBinaryCanon()
+		 */
+		public byte[] getBinaryCanon(){
+			return canon;
+		}
+		
 		/**
 		 * Writes this canonical form to the given output stream.
 		 * @param out The stream to write to.
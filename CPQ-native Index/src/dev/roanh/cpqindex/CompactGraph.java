@@ -0,0 +1,815 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+import dev.roanh.gmark.type.schema.Predicate;
+import dev.roanh.gmark.util.Util;
+import dev.roanh.gmark.util.graph.generic.UniqueGraph;
+import dev.roanh.gmark.util.graph.generic.UniqueGraph.GraphEdge;
+
+/**
+ * Compact read only representation of an edge labelled graph. Vertices are
+ * identified by the integers {@code 0...n-1} and the edges are stored in
+ * compressed sparse row format, sorted on source vertex, then target vertex
+ * and then label. Duplicate edges are removed. The targets and labels of the
+ * edges are stored off heap and edges are indexed with longs, so the number
+ * of edges in a graph is not limited by the maximum size of a Java array.
+ * <p>
+ * Graphs can be read from the plain text edge list format or from a binary
+ * format written by {@link #write(OutputStream)}. The binary format starts
+ * with a header containing a magic number, format version, the number of
+ * vertices and labels in the graph and the number of edges in the graph as
+ * a long. The header is followed by the out
+ * degree of every vertex and then by the outgoing edges of every vertex in
+ * order, each edge is stored as the difference with the target of the previous
+ * edge of the same vertex and its label. All numbers after the header are
+ * written as variable length integers using 7 bits per byte.
+ * @author Roan
+ * @see #read(Path)
+ */
+public final class CompactGraph{
+	/**
+	 * Magic number at the start of every graph in the binary format.
+	 * @see #write(OutputStream)
+	 */
+	private static final int BINARY_MAGIC = 0x43505147;
+	/**
+	 * The current version of the binary graph format.
+	 * @see #write(OutputStream)
+	 */
+	private static final byte BINARY_VERSION = 2;
+	/**
+	 * The size of the header of the binary graph format.
+	 */
+	private static final int BINARY_HEADER_SIZE = 21;
+	/**
+	 * The size of the header of version 1 of the binary graph
+	 * format, which stored the number of edges as an integer.
+	 */
+	private static final int BINARY_V1_HEADER_SIZE = 17;
+	/**
+	 * The number of vertex ranges to split the edges of a graph file
+	 * into per thread when parsing it, each range is merged separately.
+	 * @see #read(Path, int)
+	 */
+	private static final int PARSE_RANGES_PER_THREAD = 16;
+	/**
+	 * The number of chunks to split the vertices of a graph into per thread
+	 * when sorting their edges, more chunks give better load balancing.
+	 * @see #sort(ForkJoinPool, int)
+	 */
+	private static final int SORT_CHUNKS_PER_THREAD = 16;
+	/**
+	 * The number of vertices in this graph.
+	 */
+	private final int vertexCount;
+	/**
+	 * For each vertex the index of its first outgoing edge, the final
+	 * element is the total number of edges in this graph.
+	 */
+	private final long[] offsets;
+	/**
+	 * The target vertex of each edge as integers.
+	 */
+	private final MemorySegment targets;
+	/**
+	 * The label ID of each edge as integers.
+	 */
+	private final MemorySegment labels;
+	/**
+	 * The labels of this graph by ID.
+	 */
+	private final Predicate[] predicates;
+	
+	/**
+	 * Constructs a new compact graph from the given gMark graph. The
+	 * data of each vertex in the given graph is used as its vertex ID.
+	 * @param graph The graph to convert.
+	 * @throws IllegalArgumentException When the vertex data are not
+	 *         the integers {@code 0...n-1} with n the number of vertices.
+	 */
+	public CompactGraph(UniqueGraph<Integer, Predicate> graph) throws IllegalArgumentException{
+		vertexCount = graph.getNodeCount();
+		List<GraphEdge<Integer, Predicate>> edges = graph.getEdges();
+		
+		offsets = new long[vertexCount + 1];
+		int maxLabel = -1;
+		for(GraphEdge<Integer, Predicate> edge : edges){
+			checkVertex(edge.getSource());
+			checkVertex(edge.getTarget());
+			offsets[edge.getSource() + 1]++;
+			maxLabel = Math.max(maxLabel, edge.getData().getID());
+		}
+		
+		predicates = new Predicate[maxLabel + 1];
+		targets = allocateInts(edges.size());
+		labels = allocateInts(edges.size());
+		long[] next = prefixSum();
+		for(GraphEdge<Integer, Predicate> edge : edges){
+			long idx = next[edge.getSource()]++;
+			targets.setAtIndex(ValueLayout.JAVA_INT, idx, edge.getTarget());
+			labels.setAtIndex(ValueLayout.JAVA_INT, idx, edge.getData().getID());
+			predicates[edge.getData().getID()] = edge.getData();
+		}
+		
+		sort(null, 1);
+	}
+	
+	/**
+	 * Constructs a new compact graph with the given vertex count,
+	 * edge offsets and labels, all edges still have to be added.
+	 * @param vertexCount The number of vertices in the graph.
+	 * @param offsets For each vertex the index of its first outgoing edge,
+	 *        followed by the total number of edges.
+	 * @param labels The labels of the graph by ID.
+	 */
+	private CompactGraph(int vertexCount, long[] offsets, List<Predicate> labels){
+		this.vertexCount = vertexCount;
+		this.offsets = offsets;
+		targets = allocateInts(offsets[vertexCount]);
+		this.labels = allocateInts(offsets[vertexCount]);
+		predicates = labels.toArray(Predicate[]::new);
+	}
+	
+	/**
+	 * Reads a graph from the given file using a single thread.
+	 * @param file The file to read from.
+	 * @return The read graph.
+	 * @throws IOException When an IOException occurs or the file is malformed.
+	 * @see #read(Path, int)
+	 */
+	public static CompactGraph read(Path file) throws IOException{
+		return read(file, 1);
+	}
+	
+	/**
+	 * Reads a graph from the given file, the graph can either be in the binary
+	 * format written by {@link #write(OutputStream)} or in the plain text
+	 * edge list format where the first line contains
+	 * the number of vertices, edges and labels in the graph and each other
+	 * line contains a graph edge in the format {@code source target label}.
+	 * The file is memory mapped and split into one chunk of whole lines per
+	 * thread. The chunks are parsed concurrently and each chunk stores its
+	 * edges in its own primitive edge buffers, one for each range of source
+	 * vertices, so no objects are created per edge and threads never write
+	 * to shared data. The buffers of each vertex range are then merged
+	 * concurrently into the final representation. The memory used for
+	 * this is linear in the number of edges and vertices and does not
+	 * depend on the number of threads. Graphs in the binary format are
+	 * decoded directly into their final representation.
+	 * @param file The file to read from.
+	 * @param threads The number of CPU threads to use.
+	 * @return The read graph.
+	 * @throws IOException When an IOException occurs or the file is malformed.
+	 * @see IndexUtil#readGraph(Path)
+	 */
+	public static CompactGraph read(Path file, int threads) throws IOException{
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try(Arena arena = Arena.ofShared(); FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			MemorySegment data = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+			if(data.byteSize() >= 4 && data.get(ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 0) == BINARY_MAGIC){
+				return readBinary(data);
+			}
+			
+			EdgeParser header = new EdgeParser(data, 0, data.byteSize());
+			final int vertices = header.nextInt();
+			header.nextInt();//edge count, edges are counted instead
+			final int labelCount = header.nextInt();
+			long[] chunks = splitLines(data, header.pos, threads);
+			final int rangeSize = (int)Math.max(1L, ((long)vertices + threads * PARSE_RANGES_PER_THREAD - 1) / (threads * PARSE_RANGES_PER_THREAD));
+			final int ranges = (int)(((long)vertices + rangeSize - 1) / rangeSize);
+			
+			//parse the edges of each chunk into buffers per source vertex range
+			EdgeBuffer[][] buffers = new EdgeBuffer[threads][];
+			parseChunks(pool, data, chunks, (chunk, in)->{
+				EdgeBuffer[] local = new EdgeBuffer[ranges];
+				while(in.hasNext()){
+					int src = in.nextVertex(vertices);
+					int trg = in.nextVertex(vertices);
+					int label = in.nextLabel(labelCount);
+					
+					EdgeBuffer buffer = local[src / rangeSize];
+					if(buffer == null){
+						buffer = new EdgeBuffer();
+						local[src / rangeSize] = buffer;
+					}
+					
+					buffer.add(src, trg, label);
+				}
+				
+				buffers[chunk] = local;
+				return 0;
+			});
+			
+			//count outgoing edges, every range only writes to the offsets of its own vertices
+			long[] offsets = new long[vertices + 1];
+			pool.invoke(ForkJoinTask.adapt(()->IntStream.range(0, ranges).parallel().forEach(range->{
+				for(EdgeBuffer[] local : buffers){
+					if(local[range] != null){
+						local[range].countDegrees(offsets);
+					}
+				}
+			})));
+			
+			for(int i = 0; i < vertices; i++){
+				if(offsets[i + 1] > Integer.MAX_VALUE - 8){
+					throw new IOException("Vertex " + i + " has more than " + (Integer.MAX_VALUE - 8) + " outgoing edges.");
+				}
+				
+				offsets[i + 1] += offsets[i];
+			}
+			
+			//merge the buffers of each range in chunk order
+			CompactGraph graph = new CompactGraph(vertices, offsets, Util.generateLabels(labelCount));
+			pool.invoke(ForkJoinTask.adapt(()->IntStream.range(0, ranges).parallel().forEach(range->{
+				int from = range * rangeSize;
+				long[] next = Arrays.copyOfRange(offsets, from, Math.min(vertices, from + rangeSize));
+				for(EdgeBuffer[] local : buffers){
+					if(local[range] != null){
+						local[range].place(graph, next, from);
+						local[range] = null;
+					}
+				}
+			})));
+			
+			graph.sort(pool, threads);
+			return graph;
+		}finally{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Reads a graph in the binary format from the given data.
+	 * @param data The data to read from.
+	 * @return The read graph.
+	 * @throws IOException When the data is not a valid graph
+	 *         or written with a newer version of the format.
+	 * @see #write(OutputStream)
+	 */
+	private static CompactGraph readBinary(MemorySegment data) throws IOException{
+		if(data.byteSize() < BINARY_V1_HEADER_SIZE){
+			throw new IOException("Unexpected end of file.");
+		}
+		
+		ValueLayout.OfInt header = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+		byte version = data.get(ValueLayout.JAVA_BYTE, 4);
+		if(version != 1 && version != BINARY_VERSION){
+			throw new IOException("Unsupported binary graph version: " + version);
+		}
+		
+		if(version != 1 && data.byteSize() < BINARY_HEADER_SIZE){
+			throw new IOException("Unexpected end of file.");
+		}
+		
+		int vertices = data.get(header, 5);
+		int labelCount = data.get(header, 9);
+		long edges = version == 1 ? data.get(header, 13) : data.get(ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 13);
+		if(vertices < 0 || labelCount < 0 || edges < 0){
+			throw new IOException("Invalid binary graph header.");
+		}
+		
+		EdgeParser in = new EdgeParser(data, version == 1 ? BINARY_V1_HEADER_SIZE : BINARY_HEADER_SIZE, data.byteSize());
+		long[] offsets = new long[vertices + 1];
+		for(int i = 0; i < vertices; i++){
+			int degree = in.nextVarInt();
+			if(degree > edges - offsets[i]){
+				throw new IOException("Invalid binary graph degree for vertex " + i + ".");
+			}
+			
+			offsets[i + 1] = offsets[i] + degree;
+		}
+		
+		if(offsets[vertices] != edges){
+			throw new IOException("Invalid binary graph edge count.");
+		}
+		
+		CompactGraph graph = new CompactGraph(vertices, offsets, Util.generateLabels(labelCount));
+		for(int v = 0; v < vertices; v++){
+			int trg = 0;
+			for(long e = offsets[v]; e < offsets[v + 1]; e++){
+				trg += in.nextVarInt();
+				int label = in.nextVarInt();
+				if(trg < 0 || trg >= vertices || label >= labelCount){
+					throw new IOException("Invalid binary graph edge for vertex " + v + ".");
+				}
+				
+				graph.targets.setAtIndex(ValueLayout.JAVA_INT, e, trg);
+				graph.labels.setAtIndex(ValueLayout.JAVA_INT, e, label);
+			}
+		}
+		
+		return graph;
+	}
+	
+	/**
+	 * Writes this graph in the binary graph format. Graphs in this
+	 * format can be read back a lot faster than the plain text format.
+	 * @param out The stream to write to.
+	 * @throws IOException When an IOException occurs.
+	 * @see #read(Path, int)
+	 */
+	public void write(OutputStream out) throws IOException{
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(BINARY_MAGIC);
+		data.writeByte(BINARY_VERSION);
+		data.writeInt(vertexCount);
+		data.writeInt(predicates.length);
+		data.writeLong(getEdgeCount());
+		
+		for(int v = 0; v < vertexCount; v++){
+			IndexUtil.writeVarInt(data, (int)(offsets[v + 1] - offsets[v]));
+		}
+		
+		for(int v = 0; v < vertexCount; v++){
+			int trg = 0;
+			for(long e = offsets[v]; e < offsets[v + 1]; e++){
+				int next = getTarget(e);
+				IndexUtil.writeVarInt(data, next - trg);
+				IndexUtil.writeVarInt(data, labels.getAtIndex(ValueLayout.JAVA_INT, e));
+				trg = next;
+			}
+		}
+		
+		data.flush();
+	}
+	
+	/**
+	 * Splits the given data into chunks of roughly equal size that all
+	 * start at the beginning of a line, chunks may be empty.
+	 * @param data The data to split.
+	 * @param start The offset in the data of the first chunk.
+	 * @param count The number of chunks to create.
+	 * @return The offsets of the chunks in the data, followed by the data size.
+	 */
+	private static long[] splitLines(MemorySegment data, long start, int count){
+		long[] bounds = new long[count + 1];
+		bounds[0] = start;
+		bounds[count] = data.byteSize();
+		for(int i = 1; i < count; i++){
+			long pos = Math.max(bounds[i - 1], start + ((data.byteSize() - start) * i) / count);
+			while(pos < data.byteSize() && pos > start && data.get(ValueLayout.JAVA_BYTE, pos - 1) != '\n'){
+				pos++;
+			}
+			
+			bounds[i] = pos;
+		}
+		
+		return bounds;
+	}
+	
+	/**
+	 * Runs the given parse task concurrently for all the given chunks of data.
+	 * @param pool The pool to run the tasks on.
+	 * @param data The data to parse.
+	 * @param chunks The chunk offsets in the data.
+	 * @param task The task to run for each chunk.
+	 * @return The sum of the values returned by each task.
+	 * @throws IOException When an IOException occurs in any of the tasks.
+	 * @see #splitLines(MemorySegment, long, int)
+	 */
+	private static long parseChunks(ForkJoinPool pool, MemorySegment data, long[] chunks, ChunkTask task) throws IOException{
+		try{
+			return pool.invoke(ForkJoinTask.adapt(()->IntStream.range(0, chunks.length - 1).parallel().mapToLong(i->{
+				try{
+					return task.parse(i, new EdgeParser(data, chunks[i], chunks[i + 1]));
+				}catch(IOException e){
+					throw new UncheckedIOException(e);
+				}
+			}).sum()));
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Gets the number of vertices in this graph.
+	 * @return The number of vertices in this graph.
+	 */
+	public int getVertexCount(){
+		return vertexCount;
+	}
+	
+	/**
+	 * Gets the number of edges in this graph.
+	 * @return The number of edges in this graph.
+	 */
+	public long getEdgeCount(){
+		return offsets[vertexCount];
+	}
+	
+	/**
+	 * Gets the index of the first outgoing edge of the given vertex.
+	 * @param vertex The vertex to get the first edge of.
+	 * @return The index of the first outgoing edge of the vertex.
+	 * @see #getEnd(int)
+	 */
+	public long getStart(int vertex){
+		return offsets[vertex];
+	}
+	
+	/**
+	 * Gets the index one past the last outgoing edge of the given vertex.
+	 * @param vertex The vertex to get the last edge of.
+	 * @return The index one past the last outgoing edge of the vertex.
+	 * @see #getStart(int)
+	 */
+	public long getEnd(int vertex){
+		return offsets[vertex + 1];
+	}
+	
+	/**
+	 * Gets the target vertex of the edge at the given index.
+	 * @param edge The index of the edge.
+	 * @return The target vertex of the edge.
+	 */
+	public int getTarget(long edge){
+		return targets.getAtIndex(ValueLayout.JAVA_INT, edge);
+	}
+	
+	/**
+	 * Gets the label of the edge at the given index.
+	 * @param edge The index of the edge.
+	 * @return The label of the edge.
+	 */
+	public Predicate getLabel(long edge){
+		return predicates[labels.getAtIndex(ValueLayout.JAVA_INT, edge)];
+	}
+	
+	/**
+	 * Gets the labels of this graph by ID. Note that for graphs converted
+	 * from a gMark graph, labels that do not appear on any edge are null.
+	 * @return The labels of this graph.
+	 */
+	public List<Predicate> getLabels(){
+		return Collections.unmodifiableList(Arrays.asList(predicates));
+	}
+	
+	/**
+	 * Converts the out degree counts in {@link #offsets} to offsets.
+	 * @return A copy of the computed offsets.
+	 */
+	private long[] prefixSum(){
+		for(int i = 0; i < vertexCount; i++){
+			offsets[i + 1] += offsets[i];
+		}
+		
+		return Arrays.copyOf(offsets, vertexCount);
+	}
+	
+	/**
+	 * Allocates a new zero initialised off heap array of integers
+	 * that is freed once it is no longer reachable.
+	 * @param count The number of integers to allocate.
+	 * @return The allocated memory segment.
+	 */
+	private static MemorySegment allocateInts(long count){
+		return Arena.ofAuto().allocate(count * Integer.BYTES, Integer.BYTES);
+	}
+	
+	/**
+	 * Sorts the outgoing edges of every vertex on target and label
+	 * and removes duplicate edges, moving edges to the front as needed.
+	 * @param pool The pool to sort on or null to sort on the current thread.
+	 * @param threads The number of threads in the pool.
+	 */
+	private void sort(ForkJoinPool pool, int threads){
+		int[] counts = new int[vertexCount];
+		if(pool == null){
+			sort(0, vertexCount, counts);
+		}else{
+			int chunks = threads * SORT_CHUNKS_PER_THREAD;
+			pool.invoke(ForkJoinTask.adapt(()->IntStream.range(0, chunks).parallel().forEach(i->{
+				sort((int)(((long)vertexCount * i) / chunks), (int)(((long)vertexCount * (i + 1)) / chunks), counts);
+			})));
+		}
+		
+		long write = 0;
+		for(int v = 0; v < vertexCount; v++){
+			long start = offsets[v];
+			if(start != write){
+				MemorySegment.copy(targets, start * Integer.BYTES, targets, write * Integer.BYTES, counts[v] * (long)Integer.BYTES);
+				MemorySegment.copy(labels, start * Integer.BYTES, labels, write * Integer.BYTES, counts[v] * (long)Integer.BYTES);
+			}
+			
+			offsets[v] = write;
+			write += counts[v];
+		}
+		
+		offsets[vertexCount] = write;
+	}
+	
+	/**
+	 * Sorts the outgoing edges of the given range of vertices and removes duplicate
+	 * edges. The remaining edges of each vertex are moved to the start of its range.
+	 * @param from The first vertex to sort (inclusive).
+	 * @param to The last vertex to sort (exclusive).
+	 * @param counts Array to store the number of remaining edges of each vertex in.
+	 */
+	private void sort(int from, int to, int[] counts){
+		long[] buffer = new long[0];
+		for(int v = from; v < to; v++){
+			long start = offsets[v];
+			int len = (int)(offsets[v + 1] - start);
+			if(buffer.length < len){
+				buffer = new long[Math.max(len, buffer.length * 2)];
+			}
+			
+			for(int i = 0; i < len; i++){
+				buffer[i] = Pair.pack(targets.getAtIndex(ValueLayout.JAVA_INT, start + i), labels.getAtIndex(ValueLayout.JAVA_INT, start + i));
+			}
+			Arrays.sort(buffer, 0, len);
+			
+			long write = start;
+			for(int i = 0; i < len; i++){
+				if(i == 0 || buffer[i] != buffer[i - 1]){
+					targets.setAtIndex(ValueLayout.JAVA_INT, write, Pair.unpackSource(buffer[i]));
+					labels.setAtIndex(ValueLayout.JAVA_INT, write, Pair.unpackTarget(buffer[i]));
+					write++;
+				}
+			}
+			
+			counts[v] = (int)(write - start);
+		}
+	}
+	
+	/**
+	 * Checks that the given vertex is in range for this graph.
+	 * @param vertex The vertex to check.
+	 * @throws IllegalArgumentException When the vertex is out of range.
+	 */
+	private void checkVertex(int vertex) throws IllegalArgumentException{
+		if(vertex < 0 || vertex >= vertexCount){
+			throw new IllegalArgumentException("Vertex out of range: " + vertex);
+		}
+	}
+	
+	/**
+	 * Simple parser for non-negative integers in a memory segment, either
+	 * as text separated by white space or as variable length integers.
+	 * @author Roan
+	 */
+	private static final class EdgeParser{
+		/**
+		 * The data to parse.
+		 */
+		private final MemorySegment data;
+		/**
+		 * The offset in the data to stop parsing at.
+		 */
+		private final long limit;
+		/**
+		 * The current position in the data.
+		 */
+		private long pos;
+		
+		/**
+		 * Constructs a new parser for the given range of data.
+		 * @param data The data to parse.
+		 * @param start The offset in the data to start parsing at.
+		 * @param limit The offset in the data to stop parsing at.
+		 */
+		private EdgeParser(MemorySegment data, long start, long limit){
+			this.data = data;
+			this.limit = limit;
+			pos = start;
+		}
+		
+		/**
+		 * Skips any white space and checks if there is more data.
+		 * @return True if there is more data to parse.
+		 */
+		private boolean hasNext(){
+			while(pos < limit && data.get(ValueLayout.JAVA_BYTE, pos) <= ' '){
+				pos++;
+			}
+			
+			return pos < limit;
+		}
+		
+		/**
+		 * Parses the next integer.
+		 * @return The parsed integer.
+		 * @throws IOException When the next token is not a valid non-negative integer.
+		 */
+		private int nextInt() throws IOException{
+			if(!hasNext()){
+				throw new IOException("Unexpected end of file.");
+			}
+			
+			long start = pos;
+			long value = 0;
+			byte b;
+			while(pos < limit && (b = data.get(ValueLayout.JAVA_BYTE, pos)) > ' '){
+				if(b < '0' || b > '9' || (value = value * 10 + (b - '0')) > Integer.MAX_VALUE){
+					throw new IOException("Invalid number at byte " + start + ".");
+				}
+				
+				pos++;
+			}
+			
+			return (int)value;
+		}
+		
+		/**
+		 * Parses the next variable length integer.
+		 * @return The parsed integer.
+		 * @throws IOException When the end of the data is reached
+		 *         or the integer does not fit in 31 bits.
+		 * @see IndexUtil#writeVarInt(OutputStream, int)
+		 */
+		private int nextVarInt() throws IOException{
+			int value = 0;
+			for(int shift = 0; shift < 32; shift += 7){
+				if(pos >= limit){
+					throw new IOException("Unexpected end of file.");
+				}
+				
+				byte b = data.get(ValueLayout.JAVA_BYTE, pos++);
+				value |= (b & 0x7F) << shift;
+				if(b >= 0){
+					if(value < 0){
+						break;
+					}
+					
+					return value;
+				}
+			}
+			
+			throw new IOException("Invalid variable length integer at byte " + pos + ".");
+		}
+		
+		/**
+		 * Parses the next vertex.
+		 * @param vertices The number of vertices in the graph.
+		 * @return The parsed vertex.
+		 * @throws IOException When the next token is not a valid vertex.
+		 */
+		private int nextVertex(int vertices) throws IOException{
+			int vertex = nextInt();
+			if(vertex >= vertices){
+				throw new IOException("Vertex out of range: " + vertex);
+			}
+			
+			return vertex;
+		}
+		
+		/**
+		 * Parses the next label.
+		 * @param labels The number of labels in the graph.
+		 * @return The parsed label.
+		 * @throws IOException When the next token is not a valid label.
+		 */
+		private int nextLabel(int labels) throws IOException{
+			int label = nextInt();
+			if(label >= labels){
+				throw new IOException("Label out of range: " + label);
+			}
+			
+			return label;
+		}
+	}
+	
+	/**
+	 * Growable buffer of parsed edges stored as primitive source, target and
+	 * label triples. The buffer is split into pages so it is not limited by
+	 * the maximum size of a Java array.
+	 * @author Roan
+	 */
+	private static final class EdgeBuffer{
+		/**
+		 * The initial number of integers in the first page.
+		 */
+		private static final int INITIAL_SIZE = 3 * 16;
+		/**
+		 * The maximum number of integers in a single page.
+		 */
+		private static final int PAGE_SIZE = 3 << 20;
+		/**
+		 * The pages with edge data, all pages except the last are full.
+		 */
+		private int[][] pages = new int[][]{new int[INITIAL_SIZE]};
+		/**
+		 * The index of the page that edges are currently added to.
+		 */
+		private int page = 0;
+		/**
+		 * The number of integers used in the current page.
+		 */
+		private int pos = 0;
+		
+		/**
+		 * Adds a new edge to this buffer.
+		 * @param src The source vertex of the edge.
+		 * @param trg The target vertex of the edge.
+		 * @param label The label ID of the edge.
+		 */
+		private void add(int src, int trg, int label){
+			int[] data = pages[page];
+			if(pos == data.length){
+				if(data.length < PAGE_SIZE){
+					data = Arrays.copyOf(data, Math.min(PAGE_SIZE, data.length * 2));
+				}else{
+					if(++page == pages.length){
+						pages = Arrays.copyOf(pages, pages.length * 2);
+					}
+					
+					data = new int[PAGE_SIZE];
+					pos = 0;
+				}
+				
+				pages[page] = data;
+			}
+			
+			data[pos++] = src;
+			data[pos++] = trg;
+			data[pos++] = label;
+		}
+		
+		/**
+		 * Adds the out degree of the source vertex of every edge in
+		 * this buffer to the entry for the next vertex in the given array.
+		 * @param offsets The array to count the degrees of the vertices in.
+		 */
+		private void countDegrees(long[] offsets){
+			for(int p = 0; p <= page; p++){
+				int[] data = pages[p];
+				int end = p == page ? pos : data.length;
+				for(int i = 0; i < end; i += 3){
+					offsets[data[i] + 1]++;
+				}
+			}
+		}
+		
+		/**
+		 * Writes all the edges in this buffer to the given graph.
+		 * @param graph The graph to write the edges to.
+		 * @param next For each vertex in the range of this buffer the
+		 *        index to write its next outgoing edge at.
+		 * @param from The first vertex in the range of this buffer.
+		 */
+		private void place(CompactGraph graph, long[] next, int from){
+			for(int p = 0; p <= page; p++){
+				int[] data = pages[p];
+				int end = p == page ? pos : data.length;
+				for(int i = 0; i < end; i += 3){
+					long idx = next[data[i] - from]++;
+					graph.targets.setAtIndex(ValueLayout.JAVA_INT, idx, data[i + 1]);
+					graph.labels.setAtIndex(ValueLayout.JAVA_INT, idx, data[i + 2]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Task that parses a single chunk of a graph file.
+	 * @author Roan
+	 * @see CompactGraph#parseChunks(ForkJoinPool, MemorySegment, long[], ChunkTask)
+	 */
+	private static abstract interface ChunkTask{
+		
+		/**
+		 * Parses the chunk of data from the given parser.
+		 * @param chunk The index of the chunk being parsed.
+		 * @param in The parser for the chunk.
+		 * @return A value to sum over all chunks.
+		 * @throws IOException When the chunk is malformed.
+		 */
+		public abstract long parse(int chunk, EdgeParser in) throws IOException;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream that reads data written by a {@link CompressedOutputStream}. Chunks
+ * are read ahead of the data that is consumed and decompressed concurrently on the
+ * given executor, so decompression overlaps with reading and consuming data.
+ * @author Roan
+ * @see CompressedOutputStream
+ */
+final class CompressedInputStream extends InputStream{
+	/**
+	 * The stream to read compressed chunks from.
+	 */
+	private final DataInputStream in;
+	/**
+	 * The executor to decompress chunks on.
+	 */
+	private final Executor executor;
+	/**
+	 * The maximum number of chunks to read ahead.
+	 */
+	private final int window;
+	/**
+	 * The chunks that were read ahead in order.
+	 */
+	private final Deque<CompletableFuture<byte[]>> chunks = new ArrayDeque<CompletableFuture<byte[]>>();
+	/**
+	 * True if the end of data marker was read.
+	 */
+	private boolean end = false;
+	/**
+	 * The current uncompressed chunk.
+	 */
+	private byte[] chunk = new byte[0];
+	/**
+	 * The position in the current chunk.
+	 */
+	private int pos = 0;
+	
+	/**
+	 * Constructs a new compressed input stream.
+	 * @param in The stream to read compressed data from.
+	 * @param executor The executor to decompress chunks on.
+	 * @param window The maximum number of chunks to read ahead,
+	 *        usually a small multiple of the number of threads.
+	 */
+	CompressedInputStream(InputStream in, Executor executor, int window){
+		this.in = new DataInputStream(in);
+		this.executor = executor;
+		this.window = Math.max(1, window);
+	}
+	
+	@Override
+	public int read() throws IOException{
+		return nextChunk() ? (chunk[pos++] & 0xFF) : -1;
+	}
+	
+	@Override
+	public int read(byte[] data, int off, int len) throws IOException{
+		if(len == 0){
+			return 0;
+		}else if(!nextChunk()){
+			return -1;
+		}
+		
+		int n = Math.min(len, chunk.length - pos);
+		System.arraycopy(chunk, pos, data, off, n);
+		pos += n;
+		return n;
+	}
+	
+	@Override
+	public int available(){
+		return chunk.length - pos;
+	}
+	
+	/**
+	 * Makes sure there is unread data in the current chunk if there is data left.
+	 * @return True if there is data left, false if the end of data was reached.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private boolean nextChunk() throws IOException{
+		while(pos == chunk.length){
+			while(!end && chunks.size() < window){
+				int size = in.readInt();
+				if(size == 0){
+					end = true;
+				}else{
+					int len = in.readInt();
+					if(size < 0 || len < 0){
+						throw new IOException("Corrupt compressed chunk.");
+					}
+					
+					byte[] compressed = new byte[len];
+					in.readFully(compressed);
+					chunks.add(CompletableFuture.supplyAsync(()->inflate(compressed, size), executor));
+				}
+			}
+			
+			if(chunks.isEmpty()){
+				return false;
+			}
+			
+			try{
+				chunk = chunks.poll().join();
+				pos = 0;
+			}catch(CompletionException e){
+				throw e.getCause() instanceof UncheckedIOException io ? io.getCause() : new IOException(e.getCause());
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Decompresses a single chunk.
+	 * @param compressed The compressed chunk data.
+	 * @param size The uncompressed size of the chunk.
+	 * @return The uncompressed chunk data.
+	 * @throws UncheckedIOException When the chunk data is invalid.
+	 */
+	private static byte[] inflate(byte[] compressed, int size) throws UncheckedIOException{
+		Inflater inflater = new Inflater();
+		try{
+			inflater.setInput(compressed);
+			byte[] data = new byte[size];
+			int len = 0;
+			while(len < size && !inflater.finished()){
+				int n = inflater.inflate(data, len, size - len);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				
+				len += n;
+			}
+			
+			if(len != size || !inflater.finished()){
+				throw new UncheckedIOException(new IOException("Corrupt compressed chunk."));
+			}
+			
+			return data;
+		}catch(DataFormatException e){
+			throw new UncheckedIOException(new IOException("Corrupt compressed chunk.", e));
+		}finally{
+			inflater.end();
+		}
+	}
+}
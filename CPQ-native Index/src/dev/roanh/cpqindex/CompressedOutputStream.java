@@ -0,0 +1,133 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that compresses all written data in independently compressed
+ * chunks. Each chunk is written as its uncompressed size, its compressed size
+ * and the compressed data. The end of the compressed data is marked by a chunk
+ * with an uncompressed size of zero. Since chunks can be decompressed on their
+ * own, they can be decompressed concurrently when read back.
+ * @author Roan
+ * @see CompressedInputStream
+ */
+final class CompressedOutputStream extends OutputStream{
+	/**
+	 * The uncompressed size of each chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+	/**
+	 * The stream to write compressed chunks to.
+	 */
+	private final DataOutputStream out;
+	/**
+	 * The compressor used for all chunks.
+	 */
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	/**
+	 * Buffer with the uncompressed data of the current chunk.
+	 */
+	private final byte[] buffer = new byte[CHUNK_SIZE];
+	/**
+	 * Buffer for the compressed data of the current chunk.
+	 */
+	private byte[] compressed = new byte[CHUNK_SIZE];
+	/**
+	 * The number of bytes in the current chunk.
+	 */
+	private int size = 0;
+	
+	/**
+	 * Constructs a new compressed output stream.
+	 * @param out The stream to write compressed data to.
+	 */
+	CompressedOutputStream(OutputStream out){
+		this.out = new DataOutputStream(out);
+	}
+	
+	@Override
+	public void write(int b) throws IOException{
+		if(size == CHUNK_SIZE){
+			writeChunk();
+		}
+		
+		buffer[size++] = (byte)b;
+	}
+	
+	@Override
+	public void write(byte[] data, int off, int len) throws IOException{
+		while(len > 0){
+			if(size == CHUNK_SIZE){
+				writeChunk();
+			}
+			
+			int n = Math.min(len, CHUNK_SIZE - size);
+			System.arraycopy(data, off, buffer, size, n);
+			size += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Writes the remaining data and the end of data marker. The underlying
+	 * stream is flushed but not closed and no more data can be written.
+	 * @throws IOException When an IOException occurs.
+	 */
+	void finish() throws IOException{
+		if(size > 0){
+			writeChunk();
+		}
+		
+		out.writeInt(0);
+		out.flush();
+		deflater.end();
+	}
+	
+	/**
+	 * Compresses and writes the current chunk.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private void writeChunk() throws IOException{
+		deflater.reset();
+		deflater.setInput(buffer, 0, size);
+		deflater.finish();
+		
+		int len = 0;
+		while(!deflater.finished()){
+			if(len == compressed.length){
+				byte[] larger = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, len);
+				compressed = larger;
+			}
+			
+			len += deflater.deflate(compressed, len, compressed.length - len);
+		}
+		
+		out.writeInt(size);
+		out.writeInt(len);
+		out.write(compressed, 0, len);
+		size = 0;
+	}
+}
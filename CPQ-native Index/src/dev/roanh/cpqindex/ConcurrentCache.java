@@ -0,0 +1,261 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded thread safe cache with configurable eviction. The cache is split into
+ * a number of independently locked stripes to reduce contention between threads.
+ * Each stripe holds an equal share of the total capacity and evicts entries on
+ * its own, so the eviction order is only exact within a single stripe. Hit, miss
+ * and eviction counts are tracked to allow tuning the cache size.
+ * @author Roan
+ * @param <K> The key data type.
+ * @param <V> The value data type.
+ * @see EvictionPolicy
+ */
+public final class ConcurrentCache<K, V>{
+	/**
+	 * The maximum number of stripes a cache is split into.
+	 */
+	private static final int MAX_STRIPES = 64;
+	/**
+	 * The minimum number of entries each stripe should be able to hold.
+	 */
+	private static final int MIN_STRIPE_CAPACITY = 16;
+	/**
+	 * The stripes in this cache.
+	 */
+	private final Stripe[] stripes;
+	/**
+	 * The maximum number of entries in this cache.
+	 */
+	private final int capacity;
+	/**
+	 * The eviction policy of this cache.
+	 */
+	private final EvictionPolicy policy;
+	/**
+	 * The number of lookups that found a value.
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * The number of lookups that did not find a value.
+	 */
+	private final LongAdder misses = new LongAdder();
+	/**
+	 * The number of entries evicted from this cache.
+	 */
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Constructs a new cache with the given capacity and eviction policy.
+	 * @param capacity The maximum number of entries in the cache.
+	 * @param policy The eviction policy to use when the cache is full.
+	 * @throws IllegalArgumentException When the capacity is less than 1.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentCache(int capacity, EvictionPolicy policy) throws IllegalArgumentException{
+		if(capacity < 1){
+			throw new IllegalArgumentException("Cache capacity has to be at least 1.");
+		}
+		
+		this.capacity = capacity;
+		this.policy = policy;
+		
+		int count = Integer.highestOneBit(Math.clamp(capacity / MIN_STRIPE_CAPACITY, 1, MAX_STRIPES));
+		stripes = new ConcurrentCache.Stripe[count];
+		for(int i = 0; i < count; i++){
+			stripes[i] = new Stripe(capacity / count + (i < capacity % count ? 1 : 0));
+		}
+	}
+	
+	/**
+	 * Gets the value cached for the given key.
+	 * @param key The key to look up.
+	 * @return The cached value or null if no value is cached.
+	 */
+	public V get(K key){
+		Stripe stripe = stripeFor(key);
+		V value;
+		synchronized(stripe){
+			value = stripe.get(key);
+		}
+		
+		(value == null ? misses : hits).increment();
+		return value;
+	}
+	
+	/**
+	 * Caches the given value for the given key, possibly evicting
+	 * another entry if this cache is full.
+	 * @param key The key to cache the value for.
+	 * @param value The value to cache, not null.
+	 */
+	public void put(K key, V value){
+		Stripe stripe = stripeFor(key);
+		synchronized(stripe){
+			stripe.put(key, value);
+		}
+	}
+	
+	/**
+	 * Removes all entries from this cache. The hit,
+	 * miss and eviction counts are not reset.
+	 */
+	public void clear(){
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				stripe.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of entries currently in this cache.
+	 * @return The number of entries in this cache.
+	 */
+	public int size(){
+		int size = 0;
+		for(Stripe stripe : stripes){
+			synchronized(stripe){
+				size += stripe.size();
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Gets the maximum number of entries in this cache.
+	 * @return The capacity of this cache.
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+	
+	/**
+	 * Gets the eviction policy of this cache.
+	 * @return The eviction policy of this cache.
+	 */
+	public EvictionPolicy getPolicy(){
+		return policy;
+	}
+	
+	/**
+	 * Gets the number of lookups that found a cached value.
+	 * @return The number of cache hits.
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+	
+	/**
+	 * Gets the number of lookups that did not find a cached value.
+	 * @return The number of cache misses.
+	 */
+	public long getMisses(){
+		return misses.sum();
+	}
+	
+	/**
+	 * Gets the number of entries that were evicted from this cache.
+	 * @return The number of evicted entries.
+	 */
+	public long getEvictions(){
+		return evictions.sum();
+	}
+	
+	/**
+	 * Gets the fraction of lookups that found a cached value.
+	 * @return The cache hit rate or 0 if there were no lookups.
+	 */
+	public double getHitRate(){
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0.0D : ((double)hit / total);
+	}
+	
+	/**
+	 * Finds the stripe responsible for the given key.
+	 * @param key The key to find the stripe for.
+	 * @return The stripe for the given key.
+	 */
+	private Stripe stripeFor(K key){
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+	
+	@Override
+	public String toString(){
+		return String.format("hits=%d, misses=%d, evictions=%d, size=%d/%d, policy=%s", getHits(), getMisses(), getEvictions(), size(), capacity, policy);
+	}
+	
+	/**
+	 * The available cache eviction policies.
+	 * @author Roan
+	 */
+	public static enum EvictionPolicy{
+		/**
+		 * Evicts the least recently accessed entry.
+		 */
+		LRU,
+		/**
+		 * Evicts the least recently inserted entry.
+		 */
+		FIFO
+	}
+	
+	/**
+	 * A single independently locked stripe of the cache.
+	 * @author Roan
+	 */
+	private final class Stripe extends LinkedHashMap<K, V>{
+		/**
+		 * Serial ID.
+		 */
+		private static final long serialVersionUID = -4394418530290592460L;
+		/**
+		 * The maximum number of entries in this stripe.
+		 */
+		private final int max;
+		
+		/**
+		 * Constructs a new empty stripe with the given capacity.
+		 * @param max The maximum number of entries in this stripe.
+		 */
+		private Stripe(int max){
+			super(16, 0.75F, policy == EvictionPolicy.LRU);
+			this.max = max;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+			if(size() > max){
+				evictions.increment();
+				return true;
+			}else{
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget that limits the amount of work spent on computing the cores of
+ * a single index block. Once any limit of the budget is exceeded core
+ * computation for the block stops and the block is marked as truncated.
+ * Cores that were found before the budget ran out are kept, since pairwise
+ * intersections are computed before larger intersections these are always
+ * favoured. When core computation runs on multiple threads the limits on
+ * candidates and cores are approximate, so the exact set of cores found
+ * for a truncated block may differ between runs.
+ * @author Roan
+ * @param maxCandidates The maximum number of candidate cores constructed from
+ *        concatenations and intersections for a single block.
+ * @param maxTime The maximum time in milliseconds spent on a single block.
+ * @param maxCores The maximum number of cores for a single block.
+ * @see Index#setCoreBudget(CoreBudget)
+ * @see Index.Block#isTruncated()
+ */
+public final record CoreBudget(long maxCandidates, long maxTime, long maxCores){
+	/**
+	 * Budget without any limits.
+	 */
+	public static final CoreBudget UNLIMITED = new CoreBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+	
+	/**
+	 * Constructs a new core budget.
+	 * @param maxCandidates The maximum number of candidate cores for a single block.
+	 * @param maxTime The maximum time in milliseconds spent on a single block.
+	 * @param maxCores The maximum number of cores for a single block.
+	 * @throws IllegalArgumentException When any of the limits is less than 1.
+	 */
+	public CoreBudget{
+		if(maxCandidates < 1 || maxTime < 1 || maxCores < 1){
+			throw new IllegalArgumentException("Budget limits have to be at least 1.");
+		}
+	}
+	
+	/**
+	 * Checks if this budget does not impose any limits.
+	 * @return True if this budget does not impose any limits.
+	 */
+	public boolean isUnlimited(){
+		return maxCandidates == Long.MAX_VALUE && maxTime == Long.MAX_VALUE && maxCores == Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Starts tracking the work spent on a single block against this budget.
+	 * @return The usage tracker for the block.
+	 */
+	Usage start(){
+		return new Usage();
+	}
+	
+	/**
+	 * Tracks the work spent on a single block against a budget.
+	 * @author Roan
+	 */
+	final class Usage{
+		/**
+		 * The number of candidate cores constructed so far.
+		 */
+		private final AtomicLong candidates = new AtomicLong(0);
+		/**
+		 * The time in milliseconds after which the budget is exceeded.
+		 */
+		private final long deadline;
+		/**
+		 * True if the budget was exceeded.
+		 */
+		private volatile boolean exhausted = false;
+		
+		/**
+		 * Constructs a new usage tracker.
+		 */
+		private Usage(){
+			long now = System.currentTimeMillis();
+			deadline = maxTime > Long.MAX_VALUE - now ? Long.MAX_VALUE : (now + maxTime);
+		}
+		
+		/**
+		 * Records that a new candidate core is about to be constructed.
+		 * @return True if the candidate can be constructed, false if the budget is exceeded.
+		 */
+		boolean spend(){
+			if(exhausted || candidates.incrementAndGet() > maxCandidates || System.currentTimeMillis() > deadline){
+				exhausted = true;
+				return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Checks if the budget is still available without recording a new candidate.
+		 * This is used to bound work that does not construct candidates, the budget
+		 * is marked as exceeded if the time limit has passed.
+		 * @return True if the budget was not exceeded yet.
+		 */
+		boolean check(){
+			if(exhausted || System.currentTimeMillis() > deadline){
+				exhausted = true;
+				return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Marks the budget as exceeded if the given number
+		 * of cores reaches the core limit.
+		 * @param count The number of cores.
+		 */
+		void limitCores(long count){
+			if(count >= maxCores){
+				exhausted = true;
+			}
+		}
+		
+		/**
+		 * Checks if a block with the given number of cores is
+		 * within the core limit and marks the budget as exceeded if not.
+		 * @param count The number of cores.
+		 * @return True if the number of cores is less than the core limit.
+		 */
+		boolean allowCores(long count){
+			if(count >= maxCores){
+				exhausted = true;
+				return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Checks if the budget was exceeded.
+		 * @return True if the budget was exceeded.
+		 */
+		boolean isExhausted(){
+			return exhausted;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+import dev.roanh.cpqindex.Nauty.ColoredGraph;
+
+/**
+ * Binding for nauty using the foreign function and memory API. Unlike the JNI
+ * binding the sparse graph is written directly to native memory in the exact
+ * format used by nauty, which is then passed to nauty without any further copying.
+ * Batches of graphs are passed to nauty in the same packed format as used by
+ * the JNI binding with a single downcall. Native memory is reused between calls
+ * on the same thread.
+ * @author Roan
+ * @see Nauty
+ */
+final class ForeignNauty{
+	/**
+	 * Method handle for the native <code>computeCanonSparseGraph</code> function.
+	 */
+	private static final MethodHandle CANON_SPARSE_GRAPH;
+	/**
+	 * Method handle for the native <code>computeCanonSparseBatchGraphs</code> function.
+	 */
+	private static final MethodHandle CANON_SPARSE_BATCH;
+	/**
+	 * Native memory buffers for the current thread.
+	 */
+	private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+	/**
+	 * Prevent instantiation.
+	 */
+	private ForeignNauty(){
+	}
+
+	/**
+	 * Ensures this binding is initialised, which requires the native
+	 * library to export all the functions used by this binding.
+	 * @throws LinkageError When the binding could not be initialised.
+	 */
+	static void load() throws LinkageError{
+	}
+
+	/**
+	 * Computes a canonical labelling of the given coloured graph.
+	 * @param graph The graph to compute a canonical labelling of.
+	 * @return The computed relabelling mapping, the format of this mapping is
+	 *         identical to {@link Nauty#computeCanonicalLabelling(ColoredGraph)}.
+	 * @throws IllegalStateException When nauty failed to label the graph.
+	 */
+	static int[] computeCanonicalLabelling(ColoredGraph graph) throws IllegalStateException{
+		int[][] adj = graph.getAdjacencyList();
+		int n = adj.length;
+		int nde = graph.getEdgeCount();
+
+		Buffer buf = BUFFERS.get();
+		buf.ensureCapacity(n, nde);
+		MemorySegment data = buf.data;
+		long dOff = n * JAVA_LONG.byteSize();
+		long eOff = dOff + n * JAVA_INT.byteSize();
+		long labOff = eOff + nde * JAVA_INT.byteSize();
+		long ptnOff = labOff + n * JAVA_INT.byteSize();
+		long orbitsOff = ptnOff + n * JAVA_INT.byteSize();
+
+		//write the sparse graph
+		long offset = 0;
+		for(int i = 0; i < n; i++){
+			int[] row = adj[i];
+			data.setAtIndex(JAVA_LONG, i, offset);
+			data.set(JAVA_INT, dOff + i * JAVA_INT.byteSize(), row.length);
+			MemorySegment.copy(row, 0, data, JAVA_INT, eOff + offset * JAVA_INT.byteSize(), row.length);
+			offset += row.length;
+		}
+
+		//write the colouring
+		int idx = 0;
+		for(int[] group : graph.getColorLists()){
+			for(int i = 0; i < group.length; i++){
+				data.set(JAVA_INT, labOff + idx * JAVA_INT.byteSize(), group[i]);
+				data.set(JAVA_INT, ptnOff + idx * JAVA_INT.byteSize(), i == group.length - 1 ? 0 : 1);
+				idx++;
+			}
+		}
+
+		int status;
+		try{
+			status = (int)CANON_SPARSE_GRAPH.invokeExact(
+				n,
+				(long)nde,
+				data,
+				data.asSlice(dOff),
+				data.asSlice(eOff),
+				data.asSlice(labOff),
+				data.asSlice(ptnOff),
+				data.asSlice(orbitsOff)
+			);
+		}catch(RuntimeException | Error e){
+			throw e;
+		}catch(Throwable t){
+			throw new IllegalStateException("Failed to invoke nauty.", t);
+		}
+
+		if(status != 0){
+			throw new IllegalStateException("Nauty failed to compute a canonical labelling.");
+		}
+
+		return data.asSlice(labOff, n * JAVA_INT.byteSize()).toArray(JAVA_INT);
+	}
+
+	/**
+	 * Computes the canonical labellings of all the given packed graphs with a single
+	 * downcall. The packed graphs are copied to native memory as a whole and the
+	 * labellings are written directly after them in the same native buffer.
+	 * @param graphs The packed graphs, the format of this array is identical
+	 *        to {@link Nauty#computeCanonSparseBatch(int[])}.
+	 * @param vertices The total number of vertices in all the graphs.
+	 * @return The canonical labellings of all graphs concatenated in input order, the
+	 *         format is identical to {@link Nauty#computeCanonSparseBatch(int[])}.
+	 * @throws IllegalStateException When nauty failed to label one of the graphs.
+	 */
+	static int[] computeCanonicalLabellings(int[] graphs, int vertices) throws IllegalStateException{
+		Buffer buf = BUFFERS.get();
+		long outOff = graphs.length * JAVA_INT.byteSize();
+		buf.ensureCapacity(outOff + vertices * JAVA_INT.byteSize());
+		MemorySegment data = buf.data;
+		MemorySegment.copy(graphs, 0, data, JAVA_INT, 0, graphs.length);
+
+		int status;
+		try{
+			status = (int)CANON_SPARSE_BATCH.invokeExact(data, data.asSlice(outOff));
+		}catch(RuntimeException | Error e){
+			throw e;
+		}catch(Throwable t){
+			throw new IllegalStateException("Failed to invoke nauty.", t);
+		}
+
+		if(status != 0){
+			throw new IllegalStateException("Nauty failed to compute a canonical labelling.");
+		}
+
+		return data.asSlice(outOff, vertices * JAVA_INT.byteSize()).toArray(JAVA_INT);
+	}
+
+	/**
+	 * Per thread native memory buffer used to pass graphs to nauty. The buffer
+	 * holds the sparse graph offsets, degrees and edges followed by the nauty
+	 * labelling, partition and orbit arrays.
+	 * @author Roan
+	 */
+	private static final class Buffer{
+		/**
+		 * The arena used to allocate native memory, the memory is
+		 * released once the buffer is no longer reachable.
+		 */
+		private final Arena arena = Arena.ofAuto();
+		/**
+		 * The current native memory segment.
+		 */
+		private MemorySegment data = MemorySegment.NULL;
+
+		/**
+		 * Ensures this buffer is large enough to hold a graph of the given size.
+		 * @param n The number of vertices in the graph.
+		 * @param nde The number of edges in the graph.
+		 */
+		private void ensureCapacity(int n, int nde){
+			ensureCapacity(n * JAVA_LONG.byteSize() + (4L * n + nde) * JAVA_INT.byteSize());
+		}
+
+		/**
+		 * Ensures this buffer has at least the given size.
+		 * @param size The required size in bytes.
+		 */
+		private void ensureCapacity(long size){
+			if(data.byteSize() < size){
+				data = arena.allocate(Math.max(size, 2 * data.byteSize()), JAVA_LONG.byteAlignment());
+			}
+		}
+	}
+
+	static{
+		Nauty.loadNatives();
+		Linker linker = Linker.nativeLinker();
+		MemoryLayout sizeT = linker.canonicalLayouts().get("size_t");
+		if(sizeT.byteSize() != JAVA_LONG.byteSize()){
+			throw new UnsupportedOperationException("The foreign nauty binding requires a 64-bit platform.");
+		}
+
+		CANON_SPARSE_GRAPH = linker.downcallHandle(
+			SymbolLookup.loaderLookup().find("computeCanonSparseGraph").orElseThrow(()->new UnsatisfiedLinkError("Native nauty library not loaded.")),
+			FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS)
+		);
+
+		CANON_SPARSE_BATCH = linker.downcallHandle(
+			SymbolLookup.loaderLookup().find("computeCanonSparseBatchGraphs").orElseThrow(()->new UnsatisfiedLinkError("Native nauty library not loaded.")),
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS)
+		);
+	}
+}
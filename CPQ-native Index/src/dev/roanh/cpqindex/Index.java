@@ -18,40 +18,71 @@
  */
 package dev.roanh.cpqindex;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import dev.roanh.cpqindex.CanonForm.CoreHash;
+import dev.roanh.cpqindex.ConcurrentCache.EvictionPolicy;
+import dev.roanh.cpqindex.Nauty.Backend;
 import dev.roanh.gmark.lang.cpq.CPQ;
+import dev.roanh.gmark.lang.cpq.ConcatCPQ;
+import dev.roanh.gmark.lang.cpq.IntersectionCPQ;
 import dev.roanh.gmark.lang.cpq.QueryGraphCPQ;
 import dev.roanh.gmark.type.schema.Predicate;
 import dev.roanh.gmark.util.RangeList;
 import dev.roanh.gmark.util.graph.generic.UniqueGraph;
-import dev.roanh.gmark.util.graph.generic.UniqueGraph.GraphEdge;
 
 /**
  * Implementation of a graph database index based on k-path-bisimulation
@@ -63,6 +94,113 @@ import dev.roanh.gmark.util.graph.generic.UniqueGraph.GraphEdge;
  * @see <a href="https://github.com/yuya-s/CPQ-aware-index">yuya-s/CPQ-aware-index</a>
  */
 public class Index{
+	/**
+	 * The number of source vertex chunks to create per thread when partitioning
+	 * the graph. Using more chunks than threads helps balance the load.
+	 * @see #partition(CompactGraph, int)
+	 */
+	private static final int PARTITION_CHUNKS_PER_THREAD = 16;
+	/**
+	 * The maximum number of candidate cores to canonize with a single call to nauty.
+	 * @see CanonForm#computeCanon(List, boolean)
+	 */
+	private static final int CANON_BATCH_SIZE = 256;
+	/**
+	 * The maximum depth in the tree of intersection subsets of a block
+	 * up to which subtrees are enumerated by separate fork join tasks.
+	 */
+	private static final int INTERSECTION_SPLIT_DEPTH = 10;
+	/**
+	 * The minimum number of cores left to pick from for subtrees of the tree of
+	 * intersection subsets of a block to be enumerated by separate fork join tasks.
+	 */
+	private static final int INTERSECTION_SPLIT_ITEMS = 16;
+	/**
+	 * Version of the stream index format, stored in the upper bits of the first byte.
+	 * Version 1 added the truncated flag of blocks, version 2 added compressed paths,
+	 * version 3 added optional chunked compression of everything after the header,
+	 * version 4 added a table of contents with sections that can be read concurrently
+	 * and version 5 added the canonical labelling backend family the cores were computed with.
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	private static final int STREAM_VERSION = 5;
+	/**
+	 * Magic number at the start of memory mapped index files.
+	 * @see #writeMapped(OutputStream)
+	 */
+	private static final int MAPPED_MAGIC = 0x4350514D;
+	/**
+	 * Version of the memory mapped index file format. Version 2 replaced
+	 * the core computation flag in the header by a set of flags.
+	 * @see #writeMapped(OutputStream)
+	 */
+	private static final int MAPPED_VERSION = 2;
+	/**
+	 * Header flag of a memory mapped index file set when cores were computed.
+	 */
+	private static final int MAPPED_FLAG_CORES = 1;
+	/**
+	 * Header flag of a memory mapped index file set when the cores
+	 * were computed with a backend that does not use nauty.
+	 * @see Backend#usesNauty()
+	 */
+	private static final int MAPPED_FLAG_JAVA_CANON = 2;
+	/**
+	 * Size in bytes of the header of a memory mapped index file.
+	 */
+	private static final long MAPPED_HEADER_SIZE = 40;
+	/**
+	 * Size in bytes of a single block table entry in a memory mapped index file.
+	 */
+	private static final long MAPPED_BLOCK_SIZE = 16;
+	/**
+	 * Size in bytes of a single core directory entry in a memory mapped index file.
+	 */
+	private static final long MAPPED_CORE_SIZE = 32;
+	/**
+	 * Maximum number of blocks read from a memory mapped index file that are kept on the heap.
+	 */
+	private static final int MAPPED_BLOCK_CACHE_SIZE = 4096;
+	/**
+	 * Layout used to read integers from a memory mapped index file.
+	 */
+	private static final ValueLayout.OfInt MAPPED_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+	/**
+	 * Layout used to read longs from a memory mapped index file.
+	 */
+	private static final ValueLayout.OfLong MAPPED_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+	/**
+	 * Magic number at the start of core computation checkpoint files.
+	 * @see #computeCores(int, Path)
+	 */
+	private static final int CHECKPOINT_MAGIC = 0x43505143;
+	/**
+	 * Minimum time in milliseconds between forcing finished blocks to a checkpoint file on disk.
+	 * @see #computeCores(int, Path)
+	 */
+	private static final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	/**
+	 * The maximum number of blocks or core directory entries in a single section of a saved index.
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	private static final int SECTION_ITEMS = 4096;
+	/**
+	 * The size in bytes after which no more items are added to a section of a saved index.
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	private static final int SECTION_SIZE = 1 << 24;
+	/**
+	 * Section layer value used for sections of the core directory.
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	private static final int SECTION_CORES = -1;
+	/**
+	 * The number of chunks per thread the queries in a batch are split
+	 * into for canonization, each chunk is canonized with a single call
+	 * to nauty and more chunks give a better balance between threads.
+	 * @see #queryBatch(List, ForkJoinPool)
+	 */
+	private static final int BATCH_CHUNKS_PER_THREAD = 4;
 	/**
 	 * Boolean indicating whether explicit representations of cores
 	 * and label sequences should be saved for the computed blocks.
@@ -83,6 +221,12 @@ public class Index{
 	 * Whether CPQ cores should be or have been computed for this index.
 	 */
 	private boolean computeCores;
+	/**
+	 * Whether the cores of this index were computed with a backend that uses
+	 * nauty, backends that do not use nauty compute different canonical forms.
+	 * @see Backend#usesNauty()
+	 */
+	private boolean nautyCores = true;
 	/**
 	 * List of predicates (labels) that appear in this index by ID.
 	 */
@@ -104,12 +248,42 @@ public class Index{
 	 * Progress listener to inform of any computation updates.
 	 */
 	private ProgressListener progress;
+	/**
+	 * If this index was opened from a memory mapped file, the directory used
+	 * to look up cores and blocks in that file, otherwise null.
+	 * @see #map(Path)
+	 */
+	private MappedDirectory mapped = null;
+	/**
+	 * Cache from the string form of candidate core CPQs to their canonical
+	 * core hash, null if canonical forms should not be cached.
+	 * @see #setCanonCache(int, EvictionPolicy)
+	 */
+	private ConcurrentCache<String, CoreCandidate> canonCache = null;
+	/**
+	 * Cache from the normalised form of queries to their index key, null if
+	 * query keys should not be cached.
+	 * @see #normalise(CPQ)
+	 * @see #setQueryCache(int, EvictionPolicy)
+	 */
+	private ConcurrentCache<String, CoreHash> queryKeyCache = null;
+	/**
+	 * Cache from index keys to the blocks resolved from a memory mapped
+	 * index file, null if resolved blocks should not be cached.
+	 * @see #setQueryCache(int, EvictionPolicy)
+	 */
+	private ConcurrentCache<CoreHash, List<Block>> queryBlockCache = null;
+	/**
+	 * The budget that limits the work spent on computing the cores of a single block.
+	 * @see #setCoreBudget(CoreBudget)
+	 */
+	private CoreBudget budget = CoreBudget.UNLIMITED;
 	
 	/**
 	 * Constructs a new CPQ-native index for the given graph and diameter.
 	 * @param g The graph to compute and index for.
 	 * @param k The CPQ diameter k to compute the index for.
-	 * @param threads The number of CPU threads to use for computing cores.
+	 * @param threads The number of CPU threads to use for partitioning and computing cores.
 	 * @throws IllegalArgumentException When k is less than 1.
 	 * @throws InterruptedException When the current thread is interrupted during core computation.
 	 */
@@ -121,7 +295,7 @@ public class Index{
 	 * Constructs a new CPQ-native index for the given graph, diameter and diameter limit.
 	 * @param g The graph to compute and index for.
 	 * @param k The CPQ diameter k to compute the index for.
-	 * @param threads The number of CPU threads to use for computing cores.
+	 * @param threads The number of CPU threads to use for partitioning and computing cores.
 	 * @param maxIntersections The maximum number of same level CPQs allowed in intersections.
 	 *        Limiting intersection CPQs greatly decreases the number of cores that need to be computed.
 	 * @throws IllegalArgumentException When k is less than 1.
@@ -138,7 +312,7 @@ public class Index{
 	 * @param computeCores True to compute cores, if false cores are not computed
 	 *        and can instead later be computed using {@link #computeCores(int)} if desired.
 	 * @param computeLabels True to compute core and label sequence labels for each index block.
-	 * @param threads The number of CPU threads to use for computing cores.
+	 * @param threads The number of CPU threads to use for partitioning and computing cores.
 	 * @throws IllegalArgumentException When k is less than 1.
 	 * @throws InterruptedException When the current thread is interrupted during core computation.
 	 * @see #computeCores(int)
@@ -154,7 +328,7 @@ public class Index{
 	 * @param computeCores True to compute cores, if false cores are not computed
 	 *        and can instead later be computed using {@link #computeCores(int)} if desired.
 	 * @param computeLabels True to compute core and label sequence labels for each index block.
-	 * @param threads The number of CPU threads to use for computing cores.
+	 * @param threads The number of CPU threads to use for partitioning and computing cores.
 	 * @param maxIntersections The maximum number of same level CPQs allowed in intersections.
 	 *        Limiting intersection CPQs greatly decreases the number of cores that need to be computed.
 	 * @param listener The progress listener to send computation progress updates to.
@@ -164,6 +338,27 @@ public class Index{
 	 * @see ProgressListener
 	 */
 	public Index(UniqueGraph<Integer, Predicate> g, int k, boolean computeCores, boolean computeLabels, int threads, int maxIntersections, ProgressListener listener) throws IllegalArgumentException, InterruptedException{
+		this(new CompactGraph(g), k, computeCores, computeLabels, threads, maxIntersections, listener);
+	}
+	
+	/**
+	 * Constructs a new CPQ-native index for the given compact graph and diameter.
+	 * @param g The graph to compute and index for.
+	 * @param k The CPQ diameter k to compute the index for.
+	 * @param computeCores True to compute cores, if false cores are not computed
+	 *        and can instead later be computed using {@link #computeCores(int)} if desired.
+	 * @param computeLabels True to compute core and label sequence labels for each index block.
+	 * @param threads The number of CPU threads to use for partitioning and computing cores.
+	 * @param maxIntersections The maximum number of same level CPQs allowed in intersections.
+	 *        Limiting intersection CPQs greatly decreases the number of cores that need to be computed.
+	 * @param listener The progress listener to send computation progress updates to.
+	 * @throws IllegalArgumentException When k is less than 1.
+	 * @throws InterruptedException When the current thread is interrupted during core computation.
+	 * @see #computeCores(int)
+	 * @see ProgressListener
+	 * @see CompactGraph#read(Path)
+	 */
+	public Index(CompactGraph g, int k, boolean computeCores, boolean computeLabels, int threads, int maxIntersections, ProgressListener listener) throws IllegalArgumentException, InterruptedException{
 		this.computeLabels = computeLabels;
 		this.maxIntersections = maxIntersections;
 		this.k = k;
@@ -171,7 +366,7 @@ public class Index{
 		blocks = layers.get(k - 1);
 		setProgressListener(listener == null ? ProgressListener.NONE : listener);
 		
-		computeBlocks(partition(g));
+		computeBlocks(partition(g, threads));
 		if(computeCores){
 			computeCores(threads);
 			this.computeCores = true;
@@ -184,51 +379,148 @@ public class Index{
 	 * Reads a previously saved index. Any previously
 	 * attached progress listeners will be detached.
 	 * @param source The input stream to read from.
-	 * @throws IOException When an IOException occurs.
+	 * @throws IOException When an IOException occurs or when the
+	 *         index was saved with a newer version of the format.
 	 * @see #setProgressListener(ProgressListener)
+	 * @see #Index(InputStream, int)
 	 */
 	public Index(InputStream source) throws IOException{
+		this(source, 1);
+	}
+	
+	/**
+	 * Reads a previously saved index. Any previously attached progress
+	 * listeners will be detached. The sections of the index are deserialized
+	 * concurrently using the given number of threads and if the index was
+	 * saved compressed, it is also decompressed concurrently.
+	 * @param source The input stream to read from.
+	 * @param threads The number of CPU threads to use for reading.
+	 * @throws IOException When an IOException occurs or when the
+	 *         index was saved with a newer version of the format.
+	 * @see #setProgressListener(ProgressListener)
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	public Index(InputStream source, int threads) throws IOException{
 		DataInputStream in = new DataInputStream(source);
-		boolean full = in.readBoolean();
-		computeCores = in.readBoolean();
-		computeLabels = in.readBoolean();
-		maxIntersections = in.readInt();
-		k = in.readInt();
-		progress = ProgressListener.NONE;
+		int header = in.readUnsignedByte();
+		boolean full = (header & 1) != 0;
+		int version = header >>> 1;
+		if(version > STREAM_VERSION){
+			throw new IOException("Unsupported index version: " + version);
+		}
 		
-		if(full){
-			predicates = new RangeList<Predicate>(in.readInt());
-			for(int i = 0; i < predicates.size(); i++){
-				byte[] data = new byte[in.readInt()];
-				in.readFully(data);
-				predicates.set(i, new Predicate(i, new String(data, StandardCharsets.UTF_8)));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try{
+			if(version >= 3 && in.readBoolean()){
+				in = new DataInputStream(new CompressedInputStream(source, pool, threads * 2));
+			}
+			
+			computeCores = in.readBoolean();
+			computeLabels = in.readBoolean();
+			maxIntersections = in.readInt();
+			k = in.readInt();
+			nautyCores = version < 5 || in.readBoolean();
+			progress = ProgressListener.NONE;
+			checkReadBackend();
+			
+			if(full){
+				predicates = new RangeList<Predicate>(in.readInt());
+				for(int i = 0; i < predicates.size(); i++){
+					byte[] data = new byte[in.readInt()];
+					in.readFully(data);
+					predicates.set(i, new Predicate(i, new String(data, StandardCharsets.UTF_8)));
+				}
+			}
+			
+			RangeList<Block> blockMap = new RangeList<Block>(in.readInt());
+			layers = new RangeList<List<Block>>(k, ArrayList::new);
+			blocks = layers.get(k - 1);
+			if(version >= 4){
+				readSections(in, full, version, blockMap, pool);
+				return;
+			}
+			
+			for(int i = full ? 0 : (k - 1); i < k; i++){
+				List<Block> layer = layers.get(i);
+				int len = in.readInt();
+				for(int j = 0; j < len; j++){
+					Block block = new Block(in, full, version, blockMap);
+					layer.add(block);
+					blockMap.set(block.getId(), block);
+				}
+			}
+
+			int len = in.readInt();
+			for(int i = 0; i < len; i++){
+				CoreHash key = CoreHash.read(in);
+
+				int count = in.readInt();
+				List<Block> blocks = new ArrayList<Block>(count);
+				for(int c = 0; c < count; c++){
+					blocks.add(blockMap.get(in.readInt()));
+				}
+
+				coreToBlock.put(key, blocks);
 			}
+		}finally{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Constructs a new read only index backed by the given memory mapped index file.
+	 * @param data The memory mapped index file.
+	 * @throws IOException When the given data is not a valid memory mapped index.
+	 * @see #map(Path)
+	 */
+	private Index(MemorySegment data) throws IOException{
+		if(data.byteSize() < MAPPED_HEADER_SIZE || data.get(MAPPED_INT, 0) != MAPPED_MAGIC){
+			throw new IOException("Not a memory mapped index file.");
+		}else if(data.get(MAPPED_INT, 4) > MAPPED_VERSION){
+			throw new IOException("Unsupported memory mapped index version: " + data.get(MAPPED_INT, 4));
 		}
 		
-		RangeList<Block> blockMap = new RangeList<Block>(in.readInt());
+		k = data.get(MAPPED_INT, 8);
+		maxIntersections = data.get(MAPPED_INT, 12);
+		int flags = data.get(MAPPED_INT, 16);
+		computeCores = (flags & MAPPED_FLAG_CORES) != 0;
+		nautyCores = (flags & MAPPED_FLAG_JAVA_CANON) == 0;
+		computeLabels = false;
+		progress = ProgressListener.NONE;
+		checkReadBackend();
+		mapped = new MappedDirectory(data);
+		
 		layers = new RangeList<List<Block>>(k, ArrayList::new);
-		blocks = layers.get(k - 1);
-		for(int i = full ? 0 : (k - 1); i < k; i++){
-			List<Block> layer = layers.get(i);
-			int len = in.readInt();
-			for(int j = 0; j < len; j++){
-				Block block = new Block(in, full, blockMap);
-				layer.add(block);
-				blockMap.set(block.getId(), block);
+		blocks = new AbstractList<Block>(){
+			
+			@Override
+			public Block get(int index){
+				return mapped.getBlock(index);
 			}
-		}
-
-		int len = in.readInt();
-		for(int i = 0; i < len; i++){
-			CoreHash key = CoreHash.read(in);
-
-			int count = in.readInt();
-			List<Block> blocks = new ArrayList<Block>(count);
-			for(int c = 0; c < count; c++){
-				blocks.add(blockMap.get(in.readInt()));
+			
+			@Override
+			public int size(){
+				return mapped.blockCount;
 			}
-
-			coreToBlock.put(key, blocks);
+		};
+		layers.set(k - 1, blocks);
+	}
+	
+	/**
+	 * Opens a previously saved memory mapped index. The file is mapped into memory
+	 * and the core directory is searched in place, blocks are only read from the
+	 * file once a query first touches them. The returned index can only be used
+	 * to answer queries, it cannot be written again or have cores computed for it.
+	 * @param file The file to map, this file should have been written using
+	 *        {@link #writeMapped(OutputStream)}.
+	 * @return The memory mapped index.
+	 * @throws IOException When an IOException occurs or when the
+	 *         given file is not a memory mapped index file.
+	 * @see #writeMapped(OutputStream)
+	 */
+	public static Index map(Path file) throws IOException{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			return new Index(channel.map(MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto()));
 		}
 	}
 	
@@ -256,6 +548,100 @@ public class Index{
 		return maxIntersections;
 	}
 
+	/**
+	 * Configures the cache used to memoize the canonical forms of candidate
+	 * cores during core computation. The same small CPQs are often canonized
+	 * for many different blocks, so caching them avoids repeated core and
+	 * canonical labelling computations. By default no cache is used.
+	 * @param capacity The maximum number of cached canonical forms, or 0 to disable caching.
+	 * @param policy The eviction policy to use when the cache is full.
+	 * @throws IllegalStateException When cores have already been computed for this index.
+	 * @see #getCanonCache()
+	 */
+	public final void setCanonCache(int capacity, EvictionPolicy policy) throws IllegalStateException{
+		if(computeCores){
+			throw new IllegalStateException("Cores have already been computed.");
+		}
+		
+		canonCache = capacity <= 0 ? null : new ConcurrentCache<String, CoreCandidate>(capacity, policy);
+	}
+	
+	/**
+	 * Gets the cache used to memoize the canonical forms of candidate cores,
+	 * this can be used to inspect cache statistics.
+	 * @return The canonical form cache or null if caching is disabled.
+	 * @see #setCanonCache(int, EvictionPolicy)
+	 */
+	public final ConcurrentCache<String, ?> getCanonCache(){
+		return canonCache;
+	}
+	
+	/**
+	 * Configures the caches used to speed up repeated queries. Computing the index key
+	 * of a query requires computing its core and canonical form, so the keys of queries
+	 * are cached on the normalised form of the query, which is the same for queries that
+	 * only differ in the order or nesting of intersections and concatenations. For a
+	 * memory mapped index the blocks
+	 * resolved for a key are cached as well, so they do not have to be located and read
+	 * from the file again. Both caches have the given capacity and by default no caches
+	 * are used.
+	 * @param capacity The maximum number of cached entries in each cache, or 0 to disable caching.
+	 * @param policy The eviction policy to use when a cache is full.
+	 * @see #getQueryKeyCache()
+	 * @see #getQueryBlockCache()
+	 */
+	public final void setQueryCache(int capacity, EvictionPolicy policy){
+		queryKeyCache = capacity <= 0 ? null : new ConcurrentCache<String, CoreHash>(capacity, policy);
+		queryBlockCache = capacity <= 0 ? null : new ConcurrentCache<CoreHash, List<Block>>(capacity, policy);
+	}
+	
+	/**
+	 * Gets the cache used to memoize the index keys of queries,
+	 * this can be used to inspect cache statistics.
+	 * @return The query key cache or null if caching is disabled.
+	 * @see #setQueryCache(int, EvictionPolicy)
+	 */
+	public final ConcurrentCache<String, ?> getQueryKeyCache(){
+		return queryKeyCache;
+	}
+	
+	/**
+	 * Gets the cache used to memoize the blocks resolved for index keys, this can be
+	 * used to inspect cache statistics. Note that this cache is only used for memory
+	 * mapped indexes, since otherwise blocks are looked up in memory directly.
+	 * @return The query block cache or null if caching is disabled.
+	 * @see #setQueryCache(int, EvictionPolicy)
+	 */
+	public final ConcurrentCache<CoreHash, ?> getQueryBlockCache(){
+		return queryBlockCache;
+	}
+	
+	/**
+	 * Sets the budget that limits the work spent on computing the cores of a single
+	 * block. Blocks that exceed the budget are marked as truncated and only keep the
+	 * cores found before the budget ran out. By default the budget is unlimited.
+	 * @param budget The budget for a single block.
+	 * @throws IllegalStateException When cores have already been computed for this index.
+	 * @see Block#isTruncated()
+	 * @see #getTruncatedBlocks()
+	 */
+	public final void setCoreBudget(CoreBudget budget) throws IllegalStateException{
+		if(computeCores){
+			throw new IllegalStateException("Cores have already been computed.");
+		}
+		
+		this.budget = budget;
+	}
+	
+	/**
+	 * Gets the budget that limits the work spent on computing the cores of a single block.
+	 * @return The budget for a single block.
+	 * @see #setCoreBudget(CoreBudget)
+	 */
+	public final CoreBudget getCoreBudget(){
+		return budget;
+	}
+
 	/**
 	 * Gets the value of k (the CPQ diameter) this index was computed for.
 	 * @return The k value for this index.
@@ -270,15 +656,47 @@ public class Index{
 	 * @param full When true extra information is saved that
 	 *        is required for core computation.
 	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When this index is memory mapped.
+	 * @see #computeCores(int)
+	 * @see #writeMapped(OutputStream)
+	 * @see #write(OutputStream, boolean, boolean)
+	 */
+	public final void write(OutputStream target, boolean full) throws IOException, IllegalStateException{
+		write(target, full, false);
+	}
+	
+	/**
+	 * Write this index to the given output stream, optionally compressed. When
+	 * compressed everything after the first bytes of the index is compressed in
+	 * independent chunks that can be decompressed in parallel when the index is
+	 * read back. This is mostly useful when reading the index is limited by the
+	 * available bandwidth rather than by the CPU.
+	 * @param target The output stream to write to.
+	 * @param full When true extra information is saved that
+	 *        is required for core computation.
+	 * @param compress When true the index is saved compressed.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When this index is memory mapped.
 	 * @see #computeCores(int)
+	 * @see #Index(InputStream, int)
 	 */
-	public final void write(OutputStream target, boolean full) throws IOException{
+	public final void write(OutputStream target, boolean full, boolean compress) throws IOException, IllegalStateException{
+		checkNotMapped();
 		DataOutputStream out = new DataOutputStream(target);
-		out.writeBoolean(full);
+		out.writeByte((STREAM_VERSION << 1) | (full ? 1 : 0));
+		out.writeBoolean(compress);
+		CompressedOutputStream compressed = null;
+		if(compress){
+			out.flush();
+			compressed = new CompressedOutputStream(target);
+			out = new DataOutputStream(compressed);
+		}
+		
 		out.writeBoolean(computeCores);
 		out.writeBoolean(computeLabels);
 		out.writeInt(maxIntersections);
 		out.writeInt(k);
+		out.writeBoolean(nautyCores);
 		
 		if(full){
 			out.writeInt(predicates.size());
@@ -290,217 +708,1034 @@ public class Index{
 		}
 		
 		out.writeInt(layers.get(k - 1).stream().mapToInt(Block::getId).max().orElse(0) + 1);
+		List<Section> sections = new ArrayList<Section>();
 		for(int i = full ? 0 : (k - 1); i < k; i++){
-			List<Block> layer = layers.get(i);
-			out.writeInt(layer.size());
-			for(Block block : layer){
-				block.write(out, full);
-			}
+			writeSections(sections, i, layers.get(i), (data, block)->block.write(data, full));
 		}
 		
-		out.writeInt(coreToBlock.size());
-		for(Entry<CoreHash, List<Block>> entry : coreToBlock.entrySet()){
-			entry.getKey().write(out);
+		writeSections(sections, SECTION_CORES, coreToBlock.entrySet(), (data, entry)->{
+			entry.getKey().write(data);
 			List<Block> blocks = entry.getValue();
-			out.writeInt(blocks.size());
+			data.writeInt(blocks.size());
 			for(Block block : blocks){
-				out.writeInt(block.getId());
+				data.writeInt(block.getId());
 			}
+		});
+		
+		//table of contents
+		out.writeInt(sections.size());
+		for(Section section : sections){
+			out.writeInt(section.layer());
+			out.writeInt(section.items());
+			out.writeInt(section.data().length);
+		}
+		
+		for(Section section : sections){
+			out.write(section.data());
+		}
+		
+		out.flush();
+		if(compressed != null){
+			compressed.finish();
 		}
 	}
 	
 	/**
-	 * Runs the given query on this index and returns the result. Note that
-	 * the intersection limit has to be respected if a limit was set.
-	 * @param cpq The query to run.
-	 * @return The paths matched by the query.
-	 * @throws IllegalArgumentException When the query has a diameter equal
-	 *         to 0 or larger than the diameter of this index.
-	 * @see #setIntersections(int)
-	 * @see CPQ#getDiameter()
-	 * @see #computeResultCardinality(CPQ)
-	 */
-	public final List<Pair> query(CPQ cpq) throws IllegalArgumentException{
-		return streamBlocks(cpq).flatMap(b->b.getPaths().stream()).toList();
-	}
-
-	/**
-	 * Computes the number of paths matched by the given query.
-	 * Note that the intersection limit has to be respected if a limit was set.
-	 * @param cpq The query to compute the number of paths for.
-	 * @return The number of paths matched by the query.
-	 * @throws IllegalArgumentException When the query has a diameter equal
-	 *         to 0 or larger than the diameter of this index.
-	 * @see #setIntersections(int)
-	 * @see CPQ#getDiameter()
-	 * @see #query(CPQ)
+	 * Serializes the given items into sections of at most {@link #SECTION_ITEMS} items.
+	 * @param <T> The item data type.
+	 * @param sections The list to add the created sections to.
+	 * @param layer The layer index of the items or {@link #SECTION_CORES}.
+	 * @param items The items to serialize.
+	 * @param writer The function to serialize a single item with.
+	 * @throws IOException When an IOException occurs.
+	 * @see Section
 	 */
-	public final long computeResultCardinality(CPQ cpq) throws IllegalArgumentException{
-		return streamBlocks(cpq).mapToLong(Block::getPathCount).sum();
+	private static <T> void writeSections(List<Section> sections, int layer, Iterable<T> items, SectionWriter<T> writer) throws IOException{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buffer);
+		int count = 0;
+		for(T item : items){
+			writer.write(data, item);
+			count++;
+			
+			if(count == SECTION_ITEMS || buffer.size() >= SECTION_SIZE){
+				sections.add(new Section(layer, count, buffer.toByteArray()));
+				buffer.reset();
+				count = 0;
+			}
+		}
+		
+		if(count != 0){
+			sections.add(new Section(layer, count, buffer.toByteArray()));
+		}
 	}
 	
 	/**
-	 * Returns a stream over the blocks matched by the given query.
-	 * Note that the intersection limit has to be respected if a limit was set.
-	 * @param cpq The query to find blocks for.
-	 * @return A stream over the blocks matched by the given query.
-	 * @throws IllegalArgumentException When the query has a diameter equal
-	 *         to 0 or larger than the diameter of this index.
-	 * @see #setIntersections(int)
+	 * Reads the table of contents and all sections of a saved index. The sections are
+	 * deserialized concurrently as soon as they are read. Since blocks in a section can
+	 * reference blocks in any other section, references are only resolved once all
+	 * sections are read. Blocks only ever reference blocks in earlier layers, so
+	 * references are resolved layer by layer.
+	 * @param in The stream to read from, positioned at the table of contents.
+	 * @param full True if the index was saved with extra information.
+	 * @param version The version of the stream format.
+	 * @param blockMap The map to store all blocks in by ID.
+	 * @param pool The pool to deserialize sections on.
+	 * @throws IOException When an IOException occurs or the index is invalid.
+	 * @see #write(OutputStream, boolean, boolean)
 	 */
-	private final Stream<Block> streamBlocks(CPQ cpq) throws IllegalArgumentException{
-		if(cpq.getDiameter() > k || cpq.getDiameter() == 0){
-			throw new IllegalArgumentException("Query diameter equal to 0 or larger than index diameter.");
+	private final void readSections(DataInputStream in, boolean full, int version, RangeList<Block> blockMap, ForkJoinPool pool) throws IOException{
+		int count = in.readInt();
+		int[] layerOf = new int[count];
+		int[] items = new int[count];
+		int[] lengths = new int[count];
+		for(int i = 0; i < count; i++){
+			layerOf[i] = in.readInt();
+			items[i] = in.readInt();
+			lengths[i] = in.readInt();
+			if(layerOf[i] < SECTION_CORES || layerOf[i] >= k || items[i] < 0 || lengths[i] < 0){
+				throw new IOException("Invalid index section.");
+			}
+		}
+		
+		List<CompletableFuture<List<Block>>> blockSections = new ArrayList<CompletableFuture<List<Block>>>();
+		List<CompletableFuture<List<Entry<CoreHash, int[]>>>> coreSections = new ArrayList<CompletableFuture<List<Entry<CoreHash, int[]>>>>();
+		for(int i = 0; i < count; i++){
+			byte[] data = new byte[lengths[i]];
+			in.readFully(data);
+			
+			final int size = items[i];
+			if(layerOf[i] == SECTION_CORES){
+				coreSections.add(CompletableFuture.supplyAsync(()->readSection(data, size, section->{
+					CoreHash key = CoreHash.read(section);
+					int[] ids = new int[section.readInt()];
+					for(int c = 0; c < ids.length; c++){
+						ids[c] = section.readInt();
+					}
+					
+					return Map.entry(key, ids);
+				}), pool));
+			}else{
+				blockSections.add(CompletableFuture.supplyAsync(()->readSection(data, size, section->new Block(section, full, version, null)), pool));
+			}
 		}
 		
-		return coreToBlock.getOrDefault(
-			CanonForm.computeCanon(cpq, false).toHashCanon(),
-			Collections.emptyList()
-		).stream();
+		int section = 0;
+		for(int i = 0; i < count; i++){
+			if(layerOf[i] != SECTION_CORES){
+				layers.get(layerOf[i]).addAll(joinSection(blockSections.get(section++)));
+			}
+		}
+		
+		//resolve references between blocks
+		for(List<Block> layer : layers){
+			pool.invoke(ForkJoinTask.adapt(()->layer.parallelStream().forEach(block->block.resolveReferences(blockMap))));
+			for(Block block : layer){
+				blockMap.set(block.getId(), block);
+			}
+		}
+		
+		for(CompletableFuture<List<Entry<CoreHash, int[]>>> future : coreSections){
+			for(Entry<CoreHash, int[]> entry : joinSection(future)){
+				List<Block> blocks = new ArrayList<Block>(entry.getValue().length);
+				for(int id : entry.getValue()){
+					blocks.add(blockMap.get(id));
+				}
+				
+				coreToBlock.put(entry.getKey(), blocks);
+			}
+		}
 	}
 	
 	/**
-	 * Sets the progress listener to send computation updates to.
-	 * @param listener The listener to send computation updates to.
-	 * @see ProgressListener
+	 * Deserializes all the items in a single section of a saved index.
+	 * @param <T> The item data type.
+	 * @param data The serialized section.
+	 * @param items The number of items in the section.
+	 * @param reader The function to deserialize a single item with.
+	 * @return The deserialized items.
+	 * @throws UncheckedIOException When the section is invalid.
 	 */
-	public final void setProgressListener(ProgressListener listener){
-		progress = listener;
+	private static <T> List<T> readSection(byte[] data, int items, SectionReader<T> reader) throws UncheckedIOException{
+		try{
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			List<T> result = new ArrayList<T>(items);
+			for(int i = 0; i < items; i++){
+				result.add(reader.read(in));
+			}
+			
+			if(in.available() != 0){
+				throw new IOException("Invalid index section.");
+			}
+			
+			return result;
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
 	}
 	
 	/**
-	 * Gets all the blocks in this index.
-	 * @return All the blocks in this index.
+	 * Waits for a section of a saved index to be deserialized.
+	 * @param <T> The item data type.
+	 * @param section The section being deserialized.
+	 * @return The deserialized items in the section.
+	 * @throws IOException When the section is invalid.
 	 */
-	public final List<Block> getBlocks(){
-		return blocks;
+	private static <T> List<T> joinSection(CompletableFuture<List<T>> section) throws IOException{
+		try{
+			return section.join();
+		}catch(CompletionException e){
+			throw e.getCause() instanceof UncheckedIOException io ? io.getCause() : new IOException("Invalid index section.", e.getCause());
+		}
 	}
 	
 	/**
-	 * Sorts all the list of blocks of this index. There's is no real
-	 * reason to do this other than to make the output of {@link #print()}
-	 * more organised.
-	 * @see #print()
-	 */
-	public final void sort(){
-		for(Block block : blocks){
-			block.paths.sort(null);
-			if(block.labels != null){
-				block.labels.sort(null);
+	 * Writes this index to the given output stream in a format that can later be
+	 * memory mapped using {@link #map(Path)}. In this format the core directory and
+	 * block paths can be accessed in place without first reading the entire file.
+	 * Only the information required to answer queries is saved.
+	 * <p>
+	 * The file starts with a fixed size header followed by a table with for each
+	 * block its ID, number of paths and the offset of its paths. This table is
+	 * followed by the core directory, which is sorted on core hash and has for each
+	 * core the offset of its binary canonical form and the offset of the list of
+	 * blocks the core occurs in. The directory is followed by the block table indices
+	 * of all truncated blocks. All remaining variable length data follows after.
+	 * @param target The output stream to write to.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When this index is itself memory mapped.
+	 * @see #map(Path)
+	 * @see #write(OutputStream, boolean)
+	 */
+	public final void writeMapped(OutputStream target) throws IOException, IllegalStateException{
+		checkNotMapped();
+		DataOutputStream out = new DataOutputStream(target);
+		
+		//the directory is sorted on hash so it can be binary searched
+		List<Entry<CoreHash, List<Block>>> cores = new ArrayList<Entry<CoreHash, List<Block>>>(coreToBlock.entrySet());
+		cores.sort(Comparator.comparingInt(e->e.getKey().hashCode()));
+		
+		Map<Block, Integer> blockIndex = new IdentityHashMap<Block, Integer>();
+		for(int i = 0; i < blocks.size(); i++){
+			blockIndex.put(blocks.get(i), i);
+		}
+		
+		int[] truncated = IntStream.range(0, blocks.size()).filter(i->blocks.get(i).isTruncated()).toArray();
+		
+		//compute section offsets
+		long directory = MAPPED_HEADER_SIZE + MAPPED_BLOCK_SIZE * blocks.size();
+		long offset = directory + MAPPED_CORE_SIZE * cores.size() + 4L * truncated.length;
+		
+		//header
+		out.writeInt(MAPPED_MAGIC);
+		out.writeInt(MAPPED_VERSION);
+		out.writeInt(k);
+		out.writeInt(maxIntersections);
+		out.writeInt((computeCores ? MAPPED_FLAG_CORES : 0) | (nautyCores ? 0 : MAPPED_FLAG_JAVA_CANON));
+		out.writeInt(blocks.size());
+		out.writeInt(cores.size());
+		out.writeInt(truncated.length);
+		out.writeLong(directory);
+		
+		//block table
+		for(Block block : blocks){
+			out.writeInt(block.getId());
+			out.writeInt(block.getPathCount());
+			out.writeLong(offset);
+			offset += 8L * block.getPathCount();
+		}
+		
+		//core directory
+		for(Entry<CoreHash, List<Block>> entry : cores){
+			int len = entry.getKey().getBinaryCanon().length;
+			out.writeInt(entry.getKey().hashCode());
+			out.writeInt(len);
+			out.writeInt(entry.getValue().size());
+			out.writeInt(0);
+			out.writeLong(offset);
+			out.writeLong(offset + len);
+			offset += len + 4L * entry.getValue().size();
+		}
+		
+		//truncated blocks
+		for(int idx : truncated){
+			out.writeInt(idx);
+		}
+		
+		//block paths, packed pairs have the same big endian layout as two integers
+		for(Block block : blocks){
+			for(long path : block.paths){
+				out.writeLong(path);
 			}
 		}
 		
-		blocks.sort(Comparator.comparing(b->b.paths.get(0)));
+		//canonical forms and block lists
+		for(Entry<CoreHash, List<Block>> entry : cores){
+			out.write(entry.getKey().getBinaryCanon());
+			for(Block block : entry.getValue()){
+				out.writeInt(blockIndex.get(block));
+			}
+		}
 	}
 	
 	/**
-	 * Prints the index to standard output.
-	 * @see #sort()
+	 * Checks that this index is not memory mapped.
+	 * @throws IllegalStateException When this index is memory mapped.
+	 * @see #map(Path)
 	 */
-	public final void print(){
-		int maxPath = blocks.stream().mapToInt(b->b.paths.size()).max().orElse(0);
-		int maxLab = blocks.stream().mapToInt(b->b.labels.size()).max().orElse(0);
-		StringBuilder[] out = new StringBuilder[4 + maxPath + maxLab + blocks.stream().mapToInt(b->b.cores.size()).max().orElse(0)];
-		int labStart = 3 + blocks.stream().mapToInt(b->b.paths.size()).max().orElse(0);
-		int coreStart = labStart + 1 + maxLab;
-		for(int i = 0; i < out.length; i++){
-			out[i] = new StringBuilder();
+	private final void checkNotMapped() throws IllegalStateException{
+		if(mapped != null){
+			throw new IllegalStateException("Operation not supported for a memory mapped index.");
+		}
+	}
+	
+	/**
+	 * Checks that the canonical labelling backend in use computes the same canonical
+	 * forms as the backend the cores of this index were computed with. If this is not
+	 * the case, the keys of queries would never match the cores in this index.
+	 * @throws IllegalStateException When the backend in use computes different canonical forms.
+	 * @see Backend#usesNauty()
+	 */
+	private final void checkBackend() throws IllegalStateException{
+		if(computeCores){
+			Backend backend = Nauty.getBackend();
+			if(backend.usesNauty() != nautyCores){
+				throw new IllegalStateException(
+					"The cores of this index were computed with " + (nautyCores ? "a nauty based" : "the JAVA") +
+					" canonical labelling backend, but the selected " + backend + " backend computes different canonical forms."
+				);
+			}
+		}
+	}
+	
+	/**
+	 * Checks that an index that is being read can be used with the canonical
+	 * labelling backend in use.
+	 * @throws IOException When the backend in use computes different canonical
+	 *         forms than the backend the cores of the index were computed with.
+	 * @see #checkBackend()
+	 */
+	private final void checkReadBackend() throws IOException{
+		try{
+			checkBackend();
+		}catch(IllegalStateException e){
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Runs the given query on this index and returns the result. Note that
+	 * the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @return The paths matched by the query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see #setIntersections(int)
+	 * @see CPQ#getDiameter()
+	 * @see #computeResultCardinality(CPQ)
+	 * @see #queryStream(CPQ)
+	 */
+	public final List<Pair> query(CPQ cpq) throws IllegalArgumentException{
+		return queryStream(cpq).toList();
+	}
+	
+	/**
+	 * Runs the given query on this index and returns a lazy stream over the
+	 * result. Paths are only read from the matched blocks as the stream is
+	 * consumed, so the result is never materialized as a whole. Note that
+	 * the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @return A stream over the paths matched by the query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see #query(CPQ)
+	 * @see #queryPackedStream(CPQ)
+	 */
+	public final Stream<Pair> queryStream(CPQ cpq) throws IllegalArgumentException{
+		return queryPackedStream(cpq).mapToObj(Pair::new);
+	}
+	
+	/**
+	 * Runs the given query on this index and returns a lazy stream over the
+	 * result as packed paths. For a memory mapped index paths are read directly
+	 * from the file without reading the matched blocks. Note that the
+	 * intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @return A stream over the paths matched by the query packed as longs.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see Pair#pack(int, int)
+	 * @see #queryPacked(CPQ)
+	 */
+	public final LongStream queryPackedStream(CPQ cpq) throws IllegalArgumentException{
+		if(mapped != null){
+			return mapped.streamPaths(computeKey(cpq));
 		}
 		
-		int currentWidth = 0;
-		for(Block block : blocks){
-			int blockWidth = 5;
-			if(currentWidth > 0){
-				for(int i = 0; i < out.length; i++){
-					out[i].append('|');
+		return streamBlocks(cpq).flatMapToLong(b->Arrays.stream(b.paths));
+	}
+	
+	/**
+	 * Runs the given query on this index and passes each path in the result to
+	 * the given consumer. No objects are created for any of the paths. Note that
+	 * the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @param consumer The consumer to pass the matched paths to.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see #queryPackedStream(CPQ)
+	 */
+	public final void query(CPQ cpq, PathConsumer consumer) throws IllegalArgumentException{
+		if(mapped != null){
+			queryPackedStream(cpq).forEach(path->consumer.accept(Pair.unpackSource(path), Pair.unpackTarget(path)));
+		}else{
+			streamBlocks(cpq).forEach(block->{
+				for(long path : block.paths){
+					consumer.accept(Pair.unpackSource(path), Pair.unpackTarget(path));
 				}
+			});
+		}
+	}
+	
+	/**
+	 * Runs the given query on this index and returns the result as packed
+	 * paths. This avoids allocating a pair object for every matched path.
+	 * Note that the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @return The paths matched by the query packed as longs.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see Pair#pack(int, int)
+	 * @see #query(CPQ)
+	 */
+	public final long[] queryPacked(CPQ cpq) throws IllegalArgumentException{
+		return queryPackedStream(cpq).toArray();
+	}
+	
+	/**
+	 * Runs the given query on this index and returns the result as packed paths
+	 * sorted on source and target. Since the paths in each block are already sorted,
+	 * the paths of the matched blocks are combined with a k-way merge instead of
+	 * sorting the result. Note that the intersection limit has to be respected if
+	 * a limit was set.
+	 * @param cpq The query to run.
+	 * @return The distinct paths matched by the query packed as longs, sorted on source and target.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see PathSets#merge(List)
+	 * @see #queryPacked(CPQ)
+	 */
+	public final long[] queryPackedSorted(CPQ cpq) throws IllegalArgumentException{
+		return PathSets.merge(streamBlocks(cpq).map(b->b.paths).toList());
+	}
+	
+	/**
+	 * Computes the intersection of the results of the given queries. The sorted paths
+	 * of the blocks matched by each query are merged and the resulting sets are then
+	 * intersected from smallest to largest using galloping search, or as compressed path
+	 * sets if all of them are dense. So no hash sets are built and the queries themselves
+	 * do not have to respect the intersection limit.
+	 * Each query individually has to respect the intersection limit if a limit was set.
+	 * @param cpqs The queries to intersect the results of.
+	 * @return The paths matched by all the given queries packed as longs, sorted on source and target.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @see PathSet#intersect(List)
+	 * @see #queryPackedSorted(CPQ)
+	 */
+	public final long[] queryIntersection(List<CPQ> cpqs) throws IllegalArgumentException{
+		List<long[]> sets = new ArrayList<long[]>(cpqs.size());
+		for(CPQ cpq : cpqs){
+			long[] paths = queryPackedSorted(cpq);
+			if(paths.length == 0){
+				return paths;
 			}
 			
-			out[0].append(block.id);
-			for(int i = 0; i < block.paths.size(); i++){
-				String str = block.paths.get(i).toString();
-				out[i + 2].append(str);
-				blockWidth = Math.max(blockWidth, str.length());
+			sets.add(paths);
+		}
+		
+		return PathSet.intersect(sets);
+	}
+	
+	/**
+	 * Runs the given query on this index and returns the result as a compressed path
+	 * set. The set is built directly from the sorted paths of the matched blocks and
+	 * is well suited for result sets with many targets per source, since these can
+	 * be intersected, unioned and counted without expanding them into separate paths.
+	 * Note that the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to run.
+	 * @return The set of paths matched by the query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see PathSet
+	 * @see #queryPackedSorted(CPQ)
+	 */
+	public final PathSet queryPathSet(CPQ cpq) throws IllegalArgumentException{
+		return PathSet.of(queryPackedSorted(cpq));
+	}
+
+	/**
+	 * Evaluates the given query on this index, unlike {@link #query(CPQ)} the query
+	 * can have a diameter larger than the diameter of this index. Larger queries are
+	 * decomposed into sub-queries that are answered by this index and the results of
+	 * these sub-queries are joined and intersected. Note that the intersection limit
+	 * has to be respected if a limit was set.
+	 * @param cpq The query to evaluate.
+	 * @return The paths matched by the query, sorted on source and target.
+	 * @throws IllegalArgumentException When the query has a diameter equal to 0 or
+	 *         cannot be decomposed into sub-queries with at most the diameter of this index.
+	 * @see QueryEvaluator
+	 * @see #evaluatePacked(CPQ)
+	 */
+	public final List<Pair> evaluate(CPQ cpq) throws IllegalArgumentException{
+		return Arrays.stream(evaluatePacked(cpq)).mapToObj(Pair::new).toList();
+	}
+	
+	/**
+	 * Evaluates the given query on this index and returns the result as packed paths,
+	 * the query can have a diameter larger than the diameter of this index. Note that
+	 * the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to evaluate.
+	 * @return The paths matched by the query packed as longs, sorted on source and target.
+	 * @throws IllegalArgumentException When the query has a diameter equal to 0 or
+	 *         cannot be decomposed into sub-queries with at most the diameter of this index.
+	 * @see QueryEvaluator
+	 * @see #evaluate(CPQ)
+	 */
+	public final long[] evaluatePacked(CPQ cpq) throws IllegalArgumentException{
+		return new QueryEvaluator(this).evaluate(cpq);
+	}
+	
+	/**
+	 * Computes the number of paths matched by the given query.
+	 * Note that the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to compute the number of paths for.
+	 * @return The number of paths matched by the query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see #setIntersections(int)
+	 * @see CPQ#getDiameter()
+	 * @see #query(CPQ)
+	 */
+	public final long computeResultCardinality(CPQ cpq) throws IllegalArgumentException{
+		return countPaths(computeKey(cpq));
+	}
+	
+	/**
+	 * Runs all the given queries on this index as a single batch using the
+	 * common pool. The queries are canonized in parallel and queries with the
+	 * same normalised form are only canonized once. The blocks for each distinct core
+	 * are then looked up and merged only once. Note that the intersection limit
+	 * has to be respected if a limit was set.
+	 * @param cpqs The queries to run.
+	 * @return For each query the distinct paths matched by the query packed as longs and
+	 *         sorted on source and target, in the same order as the given queries.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @see #queryBatch(List, ForkJoinPool)
+	 * @see ForkJoinPool#commonPool()
+	 */
+	public final List<long[]> queryBatch(List<CPQ> cpqs) throws IllegalArgumentException{
+		return queryBatch(cpqs, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Runs all the given queries on this index as a single batch. The queries are
+	 * canonized in parallel and queries with the same normalised form are only canonized
+	 * once. The blocks for each distinct core are then looked up and merged only once,
+	 * queries that share a core receive a copy of the same result. Note that the
+	 * intersection limit has to be respected if a limit was set.
+	 * @param cpqs The queries to run.
+	 * @param pool The pool to canonize queries and collect results on, this pool is not shut down.
+	 * @return For each query the distinct paths matched by the query packed as longs and
+	 *         sorted on source and target, in the same order as the given queries.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @see #queryPackedSorted(CPQ)
+	 * @see #computeResultCardinalities(List, ForkJoinPool)
+	 */
+	public final List<long[]> queryBatch(List<CPQ> cpqs, ForkJoinPool pool) throws IllegalArgumentException{
+		CoreHash[] keys = computeKeys(cpqs, pool);
+		List<CoreHash> unique = new ArrayList<CoreHash>();
+		int[] idx = distinctKeys(keys, unique);
+		
+		long[][] paths = new long[unique.size()][];
+		pool.submit(()->IntStream.range(0, paths.length).parallel().forEach(i->{
+			paths[i] = PathSets.merge(resolveBlocks(unique.get(i)).stream().map(b->b.paths).toList());
+		})).join();
+		
+		boolean[] used = new boolean[paths.length];
+		List<long[]> results = new ArrayList<long[]>(keys.length);
+		for(int id : idx){
+			results.add(used[id] ? paths[id].clone() : paths[id]);
+			used[id] = true;
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Computes the number of paths matched by each of the given queries as
+	 * a single batch using the common pool. The queries are canonized in
+	 * parallel and the number of paths is only computed once for each distinct
+	 * core. Note that the intersection limit has to be respected if a limit was set.
+	 * @param cpqs The queries to compute the number of paths for.
+	 * @return For each query the number of paths matched by the query,
+	 *         in the same order as the given queries.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @see #computeResultCardinalities(List, ForkJoinPool)
+	 * @see ForkJoinPool#commonPool()
+	 */
+	public final long[] computeResultCardinalities(List<CPQ> cpqs) throws IllegalArgumentException{
+		return computeResultCardinalities(cpqs, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Computes the number of paths matched by each of the given queries as a single
+	 * batch. The queries are canonized in parallel and the number of paths is only
+	 * computed once for each distinct core. Note that the intersection limit has to
+	 * be respected if a limit was set.
+	 * @param cpqs The queries to compute the number of paths for.
+	 * @param pool The pool to canonize queries and count paths on, this pool is not shut down.
+	 * @return For each query the number of paths matched by the query,
+	 *         in the same order as the given queries.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @see #computeResultCardinality(CPQ)
+	 * @see #queryBatch(List, ForkJoinPool)
+	 */
+	public final long[] computeResultCardinalities(List<CPQ> cpqs, ForkJoinPool pool) throws IllegalArgumentException{
+		CoreHash[] keys = computeKeys(cpqs, pool);
+		List<CoreHash> unique = new ArrayList<CoreHash>();
+		int[] idx = distinctKeys(keys, unique);
+		
+		long[] counts = new long[unique.size()];
+		pool.submit(()->IntStream.range(0, counts.length).parallel().forEach(i->{
+			counts[i] = countPaths(unique.get(i));
+		})).join();
+		
+		long[] results = new long[keys.length];
+		for(int i = 0; i < idx.length; i++){
+			results[i] = counts[idx[i]];
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Collects the distinct index keys in the given array, the ID of
+	 * a distinct key is its position in the given list of unique keys.
+	 * @param keys The index keys to collect the distinct keys of.
+	 * @param unique The list to add the distinct keys to, should be empty.
+	 * @return For each of the given keys the ID of the key.
+	 */
+	private static final int[] distinctKeys(CoreHash[] keys, List<CoreHash> unique){
+		Map<CoreHash, Integer> distinct = new HashMap<CoreHash, Integer>();
+		int[] idx = new int[keys.length];
+		for(int i = 0; i < keys.length; i++){
+			Integer id = distinct.get(keys[i]);
+			if(id == null){
+				id = unique.size();
+				distinct.put(keys[i], id);
+				unique.add(keys[i]);
 			}
 			
-			out[labStart - 1].append("-----");
-			for(int i = 0; i < block.labels.size(); i++){
-				String str = block.labels.get(i).toString();
-				out[labStart + i].append(str);
-				blockWidth = Math.max(blockWidth, str.length());
+			idx[i] = id;
+		}
+		
+		return idx;
+	}
+	
+	/**
+	 * Computes the index keys for all the given queries. Queries with the same normalised
+	 * form are only canonized once and the remaining queries are split into chunks that
+	 * are canonized in parallel, each with a single call to nauty. If a query cache is
+	 * set then it is used for the keys of the queries.
+	 * @param cpqs The queries to compute the keys for.
+	 * @param pool The pool to canonize queries on.
+	 * @return The index key for each query, in the same order as the given queries.
+	 * @throws IllegalArgumentException When any of the queries has a diameter
+	 *         equal to 0 or larger than the diameter of this index.
+	 * @throws IllegalStateException When the canonical labelling backend in use computes
+	 *         different canonical forms than the one the cores of this index were computed with.
+	 * @see #computeKey(CPQ)
+	 * @see #normalise(CPQ)
+	 * @see #setQueryCache(int, EvictionPolicy)
+	 */
+	private final CoreHash[] computeKeys(List<CPQ> cpqs, ForkJoinPool pool) throws IllegalArgumentException, IllegalStateException{
+		checkBackend();
+		ConcurrentCache<String, CoreHash> cache = queryKeyCache;
+		Map<String, Integer> distinct = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		List<CPQ> queries = new ArrayList<CPQ>();
+		int[] idx = new int[cpqs.size()];
+		for(int i = 0; i < idx.length; i++){
+			CPQ cpq = cpqs.get(i);
+			if(cpq.getDiameter() > k || cpq.getDiameter() == 0){
+				throw new IllegalArgumentException("Query diameter equal to 0 or larger than index diameter: " + cpq);
 			}
 			
-			out[coreStart - 1].append("-----");
-			for(int i = 0; i < block.cores.size(); i++){
-				String str = block.cores.get(i).toString();
-				out[coreStart + i].append(str);
-				blockWidth = Math.max(blockWidth, str.length());
+			String str = normalise(cpq);
+			Integer id = distinct.get(str);
+			if(id == null){
+				id = names.size();
+				distinct.put(str, id);
+				names.add(str);
+				queries.add(cpq);
 			}
 			
-			currentWidth += blockWidth + 2;
-			for(int i = 0; i < out.length; i++){
-				while(out[i].length() < currentWidth){
-					out[i].append((out[i].length() == 0 || out[i].charAt(out[i].length() - 1) != '-') ? ' ' : '-');
+			idx[i] = id;
+		}
+		
+		CoreHash[] unique = new CoreHash[names.size()];
+		List<CPQ> missing = new ArrayList<CPQ>();
+		int[] missingIdx = new int[unique.length];
+		for(int i = 0; i < unique.length; i++){
+			if(cache != null){
+				unique[i] = cache.get(names.get(i));
+			}
+			
+			if(unique[i] == null){
+				missingIdx[missing.size()] = i;
+				missing.add(queries.get(i));
+			}
+		}
+		
+		int chunk = Math.max(1, Math.ceilDiv(missing.size(), pool.getParallelism() * BATCH_CHUNKS_PER_THREAD));
+		List<CompletableFuture<List<CanonForm>>> forms = new ArrayList<CompletableFuture<List<CanonForm>>>();
+		for(int i = 0; i < missing.size(); i += chunk){
+			List<CPQ> part = missing.subList(i, Math.min(missing.size(), i + chunk));
+			forms.add(CompletableFuture.supplyAsync(()->CanonForm.computeCanon(part, false), pool));
+		}
+		
+		for(int i = 0; i < forms.size(); i++){
+			List<CanonForm> part = joinBatch(forms.get(i));
+			for(int j = 0; j < part.size(); j++){
+				int id = missingIdx[i * chunk + j];
+				unique[id] = part.get(j).toHashCanon();
+				if(cache != null){
+					cache.put(names.get(id), unique[id]);
 				}
 			}
 		}
 		
-		for(StringBuilder buf : out){
-			System.out.println(buf.toString());
+		CoreHash[] keys = new CoreHash[idx.length];
+		for(int i = 0; i < idx.length; i++){
+			keys[i] = unique[idx[i]];
 		}
+		
+		return keys;
 	}
 	
 	/**
-	 * Constructs the map from CPQ core has to the blocks this core occurs in.
+	 * Waits for the given batch task to complete and returns its result.
+	 * @param <T> The result data type.
+	 * @param task The task to wait for.
+	 * @return The result of the task.
+	 * @throws RuntimeException When the task threw an exception.
 	 */
-	private final void mapCoresToBlocks(){
-		progress.mapStart();
-		for(Block block : blocks){
-			for(CoreHash core : block.canonCores){
-				coreToBlock.computeIfAbsent(core, _->new ArrayList<Block>()).add(block);
-			}
-			
-			if(!computeLabels){
-				block.canonCores = null;
-			}
+	private static <T> T joinBatch(CompletableFuture<T> task) throws RuntimeException{
+		try{
+			return task.join();
+		}catch(CompletionException e){
+			throw e.getCause() instanceof RuntimeException ex ? ex : e;
 		}
-		progress.mapEnd();
 	}
 	
 	/**
-	 * Gets the total number of cores in this index, this is the sum
-	 * of all cores in each block.
-	 * @return The total number of cores.
-	 * @see #getUniqueCores()
+	 * Counts the number of paths in the blocks for the given index key.
+	 * @param key The index key to count paths for.
+	 * @return The total number of paths in the blocks for the given key.
 	 */
-	public final long getTotalCores(){
-		return coreToBlock.values().stream().mapToInt(List::size).summaryStatistics().getSum();
+	private final long countPaths(CoreHash key){
+		if(mapped != null){
+			return mapped.countPaths(key);
+		}
+		
+		return resolveBlocks(key).stream().mapToLong(Block::getPathCount).sum();
 	}
 	
 	/**
-	 * Gets the total number of unique cores in this index, this is
-	 * the number of unique index keys.
-	 * @return The total number of unique cores.
-	 * @see #getTotalCores()
+	 * Returns a stream over the blocks matched by the given query.
+	 * Note that the intersection limit has to be respected if a limit was set.
+	 * @param cpq The query to find blocks for.
+	 * @return A stream over the blocks matched by the given query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @see #setIntersections(int)
 	 */
-	public final int getUniqueCores(){
-		return coreToBlock.size();
+	private final Stream<Block> streamBlocks(CPQ cpq) throws IllegalArgumentException{
+		return resolveBlocks(computeKey(cpq)).stream();
 	}
 	
 	/**
-	 * After graph partitioning computes the index blocks.
-	 * @param segments The partitioned segments of the graph.
-	 * @see #partition(UniqueGraph)
+	 * Finds the blocks for the given index key. For a memory mapped
+	 * index the query block cache is used if it was set.
+	 * @param key The index key to find blocks for.
+	 * @return The blocks for the given index key.
+	 * @see #setQueryCache(int, EvictionPolicy)
 	 */
-	private final void computeBlocks(RangeList<List<LabelledPath>> segments){
-		Map<Pair, LabelledPath> unused = new HashMap<Pair, LabelledPath>();
+	private final List<Block> resolveBlocks(CoreHash key){
+		if(mapped != null){
+			ConcurrentCache<CoreHash, List<Block>> cache = queryBlockCache;
+			if(cache == null){
+				return mapped.findBlocks(key);
+			}
+			
+			List<Block> found = cache.get(key);
+			if(found == null){
+				found = mapped.findBlocks(key);
+				cache.put(key, found);
+			}
+			
+			return found;
+		}
 		
-		for(int j = 0; j < k; j++){
-			final int lk = j + 1;
-			progress.computeBlocksStart(lk);
-
-			List<Block> layerBlocks = layers.get(j);
-			List<LabelledPath> segs = segments.get(j);
+		return coreToBlock.getOrDefault(key, Collections.emptyList());
+	}
+	
+	/**
+	 * Computes the index key for the given query, this is the hash
+	 * of the canonical form of the core of the query.
+	 * @param cpq The query to compute the key for.
+	 * @return The index key for the given query.
+	 * @throws IllegalArgumentException When the query has a diameter equal
+	 *         to 0 or larger than the diameter of this index.
+	 * @throws IllegalStateException When the canonical labelling backend in use computes
+	 *         different canonical forms than the one the cores of this index were computed with.
+	 * @see #normalise(CPQ)
+	 */
+	private final CoreHash computeKey(CPQ cpq) throws IllegalArgumentException, IllegalStateException{
+		if(cpq.getDiameter() > k || cpq.getDiameter() == 0){
+			throw new IllegalArgumentException("Query diameter equal to 0 or larger than index diameter.");
+		}
+		
+		checkBackend();
+		
+		ConcurrentCache<String, CoreHash> cache = queryKeyCache;
+		if(cache == null){
+			return CanonForm.computeCanon(cpq, false).toHashCanon();
+		}
+		
+		String str = normalise(cpq);
+		CoreHash key = cache.get(str);
+		if(key == null){
+			key = CanonForm.computeCanon(cpq, false).toHashCanon();
+			cache.put(str, key);
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Computes the normalised string form of the given query, equivalent queries
+	 * that only differ in the order or nesting of their operations have the same
+	 * normalised form and therefore the same index key. Nested intersections and
+	 * concatenations are flattened, the operands of intersections are sorted and
+	 * deduplicated and identity is removed from concatenations. For example, both
+	 * {@code a ∩ b} and {@code b ∩ (a ∩ a)} are normalised to {@code (a ∩ b)}.
+	 * @param cpq The query to normalise.
+	 * @return The normalised form of the query.
+	 * @see #computeKey(CPQ)
+	 */
+	static final String normalise(CPQ cpq){
+		if(cpq instanceof IntersectionCPQ){
+			Set<String> items = new TreeSet<String>();
+			flatten(cpq, items);
+			return items.size() == 1 ? items.iterator().next() : items.stream().collect(Collectors.joining(" ∩ ", "(", ")"));
+		}else if(cpq instanceof ConcatCPQ){
+			List<String> items = new ArrayList<String>();
+			flatten(cpq, items);
+			return items.isEmpty() ? CPQ.id().toString() : items.size() == 1 ? items.get(0) : items.stream().collect(Collectors.joining("◦", "(", ")"));
+		}else{
+			return cpq.toString();
+		}
+	}
+	
+	/**
+	 * Adds the normalised form of all operands of the given intersection or
+	 * concatenation to the given collection. Operands of the same type are
+	 * flattened and operands with a diameter of 0 are skipped for concatenations.
+	 * @param cpq The intersection or concatenation to flatten.
+	 * @param items The collection to add the normalised operands to.
+	 * @see #normalise(CPQ)
+	 */
+	private static final void flatten(CPQ cpq, Collection<String> items){
+		boolean concat = cpq instanceof ConcatCPQ;
+		for(CPQ item : concat ? ((ConcatCPQ)cpq).getItems() : ((IntersectionCPQ)cpq).getItems()){
+			if(item.getClass() == cpq.getClass()){
+				flatten(item, items);
+			}else if(!concat || item.getDiameter() != 0){
+				items.add(normalise(item));
+			}
+		}
+	}
+	
+	/**
+	 * Sets the progress listener to send computation updates to.
+	 * @param listener The listener to send computation updates to.
+	 * @see ProgressListener
+	 */
+	public final void setProgressListener(ProgressListener listener){
+		progress = listener;
+	}
+	
+	/**
+	 * Gets all the blocks in this index.
+	 * @return All the blocks in this index.
+	 */
+	public final List<Block> getBlocks(){
+		return blocks;
+	}
+	
+	/**
+	 * Sorts all the list of blocks of this index. There's is no real
+	 * reason to do this other than to make the output of {@link #print()}
+	 * more organised. Note that the paths in each block are always sorted.
+	 * @throws IllegalStateException When this index is memory mapped.
+	 * @see #print()
+	 */
+	public final void sort() throws IllegalStateException{
+		checkNotMapped();
+		for(Block block : blocks){
+			if(block.labels != null){
+				block.labels.sort(null);
+			}
+		}
+		
+		blocks.sort(Comparator.comparingLong(b->b.paths[0]));
+	}
+	
+	/**
+	 * Prints the index to standard output.
+	 * @throws IllegalStateException When this index is memory mapped.
+	 * @see #sort()
+	 */
+	public final void print() throws IllegalStateException{
+		checkNotMapped();
+		int maxPath = blocks.stream().mapToInt(b->b.paths.length).max().orElse(0);
+		int maxLab = blocks.stream().mapToInt(b->b.labels.size()).max().orElse(0);
+		StringBuilder[] out = new StringBuilder[4 + maxPath + maxLab + blocks.stream().mapToInt(b->b.cores.size()).max().orElse(0)];
+		int labStart = 3 + maxPath;
+		int coreStart = labStart + 1 + maxLab;
+		for(int i = 0; i < out.length; i++){
+			out[i] = new StringBuilder();
+		}
+		
+		int currentWidth = 0;
+		for(Block block : blocks){
+			int blockWidth = 5;
+			if(currentWidth > 0){
+				for(int i = 0; i < out.length; i++){
+					out[i].append('|');
+				}
+			}
+			
+			out[0].append(block.id);
+			for(int i = 0; i < block.paths.length; i++){
+				String str = new Pair(block.paths[i]).toString();
+				out[i + 2].append(str);
+				blockWidth = Math.max(blockWidth, str.length());
+			}
+			
+			out[labStart - 1].append("-----");
+			for(int i = 0; i < block.labels.size(); i++){
+				String str = block.labels.get(i).toString();
+				out[labStart + i].append(str);
+				blockWidth = Math.max(blockWidth, str.length());
+			}
+			
+			out[coreStart - 1].append("-----");
+			for(int i = 0; i < block.cores.size(); i++){
+				String str = block.cores.get(i).toString();
+				out[coreStart + i].append(str);
+				blockWidth = Math.max(blockWidth, str.length());
+			}
+			
+			currentWidth += blockWidth + 2;
+			for(int i = 0; i < out.length; i++){
+				while(out[i].length() < currentWidth){
+					out[i].append((out[i].length() == 0 || out[i].charAt(out[i].length() - 1) != '-') ? ' ' : '-');
+				}
+			}
+		}
+		
+		for(StringBuilder buf : out){
+			System.out.println(buf.toString());
+		}
+	}
+	
+	/**
+	 * Constructs the map from CPQ core has to the blocks this core occurs in.
+	 */
+	private final void mapCoresToBlocks(){
+		progress.mapStart();
+		for(Block block : blocks){
+			for(CoreHash core : block.canonCores){
+				coreToBlock.computeIfAbsent(core, _->new ArrayList<Block>()).add(block);
+			}
+			
+			if(!computeLabels){
+				block.canonCores = null;
+			}
+		}
+		progress.mapEnd();
+	}
+	
+	/**
+	 * Gets the total number of cores in this index, this is the sum
+	 * of all cores in each block.
+	 * @return The total number of cores.
+	 * @see #getUniqueCores()
+	 */
+	public final long getTotalCores(){
+		if(mapped != null){
+			return mapped.getTotalCores();
+		}
+		
+		return coreToBlock.values().stream().mapToInt(List::size).summaryStatistics().getSum();
+	}
+	
+	/**
+	 * Gets the total number of unique cores in this index, this is
+	 * the number of unique index keys.
+	 * @return The total number of unique cores.
+	 * @see #getTotalCores()
+	 */
+	public final int getUniqueCores(){
+		return mapped != null ? mapped.cores : coreToBlock.size();
+	}
+	
+	/**
+	 * Gets the number of blocks in this index for which core
+	 * computation was truncated because the core budget ran out.
+	 * @return The number of truncated blocks.
+	 * @see #setCoreBudget(CoreBudget)
+	 * @see Block#isTruncated()
+	 */
+	public final int getTruncatedBlocks(){
+		if(mapped != null){
+			return mapped.truncated.cardinality();
+		}
+		
+		return (int)blocks.stream().filter(Block::isTruncated).count();
+	}
+	
+	/**
+	 * After graph partitioning computes the index blocks.
+	 * @param segments The partitioned segments of the graph.
+	 * @see #partition(CompactGraph, int)
+	 */
+	private final void computeBlocks(RangeList<List<LabelledPath>> segments){
+		PairMap<LabelledPath> unused = new PairMap<LabelledPath>();
+		
+		for(int j = 0; j < k; j++){
+			final int lk = j + 1;
+			progress.computeBlocksStart(lk);
+
+			List<Block> layerBlocks = layers.get(j);
+			List<LabelledPath> segs = segments.get(j);
 			int start = 0;
 			int lastId = segs.get(0).getSegmentId();
 			for(int i = 0; i <= segs.size(); i++){
@@ -510,11 +1745,11 @@ public class Index{
 					
 					if(lk != k){
 						for(LabelledPath path : slice){
-							unused.put(path.getPair(), path);
+							unused.put(path.getPackedPair(), path);
 						}
 					}else{
 						for(LabelledPath path : slice){
-							unused.remove(path.getPair());
+							unused.remove(path.getPackedPair());
 						}
 					}
 					
@@ -531,15 +1766,19 @@ public class Index{
 		}
 		
 		//any remaining pairs denote blocks from previous layers
-		List<LabelledPath> remaining = unused.values().stream().sorted(Comparator.comparing(LabelledPath::getSegmentId)).collect(Collectors.toList());
+		List<LabelledPath> remaining = unused.values().sorted(Comparator.comparing(LabelledPath::getSegmentId)).collect(Collectors.toList());
 		if(!remaining.isEmpty()){
 			int start = 0;
 			int lastId = remaining.get(0).getSegmentId();
 			for(int i = 0; i <= remaining.size(); i++){
 				if(i == remaining.size() || remaining.get(i).getSegmentId() != lastId){
 					List<LabelledPath> slice = remaining.subList(start, i);
+					Block original = slice.get(0).getBlock();
 					blocks.add(new Block(k, slice));
 					
+					//keep the segments pointing at their original layer so later copies depend on fully computed blocks
+					slice.forEach(s->s.setBlock(original));
+					
 					if(i != remaining.size()){
 						lastId = remaining.get(i).getSegmentId();
 						start = i;
@@ -563,262 +1802,1029 @@ public class Index{
 	 * @see #setProgressListener(ProgressListener)
 	 * @see #write(OutputStream, boolean)
 	 * @see #Index(InputStream)
+	 * @see #computeCores(int, Path)
 	 */
 	public final void computeCores(int threads) throws InterruptedException, IllegalStateException{
+		try{
+			computeCores(threads, null);
+		}catch(IOException e){
+			//only checkpoint files can cause IO exceptions
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Computes CPQ cores for each block in this index while recording the cores of
+	 * finished blocks in the given checkpoint file. If the checkpoint file already
+	 * exists, the blocks recorded in it are restored and only the remaining blocks
+	 * are computed. This makes it possible to resume core computation after a crash
+	 * by reading back the fully saved index the computation was started from (or by
+	 * partitioning the same graph again) and passing the same checkpoint file. Note
+	 * that the checkpoint file is not deleted once core computation finishes. If
+	 * computing the cores of any block fails, the remaining work is cancelled and
+	 * the first exception that occurred is rethrown from this method.
+	 * @param threads The number of CPU threads to use to compute cores.
+	 * @param checkpoint The checkpoint file to use, or null to not record progress.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @throws IllegalStateException When cores have already been computed for
+	 *         this index of when this index is read back and was not fully saved.
+	 * @throws IOException When an IOException occurs while reading or writing the
+	 *         checkpoint file or when the checkpoint file belongs to a different index.
+	 * @see #computeCores(int)
+	 * @see #write(OutputStream, boolean)
+	 */
+	public final void computeCores(int threads, Path checkpoint) throws InterruptedException, IllegalStateException, IOException{
 		if(computeCores){
 			throw new IllegalStateException("Cores have already been computed.");
 		}else if(predicates == null){
 			throw new IllegalStateException("Cannot compute cores on an index that wasn't fully saved.");
 		}
-		
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
 
-		//process cores layer by layer
-		for(int i = 0; i < k; i++){
-			progress.coresStart(i + 1);
-			
-			final int total = layers.get(i).size();
-			Lock lock = new ReentrantLock();
-			Condition cond = lock.newCondition();
-			AtomicInteger done = new AtomicInteger(0);
-			ListIterator<Block> iter = layers.get(i).listIterator(total);
-			while(iter.hasPrevious()){
-				Block block = iter.previous();
-				executor.execute(()->{
-					try{
-						block.computeCores();
+		nautyCores = Nauty.getBackend().usesNauty();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try(Checkpoint state = checkpoint == null ? null : new Checkpoint(checkpoint)){
+			new CoreScheduler(pool, state).run();
+		}finally{
+			pool.shutdown();
+		}
 
-						if(done.incrementAndGet() == total){
-							lock.lock();
-						}else if(!lock.tryLock()){
-							return;
-						}
+		computeCores = true;
+		mapCoresToBlocks();
+	}
 
-						try{
-							cond.signal();
-						}finally{
-							lock.unlock();
-						}
-					}catch(Throwable t){
-						System.err.println("FATAL");
-						t.printStackTrace();
-						progress.intermediateProgress(-1, -1, -1);
-					}
-				});
+	/**
+	 * Partitions all the paths in the given graph according to k-path-bisimulation.
+	 * All path state is partitioned into chunks by source vertex, since joining
+	 * segments never changes the source vertex of a path the chunks can be processed
+	 * concurrently. The resulting segments are sorted on a total order before IDs are
+	 * assigned, so the output is identical regardless of the number of threads used.
+	 * @param g The graph to partition.
+	 * @param threads The number of CPU threads to use.
+	 * @return The partitioned paths in the graph.
+	 * @throws IllegalArgumentException When the diameter of this index k is less than 1.
+	 */
+	private final RangeList<List<LabelledPath>> partition(CompactGraph g, int threads) throws IllegalArgumentException{
+		if(k <= 0){
+			throw new IllegalArgumentException("Invalid value of k for bisimulation, has to be 1 or greater.");
+		}
+		
+		progress.partitionStart(1);
+		RangeList<List<LabelledPath>> segments = new RangeList<List<LabelledPath>>(k, ArrayList::new);
+		int vertexCount = g.getVertexCount();
+		RangeList<SegmentAdjacency> adjacencyByLayer = new RangeList<SegmentAdjacency>(k);
+		
+		//path state by chunk of source vertices
+		final int chunkSize = Math.max(1, Math.ceilDiv(vertexCount, threads * PARTITION_CHUNKS_PER_THREAD));
+		final int chunks = Math.max(1, Math.ceilDiv(vertexCount, chunkSize));
+		List<PairMap<LabelledPath>> history = new ArrayList<PairMap<LabelledPath>>(chunks);
+		List<PairMap<LabelledPath>> pathMap = new ArrayList<PairMap<LabelledPath>>(chunks);
+		for(int i = 0; i < chunks; i++){
+			history.add(new PairMap<LabelledPath>());
+			pathMap.add(new PairMap<LabelledPath>());
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try{
+			//classes for 1-path-bisimulation
+			predicates = new RangeList<Predicate>(1 + LongStream.range(0, g.getEdgeCount()).mapToInt(e->g.getLabel(e).getID()).max().orElse(0));
+			for(int src = 0; src < vertexCount; src++){
+				for(long e = g.getStart(src); e < g.getEnd(src); e++){
+					int trg = g.getTarget(e);
+					Predicate label = g.getLabel(e);
+					
+					//forward and backward edges are just the labels on those edges
+					LabelledPath path = pathMap.get(src / chunkSize).computeIfAbsent(Pair.pack(src, trg), p->new LabelledPath(p, null));
+					path.addLabel(label);
+					history.get(src / chunkSize).put(path.getPackedPair(), path);
+					
+					path = pathMap.get(trg / chunkSize).computeIfAbsent(Pair.pack(trg, src), p->new LabelledPath(p, null));
+					path.addLabel(label.getInverse());
+					history.get(trg / chunkSize).put(path.getPackedPair(), path);
+					
+					predicates.set(label, label);
+				}
 			}
 			
-			long lastUpdate = 0;
-			while(true){
-				try{
-					lock.lock();
-					if(cond.await(10, TimeUnit.MINUTES)){
-						int val = done.get();
-						progress.coresBlocksDone(val, total);
-						if(val == total){
-							break;
+			//sort 1-path
+			List<LabelledPath> segOne = segments.get(0);
+			LabelledPath[] sorted = pathMap.stream().flatMap(PairMap::values).toArray(LabelledPath[]::new);
+			pool.invoke(ForkJoinTask.adapt(()->Arrays.parallelSort(sorted, Index::sortOnePath)));
+			segOne.addAll(Arrays.asList(sorted));
+			
+			//assign block IDs
+			LabelledPath prev = null;
+			int id = 1;
+			for(LabelledPath seg : segOne){
+				if(prev != null && (!seg.equalLabels(prev) || seg.isLoop() ^ prev.isLoop())){
+					//if labels and cyclic patterns (loop) are not the same a new ID is started
+					id++;
+				}
+	
+				seg.setSegmentId(id);
+				prev = seg;
+			}
+			adjacencyByLayer.set(0, new SegmentAdjacency(segOne, vertexCount));
+			progress.partitionEnd(1);
+			
+			//classes for 2-path-bisimulation to k-path-bisimulation
+			for(int i = 1; i < k; i++){
+				progress.partitionStart(i + 1);
+				pathMap.forEach(PairMap::clear);
+	
+				id++;
+				for(int k1 = i - 1; k1 >= 0; k1--){//all combinations to make CPQi
+					final int k2 = i - k1 - 1;
+					SegmentAdjacency startMapping = adjacencyByLayer.get(k1);
+					SegmentAdjacency endMapping = adjacencyByLayer.get(k2);
+					
+					progress.partitionCombinationStart(k1 + 1, k2 + 1);
+					pool.invoke(ForkJoinTask.adapt(()->IntStream.range(0, chunks).parallel().forEach(chunk->{
+						PairMap<LabelledPath> paths = pathMap.get(chunk);
+						PairMap<LabelledPath> previous = history.get(chunk);
+						
+						for(int v = chunk * chunkSize; v < Math.min(vertexCount, (chunk + 1) * chunkSize); v++){
+							for(int s = startMapping.getStart(v); s < startMapping.getEnd(v); s++){
+								LabelledPath seg = startMapping.get(s);
+								int mid = seg.getTarget();
+								for(int e = endMapping.getStart(mid); e < endMapping.getEnd(mid); e++){
+									LabelledPath end = endMapping.get(e);
+									LabelledPath path = paths.computeIfAbsent(Pair.pack(seg.getSource(), end.getTarget()), p->{
+										LabelledPath newPath = new LabelledPath(p, previous.get(p));
+										previous.put(p, newPath);
+										return newPath;
+									});
+									
+									path.addSegment(seg, end);
+									if(k2 == 0 && computeLabels){//slight optimisation, since we only need one combination to find all paths
+										for(LabelSequence labels : seg.getLabels()){
+											for(LabelSequence label : end.getLabels()){
+												path.addLabel(labels, label);
+											}
+										}
+									}
+								}
+							}
 						}
+					})));
+					
+					progress.partitionCombinationEnd(k1 + 1, k2 + 1);
+				}
+				
+				//sort
+				List<LabelledPath> segs = segments.get(i);
+				LabelledPath[] layer = pathMap.stream().flatMap(PairMap::values).toArray(LabelledPath[]::new);
+				pool.invoke(ForkJoinTask.adapt(()->{
+					Arrays.stream(layer).parallel().forEach(LabelledPath::cacheHashCode);
+					Arrays.parallelSort(layer, Index::sortPaths);
+				}));
+				segs.addAll(Arrays.asList(layer));
+	
+				//assign IDs
+				prev = null;
+				for(LabelledPath path : segs){
+					if(prev != null && (path.compareSegmentsTo(prev) != 0 || prev.isLoop() ^ path.isLoop())){
+						//increase id if loop status or segments differ
+						id++;
 					}
-
+	
+					path.setSegmentId(id);
+					prev = path;
+				}
+				
+				adjacencyByLayer.set(i, new SegmentAdjacency(segs, vertexCount));
+				progress.partitionEnd(i + 1);
+			}
+		}finally{
+			pool.shutdown();
+		}
+		
+		return segments;
+	}
+	
+	/**
+	 * Canonizes the given candidate cores. Canonical forms are looked up in the
+	 * canonical form cache first if enabled and any forms that are not cached
+	 * are computed with a single call to nauty and then added to the cache.
+	 * @param cpqs The candidate cores to canonize.
+	 * @param isCore If the given CPQs are all guaranteed to be cores.
+	 * @return The canonized candidates, in the same order as the input CPQs.
+	 * @see CanonForm#computeCanon(List, boolean)
+	 */
+	private final List<CoreCandidate> computeCandidates(List<CPQ> cpqs, boolean isCore){
+		CoreCandidate[] candidates = new CoreCandidate[cpqs.size()];
+		String[] keys = new String[cpqs.size()];
+		List<CPQ> missing = new ArrayList<CPQ>();
+		int[] missingIdx = new int[cpqs.size()];
+		
+		for(int i = 0; i < candidates.length; i++){
+			CPQ q = cpqs.get(i);
+			if(canonCache != null){
+				keys[i] = q.toString();
+				CoreCandidate cached = canonCache.get(keys[i]);
+				if(cached != null){
+					candidates[i] = new CoreCandidate(q, cached.canon(), cached.wasCore());
+					continue;
+				}
+			}
+			
+			missingIdx[missing.size()] = i;
+			missing.add(q);
+		}
+		
+		List<CanonForm> forms = CanonForm.computeCanon(missing, isCore);
+		for(int i = 0; i < forms.size(); i++){
+			CanonForm form = forms.get(i);
+			int idx = missingIdx[i];
+			candidates[idx] = new CoreCandidate(form.getCPQ(), form.toHashCanon(), form.wasCore());
+			if(canonCache != null){
+				canonCache.put(keys[idx], new CoreCandidate(null, candidates[idx].canon(), form.wasCore()));
+			}
+		}
+		
+		return Arrays.asList(candidates);
+	}
+	
+	/**
+	 * Compares the given paths based on their segments,
+	 * cyclic properties, source and target.
+	 * @param a The first path.
+	 * @param b The second path.
+	 * @return A value less than 0 if {@code a < b}, a value equal
+	 *         to 0 if {@code a == b} and a value greater than 0 if
+	 *         {@code a > b}.
+	 */
+	private static final int sortPaths(LabelledPath a, LabelledPath b){
+		int cmp = a.compareSegmentsTo(b);
+		if(cmp != 0){
+			return cmp;
+		}
+
+		cmp = Boolean.compare(a.isLoop(), b.isLoop());
+		if(cmp != 0){
+			return cmp;
+		}
+
+		return a.comparePathTo(b);
+	}
+	
+	/**
+	 * Compares the given paths based on their labels,
+	 * cyclic properties, source and target.
+	 * @param a The first path.
+	 * @param b The second path.
+	 * @return A value less than 0 if {@code a < b}, a value equal
+	 *         to 0 if {@code a == b} and a value greater than 0 if
+	 *         {@code a > b}.
+	 */
+	private static final int sortOnePath(LabelledPath a, LabelledPath b){
+		int cmp = a.compareLabelsTo(b);
+		if(cmp != 0){
+			return cmp;
+		}
+		
+		cmp = Boolean.compare(a.isLoop(), b.isLoop());
+		if(cmp != 0){
+			return cmp;
+		}
+
+		return a.comparePathTo(b);
+	}
+	
+	/**
+	 * A candidate core together with its canonical core hash.
+	 * @author Roan
+	 * @param cpq The candidate core CPQ, null for cached entries.
+	 * @param canon The hash of the canonical form of the core of the CPQ.
+	 * @param wasCore True if the candidate CPQ was already a core.
+	 */
+	private static final record CoreCandidate(CPQ cpq, CoreHash canon, boolean wasCore){
+	}
+	
+	/**
+	 * A serialized section of a saved index.
+	 * @author Roan
+	 * @param layer The layer index of the blocks in this section or
+	 *        {@link Index#SECTION_CORES} for core directory entries.
+	 * @param items The number of blocks or core directory entries in this section.
+	 * @param data The serialized items in this section.
+	 * @see Index#write(OutputStream, boolean, boolean)
+	 */
+	private static final record Section(int layer, int items, byte[] data){
+	}
+	
+	/**
+	 * Function that serializes a single item in a section of a saved index.
+	 * @author Roan
+	 * @param <T> The item data type.
+	 * @see Section
+	 */
+	private static abstract interface SectionWriter<T>{
+		
+		/**
+		 * Serializes the given item.
+		 * @param out The stream to write to.
+		 * @param item The item to serialize.
+		 * @throws IOException When an IOException occurs.
+		 */
+		public abstract void write(DataOutputStream out, T item) throws IOException;
+	}
+	
+	/**
+	 * Function that deserializes a single item in a section of a saved index.
+	 * @author Roan
+	 * @param <T> The item data type.
+	 * @see Section
+	 */
+	private static abstract interface SectionReader<T>{
+		
+		/**
+		 * Deserializes the next item.
+		 * @param in The stream to read from.
+		 * @return The deserialized item.
+		 * @throws IOException When an IOException occurs.
+		 */
+		public abstract T read(DataInputStream in) throws IOException;
+	}
+	
+	/**
+	 * Directory of the cores and blocks stored in a memory mapped index file.
+	 * Blocks are only read from the file once they are first requested.
+	 * @author Roan
+	 * @see Index#map(Path)
+	 * @see Index#writeMapped(OutputStream)
+	 */
+	private final class MappedDirectory{
+		/**
+		 * The memory mapped index file.
+		 */
+		private final MemorySegment data;
+		/**
+		 * Bounded cache of the blocks most recently read from the file by block table
+		 * index, this keeps the memory used by a long running process bounded.
+		 * @see #MAPPED_BLOCK_CACHE_SIZE
+		 */
+		private final ConcurrentCache<Integer, Block> blocks = new ConcurrentCache<Integer, Block>(MAPPED_BLOCK_CACHE_SIZE, EvictionPolicy.LRU);
+		/**
+		 * The number of blocks in the block table.
+		 */
+		private final int blockCount;
+		/**
+		 * The number of cores in the core directory.
+		 */
+		private final int cores;
+		/**
+		 * The offset of the core directory in the file.
+		 */
+		private final long directory;
+		/**
+		 * The block table indices of all truncated blocks.
+		 */
+		private final BitSet truncated = new BitSet();
+		
+		/**
+		 * Constructs a new directory for the given memory mapped index file.
+		 * @param data The memory mapped index file.
+		 */
+		private MappedDirectory(MemorySegment data){
+			this.data = data;
+			blockCount = data.get(MAPPED_INT, 20);
+			cores = data.get(MAPPED_INT, 24);
+			directory = data.get(MAPPED_LONG, 32);
+			
+			long list = directory + MAPPED_CORE_SIZE * cores;
+			for(int i = 0; i < data.get(MAPPED_INT, 28); i++){
+				truncated.set(data.get(MAPPED_INT, list + 4L * i));
+			}
+		}
+		
+		/**
+		 * Gets the block at the given block table index, reading it from the
+		 * file if it is not in the cache of recently read blocks.
+		 * @param index The block table index of the block.
+		 * @return The block at the given index.
+		 */
+		private Block getBlock(int index){
+			Block block = blocks.get(index);
+			if(block == null){
+				block = new Block(data, MAPPED_HEADER_SIZE + MAPPED_BLOCK_SIZE * index, truncated.get(index));
+				blocks.put(index, block);
+			}
+			
+			return block;
+		}
+		
+		/**
+		 * Finds the offset of the directory entry for the given core.
+		 * @param key The core to find.
+		 * @return The offset of the directory entry or -1 if the core is not in the index.
+		 */
+		private long findEntry(CoreHash key){
+			int hash = key.hashCode();
+			int low = 0;
+			int high = cores;
+			while(low < high){
+				int mid = (low + high) >>> 1;
+				if(data.get(MAPPED_INT, directory + MAPPED_CORE_SIZE * mid) < hash){
+					low = mid + 1;
+				}else{
+					high = mid;
+				}
+			}
+			
+			MemorySegment canon = MemorySegment.ofArray(key.getBinaryCanon());
+			for(int i = low; i < cores; i++){
+				long entry = directory + MAPPED_CORE_SIZE * i;
+				if(data.get(MAPPED_INT, entry) != hash){
+					break;
+				}
+				
+				long offset = data.get(MAPPED_LONG, entry + 16);
+				int len = data.get(MAPPED_INT, entry + 4);
+				if(len == canon.byteSize() && MemorySegment.mismatch(data, offset, offset + len, canon, 0, len) == -1){
+					return entry;
+				}
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Finds the blocks the given core occurs in.
+		 * @param key The core to find blocks for.
+		 * @return The blocks the given core occurs in.
+		 */
+		private List<Block> findBlocks(CoreHash key){
+			long entry = findEntry(key);
+			if(entry == -1){
+				return Collections.emptyList();
+			}
+			
+			Block[] found = new Block[data.get(MAPPED_INT, entry + 8)];
+			long offset = data.get(MAPPED_LONG, entry + 24);
+			for(int i = 0; i < found.length; i++){
+				found[i] = getBlock(data.get(MAPPED_INT, offset + 4L * i));
+			}
+			
+			return Arrays.asList(found);
+		}
+		
+		/**
+		 * Streams the paths in the blocks the given core occurs in
+		 * directly from the file without reading any of these blocks.
+		 * @param key The core to stream paths for.
+		 * @return A stream over the packed paths for the given core.
+		 */
+		private LongStream streamPaths(CoreHash key){
+			long entry = findEntry(key);
+			if(entry == -1){
+				return LongStream.empty();
+			}
+			
+			long offset = data.get(MAPPED_LONG, entry + 24);
+			return LongStream.range(0, data.get(MAPPED_INT, entry + 8)).flatMap(i->{
+				long block = MAPPED_HEADER_SIZE + MAPPED_BLOCK_SIZE * data.get(MAPPED_INT, offset + 4L * i);
+				long paths = data.get(MAPPED_LONG, block + 8);
+				return LongStream.range(0, data.get(MAPPED_INT, block + 4)).map(p->data.get(MAPPED_LONG, paths + 8L * p));
+			});
+		}
+		
+		/**
+		 * Counts the number of paths in the blocks the given core occurs in
+		 * without reading any of these blocks from the file.
+		 * @param key The core to count paths for.
+		 * @return The total number of paths for the given core.
+		 */
+		private long countPaths(CoreHash key){
+			long entry = findEntry(key);
+			if(entry == -1){
+				return 0;
+			}
+			
+			long total = 0;
+			int count = data.get(MAPPED_INT, entry + 8);
+			long offset = data.get(MAPPED_LONG, entry + 24);
+			for(int i = 0; i < count; i++){
+				total += data.get(MAPPED_INT, MAPPED_HEADER_SIZE + MAPPED_BLOCK_SIZE * data.get(MAPPED_INT, offset + 4L * i) + 4);
+			}
+			
+			return total;
+		}
+		
+		/**
+		 * Gets the total number of cores in the index, this is the sum of all cores in each block.
+		 * @return The total number of cores.
+		 */
+		private long getTotalCores(){
+			long total = 0;
+			for(int i = 0; i < cores; i++){
+				total += data.get(MAPPED_INT, directory + MAPPED_CORE_SIZE * i + 8);
+			}
+			
+			return total;
+		}
+	}
+	
+	/**
+	 * Checkpoint file recording the cores of blocks for which core computation finished.
+	 * The file starts with a header that identifies the index, followed by a length prefixed
+	 * record for each finished block with its position in the index, its core hashes and, if
+	 * they are still required by later layers, the explicit cores. Records are appended as
+	 * blocks finish and are forced to disk periodically and once core computation ends. A
+	 * partially written record at the end of the file is discarded when it is reopened.
+	 * @author Roan
+	 * @see Index#computeCores(int, Path)
+	 */
+	private final class Checkpoint implements Closeable{
+		/**
+		 * The channel for the checkpoint file.
+		 */
+		private final FileChannel channel;
+		/**
+		 * The stream to append new records to.
+		 */
+		private final DataOutputStream out;
+		/**
+		 * The blocks that were restored from the checkpoint file.
+		 */
+		private final Set<Block> restored = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+		/**
+		 * The last time records were forced to disk.
+		 */
+		private long lastFlush = System.currentTimeMillis();
+		/**
+		 * The first exception that occurred while writing a record, if any.
+		 */
+		private IOException error = null;
+
+		/**
+		 * Opens the given checkpoint file, restoring any blocks recorded in it.
+		 * @param file The checkpoint file, created if it does not exist.
+		 * @throws IOException When an IOException occurs or when the
+		 *         checkpoint file belongs to a different index.
+		 */
+		private Checkpoint(Path file) throws IOException{
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try{
+				long valid = restore();
+				channel.truncate(valid);
+				channel.position(valid);
+				out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+				if(valid == 0){
+					out.writeInt(CHECKPOINT_MAGIC);
+					out.writeInt(k);
+					out.writeInt(maxIntersections);
+					out.writeBoolean(computeLabels);
+					out.writeBoolean(nautyCores);
+					for(List<Block> layer : layers){
+						out.writeInt(layer.size());
+					}
+				}
+			}catch(IOException e){
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads the header and all complete records from the checkpoint file
+		 * and restores the cores of all the blocks that were recorded.
+		 * @return The length of the valid part of the checkpoint file.
+		 * @throws IOException When an IOException occurs or when the
+		 *         checkpoint file belongs to a different index.
+		 */
+		private long restore() throws IOException{
+			if(channel.size() == 0){
+				return 0;
+			}
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			long valid = 14;
+			try{
+				boolean match = in.readInt() == CHECKPOINT_MAGIC && in.readInt() == k && in.readInt() == maxIntersections && in.readBoolean() == computeLabels;
+				boolean backend = in.readBoolean() == nautyCores;
+				for(List<Block> layer : layers){
+					match &= in.readInt() == layer.size();
+					valid += 4;
+				}
+
+				if(!match){
+					throw new IOException("The checkpoint file was not written for this index.");
+				}else if(!backend){
+					throw new IOException("The checkpoint file was written with a canonical labelling backend that computes different canonical forms than the selected " + Nauty.getBackend() + " backend.");
+				}
+			}catch(EOFException e){
+				//incomplete header, nothing was recorded yet
+				return 0;
+			}
+
+			List<Predicate> labels = new ArrayList<Predicate>();
+			for(Predicate label : predicates){
+				if(label != null){
+					labels.add(label);
+				}
+			}
+
+			try{
+				while(true){
+					byte[] record = new byte[in.readInt()];
+					in.readFully(record);
+					read(new DataInputStream(new ByteArrayInputStream(record)), labels);
+					valid += 4 + record.length;
+				}
+			}catch(EOFException e){
+				//end of the file or a partially written record
+				return valid;
+			}
+		}
+
+		/**
+		 * Reads a single block record and restores the cores of the block.
+		 * @param in The stream to read the record from.
+		 * @param labels The labels to use to parse explicit cores.
+		 * @throws IOException When an IOException occurs or the record is invalid.
+		 */
+		private void read(DataInputStream in, List<Predicate> labels) throws IOException{
+			int layer = in.readInt();
+			int idx = in.readInt();
+			if(layer < 0 || layer >= k || idx < 0 || idx >= layers.get(layer).size()){
+				throw new IOException("Invalid checkpoint block record.");
+			}
+
+			Block block = layers.get(layer).get(idx);
+			if(in.readInt() != block.getId()){
+				throw new IOException("Invalid checkpoint block record.");
+			}
+
+			int len = in.readInt();
+			Set<CoreHash> canon = new HashSet<CoreHash>(len);
+			for(int i = 0; i < len; i++){
+				canon.add(CoreHash.read(in));
+			}
+
+			len = in.readInt();
+			List<CPQ> cores = len == -1 ? null : new ArrayList<CPQ>(len);
+			for(int i = 0; i < len; i++){
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				cores.add(CPQ.parse(new String(data, StandardCharsets.UTF_8), labels));
+			}
+
+			block.restoreCores(canon, cores, in.readBoolean());
+			restored.add(block);
+		}
+
+		/**
+		 * Checks if the cores of the given block were restored from the checkpoint file.
+		 * @param block The block to check.
+		 * @return True if the cores of the block were restored.
+		 */
+		private boolean isRestored(Block block){
+			return restored.contains(block);
+		}
+
+		/**
+		 * Appends a record for the given block to the checkpoint file, the
+		 * cores for the given block should have been fully computed. If writing
+		 * the record fails the exception is reported on the next flush.
+		 * @param layer The layer index of the block.
+		 * @param idx The index of the block within its layer.
+		 * @param block The block to record.
+		 * @see #flush()
+		 */
+		private void write(int layer, int idx, Block block){
+			try{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				DataOutputStream record = new DataOutputStream(buffer);
+				record.writeInt(layer);
+				record.writeInt(idx);
+				record.writeInt(block.getId());
+
+				record.writeInt(block.canonCores.size());
+				for(CoreHash core : block.canonCores){
+					core.write(record);
+				}
+
+				record.writeInt(block.cores == null ? -1 : block.cores.size());
+				if(block.cores != null){
+					for(CPQ core : block.cores){
+						byte[] str = core.toString().getBytes(StandardCharsets.UTF_8);
+						record.writeInt(str.length);
+						record.write(str);
+					}
+				}
+				
+				record.writeBoolean(block.truncated);
+
+				synchronized(this){
+					if(error == null){
+						out.writeInt(buffer.size());
+						buffer.writeTo(out);
+						if(System.currentTimeMillis() - lastFlush >= CHECKPOINT_INTERVAL){
+							flush();
+						}
+					}
+				}
+			}catch(IOException e){
+				synchronized(this){
+					if(error == null){
+						error = e;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Forces all records written so far to disk.
+		 * @throws IOException When an IOException occurs or
+		 *         when writing an earlier record failed.
+		 */
+		private synchronized void flush() throws IOException{
+			if(error != null){
+				throw error;
+			}
+
+			out.flush();
+			channel.force(false);
+			lastFlush = System.currentTimeMillis();
+		}
+
+		@Override
+		public void close() throws IOException{
+			try{
+				flush();
+			}finally{
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Scheduler that computes the cores of all blocks in the index on a work stealing
+	 * pool. Computing the cores of a block only requires the cores of its ancestor and
+	 * of the blocks it was combined from, so a block becomes runnable as soon as these
+	 * blocks are done. This means there is no barrier between the layers of the index
+	 * and large blocks in one layer do not keep the remaining threads idle.
+	 * @author Roan
+	 * @see Index#computeCores(int, Path)
+	 */
+	private final class CoreScheduler{
+		/**
+		 * The pool to run core computation on.
+		 */
+		private final ForkJoinPool pool;
+		/**
+		 * The checkpoint to record finished blocks in, null if not used.
+		 */
+		private final Checkpoint checkpoint;
+		/**
+		 * All blocks in the index ordered by layer, the position of a
+		 * block in this array is used as its ID by the scheduler.
+		 */
+		private final Block[] order;
+		/**
+		 * The layer index of each block by ID.
+		 */
+		private final int[] layerOf;
+		/**
+		 * The index of each block within its layer by ID.
+		 */
+		private final int[] indexOf;
+		/**
+		 * For each block by ID the IDs of the blocks that use its cores.
+		 */
+		private final List<List<Integer>> dependents;
+		/**
+		 * For each block by ID the number of blocks it uses the cores
+		 * of that have not had their cores computed yet.
+		 */
+		private final AtomicIntegerArray pending;
+		/**
+		 * For each layer the number of blocks that are done.
+		 */
+		private final AtomicIntegerArray layerDone;
+		/**
+		 * For each layer whether core computation was started, 1 if started.
+		 */
+		private final AtomicIntegerArray started;
+		/**
+		 * The total number of blocks that are done.
+		 */
+		private final AtomicInteger done = new AtomicInteger(0);
+		/**
+		 * Lock used to notify the waiting thread of progress.
+		 */
+		private final Lock lock = new ReentrantLock();
+		/**
+		 * Condition signalled when blocks are done.
+		 */
+		private final Condition cond = lock.newCondition();
+		/**
+		 * The first exception thrown while computing the cores of a block, null if none.
+		 */
+		private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		/**
+		 * Constructs a new scheduler and computes the dependencies between all blocks.
+		 * Blocks restored from the given checkpoint are considered done immediately.
+		 * @param pool The pool to run core computation on.
+		 * @param checkpoint The checkpoint to record finished blocks in or null.
+		 */
+		private CoreScheduler(ForkJoinPool pool, Checkpoint checkpoint){
+			this.pool = pool;
+			this.checkpoint = checkpoint;
+			
+			Map<Block, Integer> ids = new IdentityHashMap<Block, Integer>();
+			int total = 0;
+			for(List<Block> layer : layers){
+				total += layer.size();
+			}
+			
+			order = new Block[total];
+			layerOf = new int[total];
+			indexOf = new int[total];
+			for(int i = 0, id = 0; i < k; i++){
+				List<Block> layer = layers.get(i);
+				for(int j = 0; j < layer.size(); j++, id++){
+					order[id] = layer.get(j);
+					layerOf[id] = i;
+					indexOf[id] = j;
+					ids.put(order[id], id);
+				}
+			}
+			
+			dependents = new ArrayList<List<Integer>>(total);
+			for(int i = 0; i < total; i++){
+				dependents.add(new ArrayList<Integer>());
+			}
+			
+			pending = new AtomicIntegerArray(total);
+			layerDone = new AtomicIntegerArray(k);
+			started = new AtomicIntegerArray(k);
+			for(int id = 0; id < total; id++){
+				Block block = order[id];
+				if(isRestored(block)){
+					layerDone.incrementAndGet(layerOf[id]);
+					done.incrementAndGet();
+					continue;
+				}
+				
+				Set<Integer> inputs = new HashSet<Integer>();
+				if(block.ancestor != null){
+					inputs.add(ids.get(block.ancestor));
+				}
+				
+				for(BlockPair pair : block.combinations){
+					inputs.add(ids.get(pair.first()));
+					inputs.add(ids.get(pair.second()));
+				}
+				
+				for(int input : inputs){
+					//inputs are always from earlier layers, the final layer can contain copies of earlier blocks
+					if(layerOf[input] < layerOf[id] && !isRestored(order[input])){
+						dependents.get(input).add(id);
+						pending.incrementAndGet(id);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Computes the cores of all blocks that are not done yet
+		 * and waits for core computation to finish. If computing the
+		 * cores of any block fails, the remaining work is cancelled
+		 * and the first exception that occurred is rethrown.
+		 * @throws InterruptedException When the current thread is interrupted.
+		 * @throws CompletionException When core computation failed with a checked exception.
+		 */
+		private void run() throws InterruptedException, CompletionException{
+			for(int i = 0; i < k; i++){
+				if(layerDone.get(i) == layers.get(i).size()){
+					started.set(i, 1);
+					progress.coresStart(i + 1);
+					progress.coresEnd(i + 1);
+				}
+			}
+			
+			final int total = order.length;
+			if(done.get() == total){
+				return;
+			}
+			
+			//blocks at the end of a layer are submitted first
+			for(int id = total - 1; id >= 0; id--){
+				if(pending.get(id) == 0 && !isRestored(order[id])){
+					final int block = id;
+					pool.execute(()->compute(block));
+				}
+			}
+			
+			//the state is checked under the lock before every wait, so a signal can never be missed
+			long lastUpdate = 0;
+			int reported = done.get();
+			lock.lock();
+			try{
+				while(true){
+					checkFailure();
+					int val = done.get();
+					if(val != reported){
+						progress.coresBlocksDone(val, total);
+						reported = val;
+					}
+					
+					if(val == total){
+						break;
+					}
+					
 					if(lastUpdate < System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10)){
-						progress.intermediateProgress(blocks.stream().mapToInt(b->b.canonCores.size()).summaryStatistics().getSum(), done.get(), total);
+						progress.intermediateProgress(blocks.stream().mapToInt(b->b.canonCores.size()).summaryStatistics().getSum(), val, total);
 						lastUpdate = System.currentTimeMillis();
 					}
-				}finally{
-					lock.unlock();
+					
+					cond.await(10, TimeUnit.MINUTES);
 				}
+			}finally{
+				lock.unlock();
 			}
-			
-			progress.coresEnd(i + 1);
-		}
-		
-		executor.shutdown();
-		computeCores = true;
-		mapCoresToBlocks();
-	}
-	
-	/**
-	 * Partitions all the paths in the given graph according to k-path-bisimulation.
-	 * @param g The graph to partition.
-	 * @return The partitioned paths in the graph.
-	 * @throws IllegalArgumentException When the diameter of this index k is less than 1.
-	 */
-	private final RangeList<List<LabelledPath>> partition(UniqueGraph<Integer, Predicate> g) throws IllegalArgumentException{
-		if(k <= 0){
-			throw new IllegalArgumentException("Invalid value of k for bisimulation, has to be 1 or greater.");
-		}
-		
-		progress.partitionStart(1);
-		RangeList<List<LabelledPath>> segments = new RangeList<List<LabelledPath>>(k, ArrayList::new);
-		Map<Pair, LabelledPath> history = new HashMap<Pair, LabelledPath>();
-		int vertexCount = g.getNodeCount();
-		RangeList<RangeList<List<LabelledPath>>> adjacencyByLayer = new RangeList<RangeList<List<LabelledPath>>>(k);
-		
-		//classes for 1-path-bisimulation
-		Map<Pair, LabelledPath> pathMap = new HashMap<Pair, LabelledPath>();
-		predicates = new RangeList<Predicate>(1 + g.getEdges().stream().mapToInt(e->e.getData().getID()).max().orElse(0));
-		for(GraphEdge<Integer, Predicate> edge : g.getEdges()){
-			//forward and backward edges are just the labels on those edges
-			LabelledPath path = pathMap.computeIfAbsent(new Pair(edge.getSource(), edge.getTarget()), p->new LabelledPath(p, null));
-			path.addLabel(edge.getData());
-			history.put(path.getPair(), path);
-			
-			path = pathMap.computeIfAbsent(new Pair(edge.getTarget(), edge.getSource()), p->new LabelledPath(p, null));
-			path.addLabel(edge.getData().getInverse());
-			history.put(path.getPair(), path);
-			
-			predicates.set(edge.getData(), edge.getData());
-		}
-		
-		//sort 1-path
-		List<LabelledPath> segOne = segments.get(0);
-		pathMap.values().stream().sorted(Index::sortOnePath).forEachOrdered(segOne::add);
-		
-		//assign block IDs
-		LabelledPath prev = null;
-		int id = 1;
-		for(LabelledPath seg : segOne){
-			if(prev != null && (!seg.equalLabels(prev) || seg.isLoop() ^ prev.isLoop())){
-				//if labels and cyclic patterns (loop) are not the same a new ID is started
-				id++;
-			}
-
-			seg.setSegmentId(id);
-			prev = seg;
 		}
-		adjacencyByLayer.set(0, buildAdjacencyMapping(segOne, vertexCount));
-		progress.partitionEnd(1);
 		
-		//classes for 2-path-bisimulation to k-path-bisimulation
-		for(int i = 1; i < k; i++){
-			progress.partitionStart(i + 1);
-			pathMap.clear();
-
-			id++;
-			for(int k1 = i - 1; k1 >= 0; k1--){//all combinations to make CPQi
-				int k2 = i - k1 - 1;
-				RangeList<List<LabelledPath>> endMapping = adjacencyByLayer.get(k2);
+		/**
+		 * Computes the cores of the block with the given ID and
+		 * schedules any blocks that become runnable as a result.
+		 * @param id The ID of the block to compute the cores of.
+		 */
+		private void compute(int id){
+			try{
+				int layer = layerOf[id];
+				if(started.compareAndSet(layer, 0, 1)){
+					progress.coresStart(layer + 1);
+				}
 				
-				progress.partitionCombinationStart(k1 + 1, k2 + 1);
-				for(LabelledPath seg : segments.get(k1)){
-					List<LabelledPath> endMatches = endMapping.get(seg.getTarget());
-					if(endMatches == null){
-						continue;
-					}
-					
-					for(LabelledPath end : endMatches){
-						
-						Pair key = new Pair(seg.getSource(), end.getTarget());
-						LabelledPath path = pathMap.computeIfAbsent(key, p->{
-							LabelledPath newPath = new LabelledPath(p, history.get(p));
-							history.put(p, newPath);
-							return newPath;
-						});
-						
-						path.addSegment(seg, end);
-						if(k2 == 0 && computeLabels){//slight optimisation, since we only need one combination to find all paths
-							for(LabelSequence labels : seg.getLabels()){
-								for(LabelSequence label : end.getLabels()){
-									path.addLabel(labels, label);
-								}
-							}
-						}
+				Block block = order[id];
+				block.computeCores();
+				if(checkpoint != null){
+					checkpoint.write(layer, indexOf[id], block);
+				}
+				
+				for(int next : dependents.get(id)){
+					if(pending.decrementAndGet(next) == 0){
+						ForkJoinTask.adapt(()->compute(next)).fork();
 					}
 				}
 				
-				progress.partitionCombinationEnd(k1 + 1, k2 + 1);
-			}
-			
-			//sort
-			List<LabelledPath> segs = segments.get(i);
-			pathMap.values().forEach(LabelledPath::cacheHashCode);
-			pathMap.values().stream().sorted(Index::sortPaths).forEachOrdered(segs::add);
-
-			//assign IDs
-			prev = null;
-			for(LabelledPath path : segs){
-				if(prev != null && (path.compareSegmentsTo(prev) != 0 || prev.isLoop() ^ path.isLoop())){
-					//increase id if loop status or segments differ
-					id++;
+				if(layerDone.incrementAndGet(layer) == layers.get(layer).size()){
+					progress.coresEnd(layer + 1);
+				}
+				
+				//only the final block has to wake the waiting thread, the others only report progress
+				if(done.incrementAndGet() == order.length){
+					lock.lock();
+				}else if(!lock.tryLock()){
+					return;
+				}
+				
+				try{
+					cond.signal();
+				}finally{
+					lock.unlock();
+				}
+			}catch(Throwable t){
+				failure.compareAndSet(null, t);
+				lock.lock();
+				try{
+					cond.signal();
+				}finally{
+					lock.unlock();
 				}
-
-				path.setSegmentId(id);
-				prev = path;
 			}
-			
-			adjacencyByLayer.set(i, buildAdjacencyMapping(segs, vertexCount));
-			progress.partitionEnd(i + 1);
 		}
 		
-		return segments;
-	}
-	
-	/**
-	 * Builds an adjacency mapping from each source vertex to the segments that start there.
-	 * This enables a mapped join when combining segments.
-	 * @param segments The segments to map.
-	 * @param vertexCount The total number of vertices in the graph.
-	 * @return The adjacency mapping by source vertex.
-	 */
-	private static RangeList<List<LabelledPath>> buildAdjacencyMapping(List<LabelledPath> segments, int vertexCount){
-		RangeList<List<LabelledPath>> adjacency = new RangeList<List<LabelledPath>>(vertexCount);
-
-		for(LabelledPath segment : segments){
-			List<LabelledPath> adj = adjacency.get(segment.getSource());
-			if(adj == null){
-				adj = new ArrayList<LabelledPath>();
-				adjacency.set(segment.getSource(), adj);
+		/**
+		 * Checks if computing the cores of any block failed and if so cancels
+		 * all remaining work and rethrows the first exception that occurred.
+		 * @throws CompletionException When core computation failed with a checked exception.
+		 */
+		private void checkFailure() throws CompletionException{
+			Throwable t = failure.get();
+			if(t != null){
+				pool.shutdownNow();
+				if(t instanceof RuntimeException e){
+					throw e;
+				}else if(t instanceof Error e){
+					throw e;
+				}else{
+					throw new CompletionException(t);
+				}
 			}
-			
-			adj.add(segment);
-		}
-		
-		return adjacency;
-	}
-	
-	/**
-	 * Compares the given paths based on their segments,
-	 * cyclic properties, source and target.
-	 * @param a The first path.
-	 * @param b The second path.
-	 * @return A value less than 0 if {@code a < b}, a value equal
-	 *         to 0 if {@code a == b} and a value greater than 0 if
-	 *         {@code a > b}.
-	 */
-	private static final int sortPaths(LabelledPath a, LabelledPath b){
-		int cmp = a.compareSegmentsTo(b);
-		if(cmp != 0){
-			return cmp;
-		}
-
-		cmp = Boolean.compare(a.isLoop(), b.isLoop());
-		if(cmp != 0){
-			return cmp;
-		}
-
-		return a.comparePathTo(b);
-	}
-	
-	/**
-	 * Compares the given paths based on their labels,
-	 * cyclic properties, source and target.
-	 * @param a The first path.
-	 * @param b The second path.
-	 * @return A value less than 0 if {@code a < b}, a value equal
-	 *         to 0 if {@code a == b} and a value greater than 0 if
-	 *         {@code a > b}.
-	 */
-	private static final int sortOnePath(LabelledPath a, LabelledPath b){
-		int cmp = a.compareLabelsTo(b);
-		if(cmp != 0){
-			return cmp;
 		}
 		
-		cmp = Boolean.compare(a.isLoop(), b.isLoop());
-		if(cmp != 0){
-			return cmp;
+		/**
+		 * Checks if the cores of the given block were restored from the checkpoint.
+		 * @param block The block to check.
+		 * @return True if the cores of the block were restored.
+		 */
+		private boolean isRestored(Block block){
+			return checkpoint != null && checkpoint.isRestored(block);
 		}
-
-		return a.comparePathTo(b);
 	}
 	
 	/**
@@ -836,9 +2842,10 @@ public class Index{
 		 */
 		private final int k;
 		/**
-		 * A list of all paths stored at this block.
+		 * A sorted array of all paths stored at this block, packed as longs.
+		 * @see Pair#pack(int, int)
 		 */
-		private final List<Pair> paths;
+		private final long[] paths;
 		/**
 		 * A list of all label sequences that map to this block. This is
 		 * the same set of label sequences as computed in the original
@@ -869,6 +2876,27 @@ public class Index{
 		 * @see #paths
 		 */
 		private Block ancestor;
+		/**
+		 * True if core computation for this block or any block it inherits
+		 * cores from was stopped early because the core budget ran out.
+		 * @see Index#setCoreBudget(CoreBudget)
+		 */
+		private boolean truncated = false;
+		/**
+		 * Tracks the work spent on this block while its cores are being computed, null otherwise.
+		 */
+		private CoreBudget.Usage usage = null;
+		/**
+		 * The number of cores inherited from the ancestor of this block while its
+		 * cores are being computed, these do not count towards the core budget.
+		 */
+		private int inherited = 0;
+		/**
+		 * For a block that was read back before the blocks it references, the ID of its ancestor
+		 * followed by the IDs of the blocks in each of its combinations. Null once resolved.
+		 * @see #resolveReferences(RangeList)
+		 */
+		private int[] unresolved = null;
 		
 		/**
 		 * Constructs a new index block for the given diameter and with the given paths.
@@ -880,7 +2908,8 @@ public class Index{
 			
 			LabelledPath range = slice.get(0);
 			id = range.getSegmentId();
-			paths = slice.stream().map(LabelledPath::getPair).collect(Collectors.toList());
+			paths = slice.stream().mapToLong(p->Pair.pack(p.getSource(), p.getTarget())).toArray();
+			Arrays.sort(paths);
 			slice.forEach(s->s.setBlock(this));
 			combinations = range.getSegments().stream().map(BlockPair::new).toList();
 			cores = new ArrayList<CPQ>();
@@ -909,17 +2938,27 @@ public class Index{
 		 * Reads a previously saved block from the given input stream.
 		 * @param in The stream to read from.
 		 * @param full True if extra information has to be read.
-		 * @param blockMap A map of already read blocks indexed by ID.
+		 * @param version The version of the stream format.
+		 * @param blockMap A map of already read blocks indexed by ID or null
+		 *        to resolve references to other blocks at a later time.
 		 * @throws IOException When an IOException occurs.
+		 * @see #resolveReferences(RangeList)
 		 */
-		private Block(DataInputStream in, boolean full, RangeList<Block> blockMap) throws IOException{
+		private Block(DataInputStream in, boolean full, int version, RangeList<Block> blockMap) throws IOException{
 			id = in.readInt();
 			
-			int len = in.readInt();
-			paths = new ArrayList<Pair>(len);
-			for(int i = 0; i < len; i++){
-				paths.add(new Pair(in));
+			int len;
+			if(version >= 2){
+				paths = readPaths(in);
+			}else{
+				len = in.readInt();
+				paths = new long[len];
+				for(int i = 0; i < len; i++){
+					paths[i] = Pair.pack(in.readInt(), in.readInt());
+				}
+				Arrays.sort(paths);
 			}
+			truncated = version >= 1 && in.readBoolean();
 			
 			if(full){
 				k = in.readInt();
@@ -931,12 +2970,19 @@ public class Index{
 				}
 				
 				int anc = in.readInt();
-				ancestor = anc == -1 ? null : blockMap.get(anc);
-				
 				len = in.readInt();
 				combinations = new ArrayList<BlockPair>(len);
-				for(int i = 0; i < len; i++){
-					combinations.add(new BlockPair(in, blockMap));
+				if(blockMap == null){
+					unresolved = new int[1 + 2 * len];
+					unresolved[0] = anc;
+					for(int i = 1; i < unresolved.length; i++){
+						unresolved[i] = in.readInt();
+					}
+				}else{
+					ancestor = anc == -1 ? null : blockMap.get(anc);
+					for(int i = 0; i < len; i++){
+						combinations.add(new BlockPair(in, blockMap));
+					}
 				}
 				
 				len = in.readInt();
@@ -956,6 +3002,28 @@ public class Index{
 			}
 		}
 		
+		/**
+		 * Reads a block from a memory mapped index file.
+		 * @param data The memory mapped index file.
+		 * @param entry The offset of the block table entry for this block.
+		 * @param truncated True if core computation for this block was truncated.
+		 * @see Index#writeMapped(OutputStream)
+		 */
+		private Block(MemorySegment data, long entry, boolean truncated){
+			id = data.get(MAPPED_INT, entry);
+			k = -1;
+			this.truncated = truncated;
+			
+			paths = new long[data.get(MAPPED_INT, entry + 4)];
+			MemorySegment.copy(data, MAPPED_LONG, data.get(MAPPED_LONG, entry + 8), paths, 0, paths.length);
+			
+			ancestor = null;
+			labels = null;
+			combinations = null;
+			canonCores = null;
+			cores = null;
+		}
+		
 		/**
 		 * Writes this block to the given stream.
 		 * @param out The stream to write to.
@@ -966,10 +3034,8 @@ public class Index{
 		private final void write(DataOutputStream out, boolean full) throws IOException{
 			out.writeInt(id);
 			
-			out.writeInt(paths.size());
-			for(Pair pair : paths){
-				pair.write(out);
-			}
+			writePaths(out);
+			out.writeBoolean(truncated);
 			
 			if(full){
 				out.writeInt(k);
@@ -999,6 +3065,70 @@ public class Index{
 			}
 		}
 
+		/**
+		 * Resolves the references of this block to its ancestor and the blocks it
+		 * was combined from if this block was read without resolving references.
+		 * @param blockMap A map of all blocks the block references indexed by ID.
+		 * @see #unresolved
+		 */
+		private final void resolveReferences(RangeList<Block> blockMap){
+			if(unresolved != null){
+				ancestor = unresolved[0] == -1 ? null : blockMap.get(unresolved[0]);
+				for(int i = 1; i < unresolved.length; i += 2){
+					combinations.add(new BlockPair(blockMap.get(unresolved[i]), blockMap.get(unresolved[i + 1])));
+				}
+				
+				unresolved = null;
+			}
+		}
+		
+		/**
+		 * Writes the paths of this block to the given stream in compressed form. Since
+		 * paths are sorted on source and then target, each source is written as the
+		 * difference with the previous source. If the source is the same as that of the
+		 * previous path, the target is written as the difference with the previous target
+		 * minus one, otherwise the target is written as is. All numbers are written as
+		 * variable length integers, so runs of paths with the same source and nearby
+		 * targets only take up a byte or two per path.
+		 * @param out The stream to write to.
+		 * @throws IOException When an IOException occurs.
+		 * @see #readPaths(DataInputStream)
+		 */
+		private final void writePaths(DataOutputStream out) throws IOException{
+			IndexUtil.writeVarInt(out, paths.length);
+			int src = 0;
+			int trg = -1;
+			for(long path : paths){
+				int nextSrc = Pair.unpackSource(path);
+				int nextTrg = Pair.unpackTarget(path);
+				IndexUtil.writeVarInt(out, nextSrc - src);
+				IndexUtil.writeVarInt(out, nextSrc == src ? (nextTrg - trg - 1) : nextTrg);
+				src = nextSrc;
+				trg = nextTrg;
+			}
+		}
+		
+		/**
+		 * Reads paths written in compressed form from the given stream.
+		 * @param in The stream to read from.
+		 * @return The read paths, sorted on source and target.
+		 * @throws IOException When an IOException occurs.
+		 * @see #writePaths(DataOutputStream)
+		 */
+		private static final long[] readPaths(DataInputStream in) throws IOException{
+			long[] paths = new long[IndexUtil.readVarInt(in)];
+			int src = 0;
+			int trg = -1;
+			for(int i = 0; i < paths.length; i++){
+				int delta = IndexUtil.readVarInt(in);
+				trg = delta == 0 ? (trg + 1 + IndexUtil.readVarInt(in)) : IndexUtil.readVarInt(in);
+				src += delta;
+				paths[i] = Pair.pack(src, trg);
+			}
+			
+			return paths;
+		}
+		
 		/**
 		 * Gets the ID of this block. This is equal to
 		 * the ID of the segments this block was built from.
@@ -1009,10 +3139,35 @@ public class Index{
 		}
 		
 		/**
-		 * Gets the paths stored at this block.
-		 * @return The paths for this block.
+		 * Gets the paths stored at this block. The returned list is
+		 * a read only view that creates pair objects on access.
+		 * @return The paths for this block, sorted on source and target.
+		 * @see #getPackedPaths()
 		 */
 		public final List<Pair> getPaths(){
+			return new AbstractList<Pair>(){
+				
+				@Override
+				public Pair get(int index){
+					return new Pair(paths[index]);
+				}
+				
+				@Override
+				public int size(){
+					return paths.length;
+				}
+			};
+		}
+		
+		/**
+		 * Gets the paths stored at this block packed as longs. The
+		 * returned array is the internal storage of this block and
+		 * should not be modified.
+		 * @return The packed paths for this block, sorted on source and target.
+		 * @see Pair#pack(int, int)
+		 * @see #getPaths()
+		 */
+		public final long[] getPackedPaths(){
 			return paths;
 		}
 
@@ -1021,7 +3176,7 @@ public class Index{
 		 * @return The number of paths for this block.
 		 */
 		public final int getPathCount(){
-			return paths.size();
+			return paths.length;
 		}
 		
 		/**
@@ -1029,8 +3184,10 @@ public class Index{
 		 * @return The label sequences that map to this block.
 		 *         This value may be null unless label computation
 		 *         was explicitly requested via {@link Index#computeLabels}.
+		 * @throws IllegalStateException When this block was read from a memory mapped index.
 		 */
-		public final List<LabelSequence> getLabels(){
+		public final List<LabelSequence> getLabels() throws IllegalStateException{
+			checkNotMappedBlock();
 			return labels;
 		}
 		
@@ -1039,8 +3196,10 @@ public class Index{
 		 * @return The cores for this block.
 		 *         This value may be null unless label computation
 		 *         was explicitly requested via {@link Index#computeLabels}.
+		 * @throws IllegalStateException When this block was read from a memory mapped index.
 		 */
-		public final Set<CoreHash> getCanonCores(){
+		public final Set<CoreHash> getCanonCores() throws IllegalStateException{
+			checkNotMappedBlock();
 			return canonCores;
 		}
 		
@@ -1049,54 +3208,101 @@ public class Index{
 		 * @return The cores that map to this block.
 		 *         This value may be null unless label computation
 		 *         was explicitly requested via {@link Index#computeLabels}.
+		 * @throws IllegalStateException When this block was read from a memory mapped index.
 		 */
-		public final List<CPQ> getCores(){
+		public final List<CPQ> getCores() throws IllegalStateException{
+			checkNotMappedBlock();
 			return cores;
 		}
 		
+		/**
+		 * Checks that this block was not read from a memory mapped index file, blocks
+		 * read from such a file only have their paths and are marked by a layer of -1.
+		 * @throws IllegalStateException When this block was read from a memory mapped index.
+		 * @see Block#Block(MemorySegment, long, boolean)
+		 */
+		private final void checkNotMappedBlock() throws IllegalStateException{
+			if(k == -1){
+				throw new IllegalStateException("Labels and cores are not available for blocks of a memory mapped index.");
+			}
+		}
+		
 		/**
 		 * Checks if this block represents a loop, this means that
 		 * all paths in this block have the same source and target vertex.
 		 * @return True if this block represents a loop.
 		 */
 		public final boolean isLoop(){
-			return paths.get(0).isLoop();
+			return Pair.unpackSource(paths[0]) == Pair.unpackTarget(paths[0]);
+		}
+		
+		/**
+		 * Checks if core computation for this block was truncated because the
+		 * core budget ran out, either for this block itself or for a block it
+		 * inherits cores from. A truncated block may be missing some of its cores.
+		 * @return True if core computation for this block was truncated.
+		 * @see Index#setCoreBudget(CoreBudget)
+		 */
+		public final boolean isTruncated(){
+			return truncated;
 		}
 		
 		/**
-		 * Adds a new core to this index.
-		 * @param canon The canonical form of the core to add.
+		 * Adds a new core to this index if the core budget allows it.
+		 * @param core The canonized candidate core to add.
 		 * @param noSave True if the explicit form of this core
 		 *        does not need to be saved to {@link #cores}.
 		 */
-		private final void addCore(CanonForm canon, boolean noSave){
-			if(canonCores.add(canon.toHashCanon())){
+		private final void addCore(CoreCandidate core, boolean noSave){
+			if(!canonCores.contains(core.canon()) && !usage.allowCores(canonCores.size() - inherited)){
+				return;
+			}
+			
+			if(canonCores.add(core.canon())){
 				if(!noSave){
-					cores.add(canon.getCPQ());
+					cores.add(core.cpq());
 				}
 			}
 		}
 		
 		/**
-		 * Adds a new core to this index.
-		 * @param q The CPQ to add, the core of this CPQ
-		 *        is always computed first before adding.
-		 * @param noSave True if the explicit form of this core
-		 *        does not need to be saved to {@link #cores}.
+		 * Restores the cores of this block from a checkpoint, after
+		 * this the block is in the same state as after computing its cores.
+		 * @param canon The hashes of the cores of this block.
+		 * @param cores The explicit cores of this block, null if not saved.
+		 * @param truncated True if core computation for this block was truncated.
+		 * @see #computeCores()
 		 */
-		private final void addCore(CPQ q, boolean noSave){
-			addCore(CanonForm.computeCanon(q, false), noSave);
+		private final void restoreCores(Set<CoreHash> canon, List<CPQ> cores, boolean truncated){
+			canonCores = canon;
+			this.cores = cores;
+			this.truncated = truncated;
+			if(k == Index.this.k && !computeLabels){
+				this.cores = null;
+				labels = null;
+				ancestor = null;
+				combinations = null;
+			}
 		}
 		
 		/**
 		 * Computes all the CPQ cores for this block.
 		 */
 		private final void computeCores(){
+			usage = budget.start();
+			
 			//inherited from previous layer blocks
 			if(ancestor != null){//only need to go back one level since the previous level already collected the level before that
 				//these are by definition of a different diameter
 				canonCores.addAll(ancestor.canonCores);
 				cores.addAll(ancestor.cores);
+				truncated = ancestor.truncated;
+			}
+			
+			inherited = canonCores.size();
+			
+			for(BlockPair pair : combinations){
+				truncated |= pair.first().truncated || pair.second().truncated;
 			}
 			
 			//all cores so far are inherited fully processed cores from the ancestor, we skip these for intersection with each other and identity
@@ -1105,78 +3311,109 @@ public class Index{
 			
 			if(combinations.isEmpty()){
 				//for layer 1 the cores are the label sequences (which are distinct cores)
-				labels.stream().map(LabelSequence::getLabels).map(CPQ::labels).map(q->CanonForm.computeCanon(q, true)).forEach(c->this.addCore(c, false));
+				computeCandidates(labels.stream().map(LabelSequence::getLabels).map(CPQ::labels).toList(), true).forEach(c->this.addCore(c, false));
 			}else{
 				//all combinations of cores from previous layers (this can generate duplicates, but all are cores unless both cores are a loop)
-				for(BlockPair pair : combinations){
+				List<CPQ> batch = new ArrayList<CPQ>(CANON_BATCH_SIZE);
+				concat: for(BlockPair pair : combinations){
 					for(CPQ core1 : pair.first().cores){
 						for(CPQ core2 : pair.second().cores){
-							addCore(CPQ.concat(core1, core2), false);
+							if(!usage.spend()){
+								break concat;
+							}
+							
+							batch.add(CPQ.concat(core1, core2));
+							if(batch.size() == CANON_BATCH_SIZE){
+								computeCandidates(batch, false).forEach(c->addCore(c, false));
+								batch.clear();
+							}
 						}
 					}
 				}
+				
+				computeCandidates(batch, false).forEach(c->addCore(c, false));
 			}
 			
 			//all cores up to intersection
 			final int end = cores.size();
 			
 			//all intersections of cores (these are all distinct cores unless blackflow happens, so we cannot assume them to be cores)
-			if(maxIntersections >= 2){
-				QueryGraphCPQ[] graphs = new QueryGraphCPQ[cores.size()];
-				for(int i = 0; i < graphs.length; i++){
-					graphs[i] = cores.get(i).toQueryGraph();
-				}
+			if(maxIntersections >= 2 && !usage.isExhausted()){
+				//rows of the conflict matrix are independent, so they are computed in parallel on the pool running this block
+				QueryGraphCPQ[] graphs = IntStream.range(0, cores.size()).parallel().mapToObj(i->cores.get(i).toQueryGraph()).toArray(QueryGraphCPQ[]::new);
 
 				final int max = cores.size();
 				BitSet[] conflicts = new BitSet[max];
 				conflicts[0] = new BitSet(0);
-				for(int i = 1; i < max; i++){
+				IntStream.range(1, max).parallel().forEach(i->{
 					QueryGraphCPQ a = graphs[i];
-					conflicts[i] = new BitSet(i);
+					BitSet row = new BitSet(i);
 					for(int j = skip; j < i; j++){
+						if(!usage.check()){
+							//remaining pairs are never intersected once the budget is exceeded
+							break;
+						}
+						
 						//if CPQs are homomorphic they collapse on intersection
 						QueryGraphCPQ b = graphs[j];
 						if(a.isHomomorphicTo(b) || b.isHomomorphicTo(a)){
-							conflicts[i].set(j);
+							row.set(j);
 						}
 					}
-				}
+					
+					conflicts[i] = row;
+				});
 			
-				List<CanonForm> held = new ArrayList<CanonForm>();
-				for(int i = skip; i < max; i++){
+				List<CoreCandidate> held = new ArrayList<CoreCandidate>();
+				List<CPQ> batch = new ArrayList<CPQ>(CANON_BATCH_SIZE);
+				long[] pairs = new long[CANON_BATCH_SIZE];
+				pairs: for(int i = skip; i < max; i++){
 					for(int j = 0; j < i; j++){
 						if(!conflicts[i].get(j)){
+							if(!usage.spend()){
+								break pairs;
+							}
+							
 							//this really only applies for k > 2, but any decrease in options is welcome
-							CPQ q = CPQ.intersect(cores.get(i), cores.get(j));
-							CanonForm canon = CanonForm.computeCanon(q, false);
-							held.add(canon);
-							if(canon.wasCore()){
-								if(isLoop()){
-									held.add(CanonForm.computeCanon(CPQ.intersect(q, CPQ.id()), false));
-								}
-							}else{
-								conflicts[i].set(j);
+							pairs[batch.size()] = Pair.pack(i, j);
+							batch.add(CPQ.intersect(cores.get(i), cores.get(j)));
+							if(batch.size() == CANON_BATCH_SIZE){
+								computePairIntersectionCores(batch, pairs, conflicts, held);
 							}
 						}
 					}
 				}
 				
-				if(maxIntersections >= 3){
-					computeIntersectionCores(cores, 0, skip, max, new ArrayList<CPQ>(), new BitSet(cores.size()), conflicts, noSave, isLoop());
+				computePairIntersectionCores(batch, pairs, conflicts, held);
+				
+				if(maxIntersections >= 3 && !usage.isExhausted()){
+					for(CoreCandidate form : new IntersectionTask(0, skip, max, new ArrayList<CPQ>(), new BitSet(max), conflicts, 0).invoke().values()){
+						addCore(form, noSave);
+					}
 				}
 				
-				for(CanonForm form : held){
+				for(CoreCandidate form : held){
 					addCore(form, noSave);
 				}
 			}
 			
 			//intersect with identity if possible, these are not always cores and not always unique (note that intersections were already handled so they are skipped)
 			if(isLoop()){
+				List<CPQ> batch = new ArrayList<CPQ>(end - skip);
 				for(int i = skip; i < end; i++){
-					addCore(CPQ.intersect(cores.get(i), CPQ.id()), noSave);
+					batch.add(CPQ.intersect(cores.get(i), CPQ.id()));
 				}
+				
+				computeCandidates(batch, false).forEach(c->addCore(c, noSave));
+			}
+			
+			if(usage.isExhausted()){
+				truncated = true;
+				progress.coresTruncated(k, id);
 			}
 			
+			usage = null;
+			inherited = 0;
 			if(noSave){
 				cores = null;
 				labels = null;
@@ -1185,9 +3422,93 @@ public class Index{
 			}
 		}
 		
+		/**
+		 * Computes the canonical forms of a batch of pairwise intersections of cores.
+		 * Intersections that turn out to not be a core are marked as conflicting and
+		 * for loop blocks the intersection of each core with identity is also computed.
+		 * The computed canonical forms are added to the given list of held forms and the
+		 * given batch is cleared.
+		 * @param batch The pairwise intersections to compute canonical forms for.
+		 * @param pairs For each intersection in the batch the packed indices of the
+		 *        two intersected cores.
+		 * @param conflicts Bit set array indicating which CPQs are subsets of each other and
+		 *        thus would never be a core if intersected.
+		 * @param held The list to add the computed canonical forms to.
+		 * @see Pair#pack(int, int)
+		 */
+		private final void computePairIntersectionCores(List<CPQ> batch, long[] pairs, BitSet[] conflicts, List<CoreCandidate> held){
+			List<CoreCandidate> forms = computeCandidates(batch, false);
+			CoreCandidate[] identity = computeIdentityCanon(forms);
+			for(int i = 0; i < forms.size(); i++){
+				held.add(forms.get(i));
+				if(forms.get(i).wasCore()){
+					if(identity[i] != null){
+						held.add(identity[i]);
+					}
+				}else{
+					conflicts[Pair.unpackSource(pairs[i])].set(Pair.unpackTarget(pairs[i]));
+				}
+			}
+			
+			batch.clear();
+		}
+		
+		/**
+		 * Computes the canonical forms of a batch of intersections of three or more cores
+		 * and adds them to the given map of found cores if not present yet. For loop blocks
+		 * the intersection of each core with identity is also added. The given batch is cleared.
+		 * @param batch The intersections to compute canonical forms for.
+		 * @param found The cores found so far by canonical hash, in the order they were found.
+		 */
+		private final void computeIntersectionCores(List<CPQ> batch, Map<CoreHash, CoreCandidate> found){
+			List<CoreCandidate> forms = computeCandidates(batch, false);
+			CoreCandidate[] identity = computeIdentityCanon(forms);
+			for(int i = 0; i < forms.size(); i++){
+				found.putIfAbsent(forms.get(i).canon(), forms.get(i));
+				if(identity[i] != null){
+					found.putIfAbsent(identity[i].canon(), identity[i]);
+				}
+			}
+			
+			//stop enumerating once this subtree alone would exceed the core limit
+			usage.limitCores(canonCores.size() - inherited + found.size());
+			batch.clear();
+		}
+		
+		/**
+		 * If this block is a loop, computes the canonical forms of the intersection
+		 * with identity for each of the given canonical forms that was a core.
+		 * @param forms The canonical forms to intersect with identity.
+		 * @return For each of the given forms the canonical form of its intersection
+		 *         with identity or null if it was not computed.
+		 */
+		private final CoreCandidate[] computeIdentityCanon(List<CoreCandidate> forms){
+			CoreCandidate[] identity = new CoreCandidate[forms.size()];
+			if(isLoop()){
+				List<CPQ> batch = new ArrayList<CPQ>(forms.size());
+				for(CoreCandidate form : forms){
+					if(form.wasCore()){
+						batch.add(CPQ.intersect(form.cpq(), CPQ.id()));
+					}
+				}
+				
+				List<CoreCandidate> computed = computeCandidates(batch, false);
+				for(int i = 0, j = 0; i < identity.length; i++){
+					if(forms.get(i).wasCore()){
+						identity[i] = computed.get(j++);
+					}
+				}
+			}
+			
+			return identity;
+		}
+		
 		/**
 		 * Computes intersection derived CPQ for this index. All sub sets of the given
-		 * list of CPQs need to be intersected and added as a potential core.
+		 * list of CPQs need to be intersected and added as a potential core. Intersections
+		 * are collected in the given batch and canonized in batches, any intersections
+		 * still left in the batch after this method returns still need to be processed
+		 * with {@link #computeIntersectionCores(List, Map)}.
 		 * @param items The list of CPQs to intersect all sub sets of.
 		 * @param offset The current CPQ in the list of CPQs to pick of skip for the
 		 *        subset currently being constructed.
@@ -1199,22 +3520,24 @@ public class Index{
 		 * @param selected Bit set indicating by index which CPQs are picked for the current subset.
 		 * @param conflicts Bit set array indicating which CPQs are subsets of each other and thus would
 		 *        never be a core if intersected.
-		 * @param noSave Whether explicit cores should be saved to {@link #cores}.
-		 * @param id True if this block is a loop so all computed cores also need to be intersected with identity.
+		 * @param batch The batch of intersections that still need to be canonized.
+		 * @param found The cores found so far by canonical hash, in the order they were found.
 		 */
-		private final void computeIntersectionCores(List<CPQ> items, int offset, final int restricted, final int max, List<CPQ> set, BitSet selected, BitSet[] conflicts, final boolean noSave, final boolean id){
+		private final void computeIntersectionCores(List<CPQ> items, int offset, final int restricted, final int max, List<CPQ> set, BitSet selected, BitSet[] conflicts, List<CPQ> batch, Map<CoreHash, CoreCandidate> found){
+			if(usage.isExhausted()){
+				return;
+			}
+			
 			if(offset >= max || set.size() == maxIntersections){
-				if(set.size() >= 3){
-					CPQ q = CPQ.intersect(new ArrayList<CPQ>(set));
-					CanonForm canon = CanonForm.computeCanon(q, false);
-					addCore(canon, noSave);
-					if(id && canon.wasCore()){
-						addCore(CPQ.intersect(q, CPQ.id()), noSave);
+				if(set.size() >= 3 && usage.spend()){
+					batch.add(CPQ.intersect(new ArrayList<CPQ>(set)));
+					if(batch.size() == CANON_BATCH_SIZE){
+						computeIntersectionCores(batch, found);
 					}
 				}
 			}else{
 				//don't pick the element
-				computeIntersectionCores(items, offset + 1, restricted, max, set, selected, conflicts, noSave, id);
+				computeIntersectionCores(items, offset + 1, restricted, max, set, selected, conflicts, batch, found);
 				
 				//pick the element
 				if(conflicts[offset].intersects(selected)){
@@ -1225,19 +3548,117 @@ public class Index{
 				selected.set(offset);
 				CPQ q = items.get(offset);
 				set.add(q);
-				computeIntersectionCores(items, offset < restricted ? restricted : (offset + 1), restricted, max, set, selected, conflicts, noSave, id);
+				computeIntersectionCores(items, offset < restricted ? restricted : (offset + 1), restricted, max, set, selected, conflicts, batch, found);
 				set.remove(set.size() - 1);
 				selected.clear(offset);
 			}
 		}
 		
+		/**
+		 * Fork join task that enumerates a subtree of the intersection subsets
+		 * explored by {@link Block#computeIntersectionCores(List, int, int, int, List, BitSet, BitSet[], List, Map)}.
+		 * Near the root of the subset tree the branches that skip and pick an element
+		 * are explored by separate tasks, deeper subtrees are enumerated sequentially.
+		 * The cores found by both branches are merged in the order the sequential
+		 * enumeration would find them, so the resulting cores do not depend on scheduling.
+		 * @author Roan
+		 */
+		private final class IntersectionTask extends RecursiveTask<Map<CoreHash, CoreCandidate>>{
+			/**
+			 * Serial ID.
+			 */
+			private static final long serialVersionUID = 5342004227355305404L;
+			/**
+			 * The current CPQ in the list of cores to pick or skip.
+			 */
+			private final int offset;
+			/**
+			 * End of the restricted range of CPQs, at most one CPQ from this range can be picked.
+			 */
+			private final int restricted;
+			/**
+			 * The maximum index in the list of cores to pick.
+			 */
+			private final int max;
+			/**
+			 * The CPQs picked for the current subset.
+			 */
+			private final List<CPQ> set;
+			/**
+			 * Bit set indicating by index which CPQs are picked for the current subset.
+			 */
+			private final BitSet selected;
+			/**
+			 * Bit set array indicating which CPQs would never be a core if intersected.
+			 */
+			private final BitSet[] conflicts;
+			/**
+			 * The depth of this task in the subset tree.
+			 */
+			private final int depth;
+			
+			/**
+			 * Constructs a new intersection task.
+			 * @param offset The current CPQ in the list of cores to pick or skip.
+			 * @param restricted End of the restricted range of CPQs.
+			 * @param max The maximum index in the list of cores to pick.
+			 * @param set The CPQs picked for the current subset.
+			 * @param selected Bit set indicating by index which CPQs are picked.
+			 * @param conflicts Bit set array indicating which CPQs would never be a core if intersected.
+			 * @param depth The depth of this task in the subset tree.
+			 */
+			private IntersectionTask(int offset, int restricted, int max, List<CPQ> set, BitSet selected, BitSet[] conflicts, int depth){
+				this.offset = offset;
+				this.restricted = restricted;
+				this.max = max;
+				this.set = set;
+				this.selected = selected;
+				this.conflicts = conflicts;
+				this.depth = depth;
+			}
+			
+			@Override
+			protected Map<CoreHash, CoreCandidate> compute(){
+				if(depth >= INTERSECTION_SPLIT_DEPTH || max - offset < INTERSECTION_SPLIT_ITEMS || set.size() == maxIntersections){
+					Map<CoreHash, CoreCandidate> found = new LinkedHashMap<CoreHash, CoreCandidate>();
+					List<CPQ> batch = new ArrayList<CPQ>(CANON_BATCH_SIZE);
+					computeIntersectionCores(cores, offset, restricted, max, set, selected, conflicts, batch, found);
+					computeIntersectionCores(batch, found);
+					return found;
+				}
+				
+				if(usage.isExhausted()){
+					return new LinkedHashMap<CoreHash, CoreCandidate>();
+				}
+				
+				//don't pick the element
+				IntersectionTask skip = new IntersectionTask(offset + 1, restricted, max, set, selected, conflicts, depth + 1);
+				if(conflicts[offset].intersects(selected)){
+					//can't pick a conflicting item
+					return skip.compute();
+				}
+				
+				//pick the element
+				List<CPQ> picked = new ArrayList<CPQ>(set);
+				picked.add(cores.get(offset));
+				BitSet pickedSelected = (BitSet)selected.clone();
+				pickedSelected.set(offset);
+				IntersectionTask pick = new IntersectionTask(offset < restricted ? restricted : (offset + 1), restricted, max, picked, pickedSelected, conflicts, depth + 1);
+				pick.fork();
+				
+				Map<CoreHash, CoreCandidate> found = skip.compute();
+				pick.join().forEach(found::putIfAbsent);
+				return found;
+			}
+		}
+		
 		@Override
 		public String toString(){
 			StringBuilder builder = new StringBuilder();
 			builder.append("Block[id=");
 			builder.append(id);
 			builder.append(",paths=");
-			builder.append(paths);
+			builder.append(getPaths());
 			builder.append(",labels={");
 			if(labels != null){
 				for(LabelSequence seq : labels){
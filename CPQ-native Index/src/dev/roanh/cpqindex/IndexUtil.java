@@ -19,6 +19,7 @@
 package dev.roanh.cpqindex;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -27,6 +28,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
@@ -101,7 +104,53 @@ public class IndexUtil{
 	}
 	
 	/**
-	 * Loads the compiled JNI libraries required for nauty.
+	 * Writes the given non-negative integer using 7 bits per byte, the highest
+	 * bit of every byte is set when more bytes follow. Small integers thus take
+	 * up less space than with a fixed width encoding.
+	 * @param out The stream to write to.
+	 * @param value The integer to write.
+	 * @throws IOException When an IOException occurs.
+	 * @see #readVarInt(DataInput)
+	 */
+	public static void writeVarInt(OutputStream out, int value) throws IOException{
+		while((value & ~0x7F) != 0){
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		
+		out.write(value);
+	}
+	
+	/**
+	 * Reads a non-negative integer written using 7 bits per byte.
+	 * @param in The stream to read from.
+	 * @return The read integer.
+	 * @throws IOException When an IOException occurs or the
+	 *         read integer does not fit in 31 bits.
+	 * @see #writeVarInt(OutputStream, int)
+	 */
+	public static int readVarInt(DataInput in) throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7){
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0){
+				if(value < 0){
+					break;
+				}
+				
+				return value;
+			}
+		}
+		
+		throw new IOException("Invalid variable length integer.");
+	}
+	
+	/**
+	 * Loads the compiled JNI libraries required for nauty. The bundled library
+	 * is extracted to the lib directory in the working directory, replacing any
+	 * existing copy that differs from it, such as a copy extracted by an older
+	 * version of the index. If no library is bundled the existing copy is used.
 	 * @throws IOException When an IOException occurs.
 	 * @throws UnsatisfiedLinkError When loading a native library fails.
 	 */
@@ -110,13 +159,22 @@ public class IndexUtil{
 		Path dir = Paths.get("lib");
 		Path lib = dir.resolve(libName);
 		
-		if(Files.notExists(lib)){
-			Files.createDirectories(dir);
-			try(InputStream in = ClassLoader.getSystemResourceAsStream(libName)){
-				try(OutputStream out = Files.newOutputStream(lib)){
-					in.transferTo(out);
-					out.flush();
+		try(InputStream in = ClassLoader.getSystemResourceAsStream(libName)){
+			if(in != null){
+				byte[] bundled = in.readAllBytes();
+				if(Files.notExists(lib) || !Arrays.equals(bundled, Files.readAllBytes(lib))){
+					//write to a temporary file first so other processes never see a partial library
+					Files.createDirectories(dir);
+					Path tmp = Files.createTempFile(dir, libName, ".tmp");
+					try{
+						Files.write(tmp, bundled);
+						Files.move(tmp, lib, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					}finally{
+						Files.deleteIfExists(tmp);
+					}
 				}
+			}else if(Files.notExists(lib)){
+				throw new UnsatisfiedLinkError("Native library " + libName + " is not bundled and was not found in the lib directory, it can be compiled with: gradlew compileNatives");
 			}
 		}
 
@@ -0,0 +1,361 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dev.roanh.cpqindex.Nauty.ColoredGraph;
+
+/**
+ * Pure Java canonical labelling of coloured graphs. This canonizer follows the same
+ * individualisation and refinement approach as nauty. The initial colouring is first
+ * refined to an equitable partition, after which the search tree of all ways to
+ * individualise vertices in the first non singleton cell is explored. Each leaf of the
+ * search tree is a discrete partition and thus a labelling of the graph, of these the
+ * labelling that results in the lexicographically smallest relabelled graph is the
+ * canonical labelling. Automorphisms found between leaves are used to prune branches
+ * that would result in the same labelling.
+ * <p>
+ * Note that while the produced labellings are canonical, they are in general different
+ * from the labellings that nauty would compute for the same graph.
+ * @author Roan
+ * @see Nauty
+ */
+final class JavaCanonizer{
+	/**
+	 * The number of vertices in the graph.
+	 */
+	private final int n;
+	/**
+	 * The out neighbours of each vertex.
+	 */
+	private final int[][] out;
+	/**
+	 * The in neighbours of each vertex.
+	 */
+	private final int[][] in;
+	/**
+	 * The initial colour of each vertex, this is the
+	 * start position of the colour in the labelling.
+	 */
+	private final int[] color;
+	/**
+	 * Automorphisms of the graph found so far.
+	 */
+	private final List<int[]> automorphisms = new ArrayList<int[]>();
+	/**
+	 * The best labelling found so far.
+	 */
+	private int[] best = null;
+	/**
+	 * The certificate of the best labelling found so far.
+	 * @see #certificate(int[])
+	 */
+	private int[] bestCert = null;
+	
+	/**
+	 * Constructs a new canonizer for the given graph.
+	 * @param graph The graph to canonize.
+	 */
+	private JavaCanonizer(ColoredGraph graph){
+		out = graph.getAdjacencyList();
+		n = out.length;
+		
+		int[] deg = new int[n];
+		for(int[] row : out){
+			for(int v : row){
+				deg[v]++;
+			}
+		}
+		
+		in = new int[n][];
+		for(int v = 0; v < n; v++){
+			in[v] = new int[deg[v]];
+		}
+		
+		for(int u = 0; u < n; u++){
+			for(int v : out[u]){
+				in[v][--deg[v]] = u;
+			}
+		}
+		
+		color = new int[n];
+		int pos = 0;
+		for(int[] group : graph.getColorLists()){
+			for(int v : group){
+				color[v] = pos;
+			}
+			pos += group.length;
+		}
+	}
+	
+	/**
+	 * Computes a canonical labelling of the given coloured graph.
+	 * @param graph The graph to compute a canonical labelling of.
+	 * @return The computed relabelling mapping, the format of this mapping is
+	 *         identical to {@link Nauty#computeCanonicalLabelling(ColoredGraph)}.
+	 */
+	static int[] computeCanonicalLabelling(ColoredGraph graph){
+		JavaCanonizer canon = new JavaCanonizer(graph);
+		canon.search(canon.refine(canon.color.clone()), new int[0]);
+		return canon.best;
+	}
+	
+	/**
+	 * Explores the search tree below the given equitable partition.
+	 * @param cell For each vertex the start position of its cell.
+	 * @param prefix The vertices individualised to reach this partition.
+	 */
+	private void search(int[] cell, int[] prefix){
+		int[] size = new int[n];
+		for(int v = 0; v < n; v++){
+			size[cell[v]]++;
+		}
+		
+		int target = 0;
+		while(target < n && size[target] <= 1){
+			target++;
+		}
+		
+		if(target == n){
+			leaf(cell);
+			return;
+		}
+		
+		int[] path = Arrays.copyOf(prefix, prefix.length + 1);
+		List<Integer> explored = new ArrayList<Integer>();
+		for(int v = 0; v < n; v++){
+			if(cell[v] != target || isEquivalent(v, explored, prefix)){
+				continue;
+			}
+			
+			explored.add(v);
+			int[] child = cell.clone();
+			for(int u = 0; u < n; u++){
+				if(u != v && cell[u] == target){
+					child[u] = target + 1;
+				}
+			}
+			
+			path[prefix.length] = v;
+			search(refine(child), path);
+		}
+	}
+	
+	/**
+	 * Processes a leaf of the search tree.
+	 * @param cell A discrete partition, for each vertex its position.
+	 */
+	private void leaf(int[] cell){
+		int[] lab = new int[n];
+		for(int v = 0; v < n; v++){
+			lab[cell[v]] = v;
+		}
+		
+		int[] cert = certificate(lab, cell);
+		int cmp = bestCert == null ? -1 : Arrays.compare(cert, bestCert);
+		if(cmp < 0){
+			best = lab;
+			bestCert = cert;
+		}else if(cmp == 0){
+			//both labellings give the same graph so they differ by an automorphism
+			int[] gamma = new int[n];
+			for(int i = 0; i < n; i++){
+				gamma[lab[i]] = best[i];
+			}
+			
+			automorphisms.add(gamma);
+		}
+	}
+	
+	/**
+	 * Computes the certificate for the given labelling, this is an encoding of
+	 * the relabelled graph that is identical for labellings that result in the
+	 * same relabelled graph.
+	 * @param lab For each position the vertex at that position.
+	 * @param pos For each vertex its position in the labelling.
+	 * @return The certificate of the labelling.
+	 */
+	private int[] certificate(int[] lab, int[] pos){
+		int size = 2 * n;
+		for(int[] row : out){
+			size += row.length;
+		}
+		
+		int[] cert = new int[size];
+		for(int v = 0; v < n; v++){
+			cert[pos[v]] = color[v];
+		}
+		
+		int idx = n;
+		for(int i = 0; i < n; i++){
+			int[] row = out[lab[i]];
+			cert[idx++] = row.length;
+			int start = idx;
+			for(int v : row){
+				cert[idx++] = pos[v];
+			}
+			Arrays.sort(cert, start, idx);
+		}
+		
+		return cert;
+	}
+	
+	/**
+	 * Checks if the given vertex is in the same orbit as an already explored vertex under the
+	 * automorphisms found so far that fix all the vertices in the given prefix. Exploring such
+	 * a vertex would only result in labellings equivalent to ones already found.
+	 * @param v The vertex to check.
+	 * @param explored The vertices already explored.
+	 * @param prefix The vertices individualised so far.
+	 * @return True if the given vertex does not need to be explored.
+	 */
+	private boolean isEquivalent(int v, List<Integer> explored, int[] prefix){
+		if(explored.isEmpty() || automorphisms.isEmpty()){
+			return false;
+		}
+		
+		int[] orbit = new int[n];
+		for(int i = 0; i < n; i++){
+			orbit[i] = i;
+		}
+		
+		outer: for(int[] gamma : automorphisms){
+			for(int p : prefix){
+				if(gamma[p] != p){
+					continue outer;
+				}
+			}
+			
+			for(int u = 0; u < n; u++){
+				int a = find(orbit, u);
+				int b = find(orbit, gamma[u]);
+				if(a != b){
+					orbit[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
+		}
+		
+		int root = find(orbit, v);
+		for(int u : explored){
+			if(find(orbit, u) == root){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Finds the orbit representative of the given vertex.
+	 * @param orbit The union find orbit array.
+	 * @param v The vertex to find the representative of.
+	 * @return The orbit representative of the given vertex.
+	 */
+	private static int find(int[] orbit, int v){
+		while(orbit[v] != v){
+			orbit[v] = orbit[orbit[v]];
+			v = orbit[v];
+		}
+		
+		return v;
+	}
+	
+	/**
+	 * Refines the given partition to the coarsest equitable partition finer than it. Cells
+	 * are split based on the number of in and out neighbours vertices have in each cell.
+	 * The order of the new cells only depends on these counts, so refinement commutes
+	 * with isomorphisms.
+	 * @param cell For each vertex the start position of its cell.
+	 * @return The refined partition, for each vertex the start position of its cell.
+	 */
+	private int[] refine(int[] cell){
+		int cells = countCells(cell);
+		Integer[] order = new Integer[n];
+		int[][] sig = new int[n][];
+		while(true){
+			for(int v = 0; v < n; v++){
+				order[v] = v;
+				sig[v] = signature(v, cell);
+			}
+			
+			Arrays.sort(order, (a, b)->Arrays.compare(sig[a], sig[b]));
+			int[] next = new int[n];
+			for(int i = 1; i < n; i++){
+				int v = order[i];
+				next[v] = Arrays.equals(sig[v], sig[order[i - 1]]) ? next[order[i - 1]] : i;
+			}
+			
+			int count = countCells(next);
+			if(count == cells){
+				return next;
+			}
+			
+			cell = next;
+			cells = count;
+		}
+	}
+	
+	/**
+	 * Computes the refinement signature of the given vertex, this is its own
+	 * cell followed by the sorted cells of its out and in neighbours.
+	 * @param v The vertex to compute the signature of.
+	 * @param cell For each vertex the start position of its cell.
+	 * @return The signature of the vertex.
+	 */
+	private int[] signature(int v, int[] cell){
+		int[] sig = new int[2 + out[v].length + in[v].length];
+		sig[0] = cell[v];
+		sig[1] = out[v].length;
+		
+		int idx = 2;
+		for(int u : out[v]){
+			sig[idx++] = cell[u];
+		}
+		Arrays.sort(sig, 2, idx);
+		
+		int start = idx;
+		for(int u : in[v]){
+			sig[idx++] = cell[u];
+		}
+		Arrays.sort(sig, start, idx);
+		
+		return sig;
+	}
+	
+	/**
+	 * Counts the number of cells in the given partition.
+	 * @param cell For each vertex the start position of its cell.
+	 * @return The number of cells in the partition.
+	 */
+	private int countCells(int[] cell){
+		boolean[] start = new boolean[n];
+		int count = 0;
+		for(int v : cell){
+			if(!start[v]){
+				start[v] = true;
+				count++;
+			}
+		}
+		
+		return count;
+	}
+}
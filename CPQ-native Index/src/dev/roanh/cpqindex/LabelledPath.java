@@ -36,10 +36,11 @@ import dev.roanh.gmark.type.schema.Predicate;
  */
 public final class LabelledPath{
 	/**
-	 * The node pair for this labelled path. All stored label
+	 * The packed node pair for this labelled path. All stored label
 	 * sequences are between the vertices of this pair.
+	 * @see Pair#pack(int, int)
 	 */
-	private final Pair pair;
+	private final long pair;
 	/**
 	 * The label sequences that were found that exist between
 	 * the vertices of the node pair for this path.
@@ -75,6 +76,16 @@ public final class LabelledPath{
 	 * @param ancestor The segment in the previous index layer with the same path pair or null.
 	 */
 	public LabelledPath(Pair pair, LabelledPath ancestor){
+		this(pair.pack(), ancestor);
+	}
+	
+	/**
+	 * Constructs a new labelled path with the given packed pair and ancestor.
+	 * @param pair The packed path pair for this segment.
+	 * @param ancestor The segment in the previous index layer with the same path pair or null.
+	 * @see Pair#pack(int, int)
+	 */
+	public LabelledPath(long pair, LabelledPath ancestor){
 		this.pair = pair;
 		this.ancestor = ancestor;
 	}
@@ -100,7 +111,8 @@ public final class LabelledPath{
 	 * @see #pair
 	 */
 	public int comparePathTo(LabelledPath other){
-		return pair.compareTo(other.pair);
+		int cmp = Integer.compare(getSource(), other.getSource());
+		return cmp == 0 ? Integer.compare(getTarget(), other.getTarget()) : cmp;
 	}
 	
 	/**
@@ -116,6 +128,15 @@ public final class LabelledPath{
 	 * @return The path for this segment.
 	 */
 	public Pair getPair(){
+		return new Pair(pair);
+	}
+	
+	/**
+	 * Gets the packed pair of the path for this segment.
+	 * @return The packed path for this segment.
+	 * @see Pair#pack(int, int)
+	 */
+	public long getPackedPair(){
 		return pair;
 	}
 	
@@ -167,7 +188,7 @@ public final class LabelledPath{
 	 * @return The source vertex.
 	 */
 	public int getSource(){
-		return pair.getSource();
+		return Pair.unpackSource(pair);
 	}
 	
 	/**
@@ -175,7 +196,7 @@ public final class LabelledPath{
 	 * @return The target vertex.
 	 */
 	public int getTarget(){
-		return pair.getTarget();
+		return Pair.unpackTarget(pair);
 	}
 	
 	/**
@@ -307,7 +328,7 @@ public final class LabelledPath{
 	 * @see Pair#isLoop()
 	 */
 	public boolean isLoop(){
-		return pair.isLoop();
+		return getSource() == getTarget();
 	}
 	
 	@Override
@@ -316,7 +337,7 @@ public final class LabelledPath{
 		builder.append("LabelledPath[id=");
 		builder.append(segId);
 		builder.append(",path=");
-		builder.append(pair);
+		builder.append(getPair());
 		builder.append(",labels={");
 		for(LabelSequence seq : labels){
 			builder.append(seq.toString());
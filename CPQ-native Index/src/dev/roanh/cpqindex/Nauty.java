@@ -20,6 +20,7 @@ package dev.roanh.cpqindex;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -27,10 +28,82 @@ import dev.roanh.gmark.type.schema.Predicate;
 
 /**
  * This class provides and interface to the native binding for nauty.
+ * Alternatively canonical labellings can be computed in pure Java.
+ * @see Backend
  * @author Roan
  *
  */
 public class Nauty{
+	/**
+	 * System property that can be used to set the initial backend.
+	 * @see Backend
+	 */
+	public static final String BACKEND_PROPERTY = "dev.roanh.cpqindex.backend";
+	/**
+	 * The backend used to compute canonical labellings. Unless a backend is set using
+	 * the backend system property, the {@link Backend#FFM FFM} backend is used if the
+	 * native library supports it and the {@link Backend#JNI JNI} backend otherwise.
+	 */
+	private static volatile Backend backend = Backend.JNI;
+	/**
+	 * The error to report when a backend is used while the backend system
+	 * property has an invalid value, null if the property is valid or if
+	 * a backend was explicitly set since.
+	 * @see #setBackend(Backend)
+	 */
+	private static volatile IllegalStateException backendError = null;
+	/**
+	 * True if the native library was loaded successfully.
+	 */
+	private static volatile boolean nativesLoaded = false;
+	/**
+	 * The error that occurred while loading the native library, if any.
+	 */
+	private static LinkageError nativeError = null;
+	/**
+	 * False if the loaded native library does not provide the JNI batch
+	 * function, in which case graphs are labelled one at a time instead.
+	 */
+	private static volatile boolean nativeBatch = true;
+	
+	/**
+	 * Sets the backend used to compute canonical labellings. The {@link Backend#JNI JNI}
+	 * and {@link Backend#FFM FFM} backends produce identical canonical labellings, but
+	 * the labellings computed by the {@link Backend#JAVA JAVA} backend are different.
+	 * An index therefore has to be queried with the same backend it was constructed with.
+	 * @param backend The new backend to use.
+	 * @throws LinkageError When a native backend is selected and the native library
+	 *         could not be loaded or does not support the selected backend.
+	 * @see Backend
+	 */
+	public static void setBackend(Backend backend) throws LinkageError{
+		if(backend != Backend.JAVA){
+			loadNatives();
+		}
+		
+		if(backend == Backend.FFM){
+			ForeignNauty.load();
+		}
+		
+		Nauty.backend = backend;
+		backendError = null;
+	}
+	
+	/**
+	 * Gets the binding currently used to call nauty.
+	 * @return The binding used to call nauty.
+	 * @throws IllegalStateException When no backend was set and the
+	 *         backend system property does not name a valid backend.
+	 * @see Backend
+	 */
+	public static Backend getBackend() throws IllegalStateException{
+		IllegalStateException error = backendError;
+		if(error != null){
+			throw error;
+		}
+		
+		return backend;
+	}
 	
 	/**
 	 * Computes a canonical labelling of the given coloured graph. The labelling
@@ -39,12 +112,119 @@ public class Nauty{
 	 * previously had the ID of that index in the array.
 	 * @param graph The graph to compute a canonical labelling of.
 	 * @return The computed relabelling mapping.
+	 * @throws IllegalStateException When nauty failed to label the graph or
+	 *         when the backend system property does not name a valid backend.
 	 */
-	public static int[] computeCanonicalLabelling(ColoredGraph graph){
+	public static int[] computeCanonicalLabelling(ColoredGraph graph) throws IllegalStateException{
+		Backend current = getBackend();
+		if(current == Backend.JAVA){
+			return JavaCanonizer.computeCanonicalLabelling(graph);
+		}
+		
+		loadNatives();
+		if(current == Backend.FFM){
+			return ForeignNauty.computeCanonicalLabelling(graph);
+		}
+		
 		int[] colors = prepareColors(graph);
 		return computeCanonSparse(graph.getAdjacencyList(), colors);
 	}
 	
+	/**
+	 * Computes the canonical labellings of all the given coloured graphs. Unlike
+	 * {@link #computeCanonicalLabelling(ColoredGraph)} all graphs are passed to
+	 * nauty in a single native call for both the {@link Backend#JNI JNI} and the
+	 * {@link Backend#FFM FFM} backend, which avoids most of the native call overhead
+	 * when a large number of small graphs needs to be labelled.
+	 * @param graphs The graphs to compute canonical labellings of.
+	 * @return The computed relabelling mappings, in the same order as the input graphs.
+	 *         The format of each mapping is identical to that of
+	 *         {@link #computeCanonicalLabelling(ColoredGraph)}.
+	 * @throws IllegalStateException When nauty failed to label one of the graphs or
+	 *         when the backend system property does not name a valid backend.
+	 * @see #computeCanonSparseBatch(int[])
+	 */
+	public static List<int[]> computeCanonicalLabellings(List<ColoredGraph> graphs) throws IllegalStateException{
+		Backend current = getBackend();
+		if(graphs.isEmpty()){
+			return new ArrayList<int[]>(0);
+		}else if(current == Backend.JAVA){
+			List<int[]> labellings = new ArrayList<int[]>(graphs.size());
+			for(ColoredGraph graph : graphs){
+				labellings.add(JavaCanonizer.computeCanonicalLabelling(graph));
+			}
+			
+			return labellings;
+		}
+		
+		loadNatives();
+		if(current == Backend.JNI && !nativeBatch){
+			//native library predates batch labelling
+			List<int[]> labellings = new ArrayList<int[]>(graphs.size());
+			for(ColoredGraph graph : graphs){
+				labellings.add(computeCanonSparse(graph.getAdjacencyList(), prepareColors(graph)));
+			}
+			
+			return labellings;
+		}
+		
+		//pack all graphs into a single array
+		int size = 1;
+		int vertices = 0;
+		for(ColoredGraph graph : graphs){
+			size += 2 + 2 * graph.getNodeCount() + graph.getEdgeCount();
+			vertices += graph.getNodeCount();
+		}
+		
+		int[] data = new int[size];
+		data[0] = graphs.size();
+		int idx = 1;
+		for(ColoredGraph graph : graphs){
+			int n = graph.getNodeCount();
+			data[idx++] = n;
+			data[idx++] = graph.getEdgeCount();
+			
+			int[] colors = prepareColors(graph);
+			System.arraycopy(colors, 0, data, idx, n);
+			idx += n;
+			
+			for(int[] row : graph.getAdjacencyList()){
+				data[idx++] = row.length;
+			}
+			
+			for(int[] row : graph.getAdjacencyList()){
+				System.arraycopy(row, 0, data, idx, row.length);
+				idx += row.length;
+			}
+		}
+		
+		//compute the labellings and split the result
+		int[] result;
+		if(current == Backend.FFM){
+			result = ForeignNauty.computeCanonicalLabellings(data, vertices);
+		}else{
+			try{
+				result = computeCanonSparseBatch(data);
+			}catch(UnsatisfiedLinkError e){
+				nativeBatch = false;
+				return computeCanonicalLabellings(graphs);
+			}
+		}
+		
+		if(result == null){
+			throw new IllegalStateException("Nauty failed to compute a canonical labelling.");
+		}
+		
+		List<int[]> labellings = new ArrayList<int[]>(graphs.size());
+		int offset = 0;
+		for(ColoredGraph graph : graphs){
+			labellings.add(Arrays.copyOfRange(result, offset, offset + graph.getNodeCount()));
+			offset += graph.getNodeCount();
+		}
+		
+		return labellings;
+	}
+	
 	/**
 	 * Performs a canonical labelling of the given input graph.
 	 * @param adj The input graph in adjacency list format, <code>n</code>
@@ -60,6 +240,22 @@ public class Nauty{
 	 */
 	protected static native int[] computeCanonSparse(int[][] adj, int[] colors);
 	
+	/**
+	 * Performs a canonical labelling of all the given packed input graphs.
+	 * @param graphs The input graphs packed into a single array. The first element
+	 *        of the array is the number of graphs, followed by the data for each graph.
+	 *        For each graph this is the number of vertices <code>n</code>, the total
+	 *        number of edges <code>m</code>, <code>n</code> elements of colour data
+	 *        as returned by {@link #prepareColors(ColoredGraph)}, the out degree of
+	 *        each of the <code>n</code> vertices and finally the <code>m</code> edge
+	 *        targets grouped by source vertex.
+	 * @return The canonical relabellings of all graphs concatenated in input order or
+	 *         null if nauty reported an error. Each relabelling has the same format as
+	 *         returned by {@link #computeCanonSparse(int[][], int[])}.
+	 * @see #computeCanonicalLabellings(List)
+	 */
+	protected static native int[] computeCanonSparseBatch(int[] graphs);
+	
 	/**
 	 * Computes a nauty and traces compatible array of color data. The
 	 * returned array will have consecutive sections of nodes with the
@@ -81,11 +277,114 @@ public class Nauty{
 		return colors;
 	}
 	
-	static{
+	/**
+	 * Loads the native nauty library if it was not loaded yet.
+	 * @throws LinkageError When the native library could not be loaded.
+	 */
+	static void loadNatives() throws LinkageError{
+		if(!nativesLoaded){
+			synchronized(Nauty.class){
+				if(nativeError == null && !nativesLoaded){
+					try{
+						IndexUtil.loadNatives();
+						nativesLoaded = true;
+					}catch(IOException | UnsatisfiedLinkError e){
+						nativeError = new LinkageError("Failed to load native library", e);
+					}
+				}
+				
+				if(nativeError != null){
+					throw nativeError;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks if the {@link Backend#FFM FFM} backend can be used. This requires the
+	 * native library to export the functions used by the foreign binding.
+	 * @return True if the foreign binding is available.
+	 */
+	private static boolean isForeignAvailable(){
 		try{
-			IndexUtil.loadNatives();
-		}catch(IOException e){
-			throw new LinkageError("Failed to extract native librray", e);
+			ForeignNauty.load();
+			return true;
+		}catch(LinkageError e){
+			return false;
+		}
+	}
+	
+	static{
+		String name = System.getProperty(BACKEND_PROPERTY);
+		if(name != null){
+			try{
+				backend = Backend.parse(name);
+			}catch(IllegalArgumentException e){
+				backendError = new IllegalStateException("Invalid value for the " + BACKEND_PROPERTY + " system property: " + e.getMessage(), e);
+			}
+		}
+		
+		if(backendError == null && backend != Backend.JAVA){
+			try{
+				loadNatives();
+				if(name == null && isForeignAvailable()){
+					backend = Backend.FFM;
+				}
+			}catch(LinkageError ignore){
+				//reported again when the native library is first used
+			}
+		}
+	}
+	
+	/**
+	 * The available backends to compute canonical labellings with.
+	 * @author Roan
+	 */
+	public static enum Backend{
+		/**
+		 * Calls nauty through the Java Native Interface. Graphs
+		 * are copied from Java arrays on the native side.
+		 */
+		JNI,
+		/**
+		 * Calls nauty through the foreign function and memory API. Graphs are
+		 * written directly to reused native memory and passed to nauty as is.
+		 * This requires native access to be enabled for this library.
+		 * @see ForeignNauty
+		 */
+		FFM,
+		/**
+		 * Computes canonical labellings in pure Java without nauty. This
+		 * backend does not require the native library, but the computed
+		 * labellings are different from those computed by nauty. This
+		 * backend is also slower than calling nauty, even for small graphs.
+		 * @see JavaCanonizer
+		 */
+		JAVA;
+		
+		/**
+		 * Checks if this backend computes canonical labellings with nauty. All
+		 * backends that use nauty compute identical canonical labellings.
+		 * @return True if this backend computes canonical labellings with nauty.
+		 */
+		public boolean usesNauty(){
+			return this != JAVA;
+		}
+		
+		/**
+		 * Parses the given backend name, ignoring case and surrounding whitespace.
+		 * @param name The name of the backend.
+		 * @return The backend with the given name.
+		 * @throws IllegalArgumentException When no backend with the given name exists.
+		 */
+		public static Backend parse(String name) throws IllegalArgumentException{
+			for(Backend backend : values()){
+				if(backend.name().equalsIgnoreCase(name.strip())){
+					return backend;
+				}
+			}
+			
+			throw new IllegalArgumentException("Unknown canonical labelling backend '" + name + "', expected one of " + Arrays.toString(values()) + ".");
 		}
 	}
 	
@@ -152,6 +451,19 @@ public class Nauty{
 			return graph.length;
 		}
 		
+		/**
+		 * Gets the total number of edges in this graph.
+		 * @return The total number of edges in this graph.
+		 */
+		public int getEdgeCount(){
+			int edges = 0;
+			for(int[] row : graph){
+				edges += row.length;
+			}
+			
+			return edges;
+		}
+		
 		/**
 		 * Gets the IDs of nodes without a label/colour.
 		 * @return The IDs of nodes without a label/colour.
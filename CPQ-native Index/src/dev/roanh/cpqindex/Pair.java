@@ -47,6 +47,15 @@ public final class Pair implements Comparable<Pair>{
 		this.trg = trg;
 	}
 	
+	/**
+	 * Constructs a new pair from the given packed pair.
+	 * @param packed The packed pair, as produced by {@link #pack(int, int)}.
+	 * @see #pack(int, int)
+	 */
+	public Pair(long packed){
+		this(unpackSource(packed), unpackTarget(packed));
+	}
+	
 	/**
 	 * Reads a pair from the given input stream.
 	 * @param in The stream to read from.
@@ -83,6 +92,15 @@ public final class Pair implements Comparable<Pair>{
 		return trg;
 	}
 	
+	/**
+	 * Packs this pair into a single long.
+	 * @return The packed form of this pair.
+	 * @see #pack(int, int)
+	 */
+	public long pack(){
+		return pack(src, trg);
+	}
+	
 	/**
 	 * Checks if this pair represents a loop, that is,
 	 * if the source and target vertex are equivalent.
@@ -92,6 +110,41 @@ public final class Pair implements Comparable<Pair>{
 		return src == trg;
 	}
 	
+	/**
+	 * Packs the given source and target vertex into a single long with the source
+	 * vertex in the upper 32 bits and the target vertex in the lower 32 bits. As
+	 * vertex IDs are never negative the natural ordering of packed pairs is the
+	 * same as the natural ordering of pairs.
+	 * @param src The source vertex.
+	 * @param trg The target vertex.
+	 * @return The packed pair.
+	 * @see #unpackSource(long)
+	 * @see #unpackTarget(long)
+	 */
+	public static long pack(int src, int trg){
+		return (((long)src) << 32) | (trg & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Gets the source vertex of the given packed pair.
+	 * @param packed The packed pair.
+	 * @return The source vertex of the pair.
+	 * @see #pack(int, int)
+	 */
+	public static int unpackSource(long packed){
+		return (int)(packed >>> 32);
+	}
+	
+	/**
+	 * Gets the target vertex of the given packed pair.
+	 * @param packed The packed pair.
+	 * @return The target vertex of the pair.
+	 * @see #pack(int, int)
+	 */
+	public static int unpackTarget(long packed){
+		return (int)packed;
+	}
+	
 	@Override
 	public boolean equals(Object obj){
 		Pair other = (Pair)obj;
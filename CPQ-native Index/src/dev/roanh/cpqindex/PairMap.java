@@ -0,0 +1,428 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Hash map from packed source target pairs to values. This map uses open
+ * addressing with linear probing on primitive key and value arrays, so no
+ * objects are allocated per entry. Since a single Java array cannot grow
+ * beyond 2<sup>30</sup> slots, the entries are spread over a number of
+ * shards selected by the high bits of the key hash. The number of shards
+ * is doubled whenever a shard at the maximum capacity has to grow. Null
+ * values are not supported and this map is not thread safe.
+ * @author Roan
+ * @param <V> The value data type.
+ * @see Pair#pack(int, int)
+ */
+public final class PairMap<V>{
+	/**
+	 * The minimum capacity of a shard.
+	 */
+	private static final int MIN_CAPACITY = 16;
+	/**
+	 * The maximum capacity of a shard.
+	 */
+	static final int MAX_CAPACITY = 1 << 30;
+	/**
+	 * The maximum number of bits used to select a shard.
+	 */
+	private static final int MAX_SHARD_BITS = 30;
+	/**
+	 * The maximum capacity of a single shard in this map.
+	 */
+	private final int maxCapacity;
+	/**
+	 * The number of high hash bits used to select a shard.
+	 */
+	private int shardBits = 0;
+	/**
+	 * The keys of the entries in each shard, only valid for slots with a value.
+	 */
+	private long[][] keys;
+	/**
+	 * The values of the entries in each shard, empty slots have a null value.
+	 */
+	private V[][] values;
+	/**
+	 * The number of entries in each shard.
+	 */
+	private int[] sizes;
+	/**
+	 * The total number of entries in this map.
+	 */
+	private long size = 0;
+	
+	/**
+	 * Constructs a new empty pair map.
+	 */
+	public PairMap(){
+		this(MIN_CAPACITY);
+	}
+	
+	/**
+	 * Constructs a new empty pair map with room for
+	 * at least the given number of entries.
+	 * @param expected The expected number of entries.
+	 */
+	public PairMap(int expected){
+		this(expected, MAX_CAPACITY);
+	}
+	
+	/**
+	 * Constructs a new empty pair map with room for at least
+	 * the given number of entries and the given maximum shard capacity.
+	 * @param expected The expected number of entries.
+	 * @param maxCapacity The maximum capacity of a single shard, a power of 2
+	 *        that is at least {@value #MIN_CAPACITY} and at most {@link #MAX_CAPACITY}.
+	 */
+	PairMap(int expected, int maxCapacity){
+		if(maxCapacity < MIN_CAPACITY || maxCapacity > MAX_CAPACITY || Integer.bitCount(maxCapacity) != 1){
+			throw new IllegalArgumentException("Invalid maximum shard capacity: " + maxCapacity);
+		}
+		
+		this.maxCapacity = maxCapacity;
+		long capacity = capacityFor(expected);
+		while(capacity > maxCapacity){
+			capacity >>>= 1;
+			shardBits++;
+		}
+		
+		allocate(1 << shardBits, (int)capacity);
+	}
+	
+	/**
+	 * Gets the value associated with the given pair.
+	 * @param src The source vertex of the pair.
+	 * @param trg The target vertex of the pair.
+	 * @return The value for the pair or null if there is no value.
+	 */
+	public V get(int src, int trg){
+		return get(Pair.pack(src, trg));
+	}
+	
+	/**
+	 * Gets the value associated with the given packed pair.
+	 * @param key The packed pair.
+	 * @return The value for the pair or null if there is no value.
+	 */
+	public V get(long key){
+		long hash = hash(key);
+		int shard = shard(hash);
+		long[] keys = this.keys[shard];
+		V[] values = this.values[shard];
+		int mask = values.length - 1;
+		for(int i = slot(hash, mask); values[i] != null; i = (i + 1) & mask){
+			if(keys[i] == key){
+				return values[i];
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Associates the given value with the given packed pair.
+	 * @param key The packed pair.
+	 * @param value The value to associate with the pair, not null.
+	 * @return The value previously associated with the pair or null.
+	 */
+	public V put(long key, V value){
+		Objects.requireNonNull(value);
+		long hash = hash(key);
+		int shard = shard(hash);
+		long[] keys = this.keys[shard];
+		V[] values = this.values[shard];
+		int mask = values.length - 1;
+		int i = slot(hash, mask);
+		while(values[i] != null){
+			if(keys[i] == key){
+				V old = values[i];
+				values[i] = value;
+				return old;
+			}
+			
+			i = (i + 1) & mask;
+		}
+		
+		keys[i] = key;
+		values[i] = value;
+		grow(shard);
+		return null;
+	}
+	
+	/**
+	 * Gets the value associated with the given packed pair or computes
+	 * and associates a new value with the pair if there is no value.
+	 * @param key The packed pair.
+	 * @param fun The function to compute a new value with, not allowed to return null.
+	 * @return The existing or newly computed value for the pair.
+	 */
+	public V computeIfAbsent(long key, LongFunction<V> fun){
+		long hash = hash(key);
+		int shard = shard(hash);
+		long[] keys = this.keys[shard];
+		V[] values = this.values[shard];
+		int mask = values.length - 1;
+		int i = slot(hash, mask);
+		while(values[i] != null){
+			if(keys[i] == key){
+				return values[i];
+			}
+			
+			i = (i + 1) & mask;
+		}
+		
+		V value = Objects.requireNonNull(fun.apply(key));
+		keys[i] = key;
+		values[i] = value;
+		grow(shard);
+		return value;
+	}
+	
+	/**
+	 * Removes the value associated with the given packed pair.
+	 * @param key The packed pair.
+	 * @return The removed value or null if there was no value.
+	 */
+	public V remove(long key){
+		long hash = hash(key);
+		int shard = shard(hash);
+		long[] keys = this.keys[shard];
+		V[] values = this.values[shard];
+		int mask = values.length - 1;
+		int gap = slot(hash, mask);
+		while(values[gap] != null && keys[gap] != key){
+			gap = (gap + 1) & mask;
+		}
+		
+		V old = values[gap];
+		if(old == null){
+			return null;
+		}
+		
+		//shift back later entries in the cluster that would otherwise become unreachable
+		for(int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask){
+			if(((i - slot(hash(keys[i]), mask)) & mask) >= ((i - gap) & mask)){
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		
+		values[gap] = null;
+		sizes[shard]--;
+		size--;
+		return old;
+	}
+	
+	/**
+	 * Gets the number of entries in this map.
+	 * @return The number of entries in this map.
+	 */
+	public long size(){
+		return size;
+	}
+	
+	/**
+	 * Checks if this map is empty.
+	 * @return True if this map is empty.
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	/**
+	 * Removes all entries from this map. Note
+	 * that this does not shrink the map.
+	 */
+	public void clear(){
+		for(V[] shard : values){
+			Arrays.fill(shard, null);
+		}
+		
+		Arrays.fill(sizes, 0);
+		size = 0;
+	}
+	
+	/**
+	 * Returns a stream over all the values in this map.
+	 * @return A stream over all the values in this map.
+	 */
+	public Stream<V> values(){
+		return Arrays.stream(values).flatMap(Arrays::stream).filter(Objects::nonNull);
+	}
+	
+	/**
+	 * Gets the number of shards the entries of this map are spread over.
+	 * @return The number of shards in this map.
+	 */
+	int getShardCount(){
+		return values.length;
+	}
+	
+	/**
+	 * Increments the size of the given shard and resizes the shard
+	 * if the load factor is exceeded. If the shard is already at the
+	 * maximum capacity the number of shards is doubled instead.
+	 * @param shard The shard an entry was added to.
+	 * @throws IllegalStateException When the map cannot grow any further.
+	 */
+	private void grow(int shard){
+		size++;
+		int capacity = values[shard].length;
+		if(++sizes[shard] > capacity - (capacity >>> 2)){
+			if(capacity < maxCapacity){
+				long[] oldKeys = keys[shard];
+				V[] oldValues = values[shard];
+				keys[shard] = new long[capacity << 1];
+				values[shard] = newValues(capacity << 1);
+				sizes[shard] = 0;
+				rehash(oldKeys, oldValues);
+			}else{
+				split();
+			}
+		}
+	}
+	
+	/**
+	 * Doubles the number of shards in this map by splitting every
+	 * shard in two using the next high bit of the key hash. The new
+	 * shards have the same capacity as the shard they were split from.
+	 * @throws IllegalStateException When the maximum number of shards is reached.
+	 */
+	private void split(){
+		if(shardBits == MAX_SHARD_BITS){
+			throw new IllegalStateException("PairMap cannot hold more than " + size + " entries.");
+		}
+		
+		long[][] oldKeys = keys;
+		V[][] oldValues = values;
+		int capacity = oldValues[0].length;
+		shardBits++;
+		allocate(oldValues.length << 1, 0);
+		for(int i = 0; i < oldValues.length; i++){
+			for(int j = 2 * i; j <= 2 * i + 1; j++){
+				keys[j] = new long[capacity];
+				values[j] = newValues(capacity);
+			}
+			
+			rehash(oldKeys[i], oldValues[i]);
+			oldKeys[i] = null;
+			oldValues[i] = null;
+		}
+	}
+	
+	/**
+	 * Inserts the given entries into their current shards and updates
+	 * the shard sizes without checking for duplicates or resizing.
+	 * @param oldKeys The keys of the entries to insert.
+	 * @param oldValues The values of the entries to insert, empty slots are null.
+	 */
+	private void rehash(long[] oldKeys, V[] oldValues){
+		for(int i = 0; i < oldValues.length; i++){
+			if(oldValues[i] != null){
+				long hash = hash(oldKeys[i]);
+				int shard = shard(hash);
+				long[] keys = this.keys[shard];
+				V[] values = this.values[shard];
+				int mask = values.length - 1;
+				int slot = slot(hash, mask);
+				while(values[slot] != null){
+					slot = (slot + 1) & mask;
+				}
+				
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				sizes[shard]++;
+			}
+		}
+	}
+	
+	/**
+	 * Allocates new backing arrays for the given number of shards.
+	 * @param shards The number of shards.
+	 * @param capacity The capacity of each shard, must be a power of 2
+	 *        or 0 to leave the shards unallocated.
+	 */
+	@SuppressWarnings("unchecked")
+	private void allocate(int shards, int capacity){
+		keys = new long[shards][];
+		values = (V[][])new Object[shards][];
+		sizes = new int[shards];
+		if(capacity != 0){
+			for(int i = 0; i < shards; i++){
+				keys[i] = new long[capacity];
+				values[i] = newValues(capacity);
+			}
+		}
+	}
+	
+	/**
+	 * Allocates a new empty value array.
+	 * @param capacity The capacity of the array.
+	 * @return The new value array.
+	 */
+	@SuppressWarnings("unchecked")
+	private V[] newValues(int capacity){
+		return (V[])new Object[capacity];
+	}
+	
+	/**
+	 * Computes the total capacity required to store the given
+	 * number of entries without exceeding the load factor.
+	 * @param expected The expected number of entries.
+	 * @return The required capacity, a power of 2.
+	 */
+	static long capacityFor(int expected){
+		return Math.max(MIN_CAPACITY, Long.highestOneBit(Math.max(1L, expected + expected / 3L)) << 1);
+	}
+	
+	/**
+	 * Computes the hash of the given key.
+	 * @param key The packed pair.
+	 * @return The hash of the given key.
+	 */
+	private static long hash(long key){
+		return key * 0x9E3779B97F4A7C15L;
+	}
+	
+	/**
+	 * Computes the shard of the given key hash from its high bits.
+	 * @param hash The key hash.
+	 * @return The shard of the given key hash.
+	 */
+	private int shard(long hash){
+		return (int)((hash >>> 32) >>> (32 - shardBits));
+	}
+	
+	/**
+	 * Computes the home slot of the given key hash.
+	 * @param hash The key hash.
+	 * @param mask The mask for the capacity of the shard.
+	 * @return The home slot of the given key hash.
+	 */
+	private static int slot(long hash, int mask){
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+}
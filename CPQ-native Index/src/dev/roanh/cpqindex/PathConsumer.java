@@ -0,0 +1,35 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+/**
+ * Interface for callbacks that receive the paths matched by a query
+ * one by one, without any objects being created for the paths.
+ * @author Roan
+ * @see Index#query(dev.roanh.gmark.lang.cpq.CPQ, PathConsumer)
+ */
+public abstract interface PathConsumer{
+	
+	/**
+	 * Called for every path matched by a query.
+	 * @param source The source vertex of the path.
+	 * @param target The target vertex of the path.
+	 */
+	public abstract void accept(int source, int target);
+}
@@ -0,0 +1,567 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.Arrays;
+import java.util.List;
+
+import dev.roanh.gmark.lang.cpq.CPQ;
+
+/**
+ * Immutable compressed set of paths in the style of a roaring bitmap. Paths are
+ * grouped on their source vertex and the upper 16 bits of their target vertex,
+ * each group stores the lower 16 bits of the targets in its container. Sparse
+ * containers are stored as sorted arrays and dense containers as bitmaps, this
+ * keeps dense result sets with many targets per source small and makes it possible
+ * to intersect, union and count sets a container or even a word at a time.
+ * @author Roan
+ * @see Index#queryPathSet(CPQ)
+ * @see PathSets
+ * @see QueryEvaluator
+ */
+public final class PathSet{
+	/**
+	 * The maximum number of values in an array container, larger
+	 * containers are stored as bitmaps which take up the same space.
+	 */
+	private static final int ARRAY_MAX = 4096;
+	/**
+	 * The number of words in a bitmap container.
+	 */
+	private static final int BITMAP_WORDS = 1024;
+	/**
+	 * The empty path set.
+	 */
+	private static final PathSet EMPTY = new PathSet(new long[0], new Container[0], 0);
+	/**
+	 * The sorted keys of all containers in this set, the key of a path is
+	 * its packed form without the lower 16 bits of its target vertex.
+	 * @see Pair#pack(int, int)
+	 */
+	private final long[] keys;
+	/**
+	 * The containers for each of the keys, never empty.
+	 */
+	private final Container[] containers;
+	/**
+	 * The number of paths in this set.
+	 */
+	private final long size;
+	
+	/**
+	 * Constructs a new path set with the given containers.
+	 * @param keys The sorted container keys.
+	 * @param containers The non empty containers for each key.
+	 * @param size The total number of paths in the containers.
+	 */
+	private PathSet(long[] keys, Container[] containers, long size){
+		this.keys = keys;
+		this.containers = containers;
+		this.size = size;
+	}
+	
+	/**
+	 * Constructs a new path set from the given sorted paths, for example
+	 * the paths stored at an index block or a sorted query result.
+	 * @param paths The sorted and distinct paths packed as longs.
+	 * @return The path set containing the given paths.
+	 * @throws IllegalArgumentException When the given paths are not
+	 *         sorted and distinct or contain a negative source vertex.
+	 * @see Pair#pack(int, int)
+	 * @see Index#queryPackedSorted(CPQ)
+	 */
+	public static PathSet of(long[] paths) throws IllegalArgumentException{
+		if(paths.length == 0){
+			return EMPTY;
+		}else if(paths[0] < 0){
+			throw new IllegalArgumentException("Paths cannot contain negative source vertices.");
+		}
+		
+		long[] keys = new long[16];
+		Container[] containers = new Container[16];
+		int count = 0;
+		char[] buffer = new char[ARRAY_MAX];
+		for(int start = 0; start < paths.length;){
+			long key = paths[start] >>> 16;
+			int end = start + 1;
+			while(end < paths.length && (paths[end] >>> 16) == key){
+				end++;
+			}
+			
+			for(int i = start + 1; i < Math.min(end + 1, paths.length); i++){
+				if(paths[i] <= paths[i - 1]){
+					throw new IllegalArgumentException("Paths are not sorted and distinct.");
+				}
+			}
+			
+			Container container;
+			if(end - start <= ARRAY_MAX){
+				for(int i = start; i < end; i++){
+					buffer[i - start] = (char)paths[i];
+				}
+				
+				container = new ArrayContainer(Arrays.copyOf(buffer, end - start));
+			}else{
+				long[] words = new long[BITMAP_WORDS];
+				for(int i = start; i < end; i++){
+					char low = (char)paths[i];
+					words[low >>> 6] |= 1L << low;
+				}
+				
+				container = new BitmapContainer(words, end - start);
+			}
+			
+			if(count == keys.length){
+				keys = Arrays.copyOf(keys, count * 2);
+				containers = Arrays.copyOf(containers, count * 2);
+			}
+			
+			keys[count] = key;
+			containers[count++] = container;
+			start = end;
+		}
+		
+		return new PathSet(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count), paths.length);
+	}
+	
+	/**
+	 * Checks if the given sorted paths are dense, that is, if on average at least
+	 * {@value #ARRAY_MAX} paths share a container. The containers of such sets are
+	 * bitmaps, which makes intersecting them as path sets faster than intersecting
+	 * the packed paths directly, even when the conversion is taken into account.
+	 * @param paths The sorted and distinct paths packed as longs.
+	 * @return True if the given paths are dense.
+	 * @see #of(long[])
+	 */
+	static boolean isDense(long[] paths){
+		int max = paths.length / ARRAY_MAX;
+		int count = 0;
+		for(int i = 0; i < paths.length; i++){
+			if((i == 0 || (paths[i] >>> 16) != (paths[i - 1] >>> 16)) && ++count > max){
+				return false;
+			}
+		}
+		
+		return count > 0;
+	}
+	
+	/**
+	 * Computes the intersection of the given sets of paths. When all sets are dense
+	 * they are converted to path sets and intersected a bitmap word at a time,
+	 * otherwise the sets are intersected directly using galloping search.
+	 * @param sets The sorted and distinct sets of paths packed as longs.
+	 * @return The sorted paths in all of the given sets packed as longs.
+	 * @see #isDense(long[])
+	 * @see PathSets#intersect(List)
+	 */
+	static long[] intersect(List<long[]> sets){
+		if(sets.isEmpty() || !sets.stream().allMatch(PathSet::isDense)){
+			return PathSets.intersect(sets);
+		}
+		
+		PathSet result = PathSet.of(sets.get(0));
+		for(int i = 1; i < sets.size() && !result.isEmpty(); i++){
+			result = result.intersect(PathSet.of(sets.get(i)));
+		}
+		
+		return result.toPacked();
+	}
+	
+	/**
+	 * Gets the number of paths in this set.
+	 * @return The number of paths in this set.
+	 */
+	public long size(){
+		return size;
+	}
+	
+	/**
+	 * Checks if this set is empty.
+	 * @return True if this set contains no paths.
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	/**
+	 * Checks if this set contains the path from the given source to the given target.
+	 * @param src The source vertex of the path.
+	 * @param trg The target vertex of the path.
+	 * @return True if the path is in this set.
+	 */
+	public boolean contains(int src, int trg){
+		long path = Pair.pack(src, trg);
+		int idx = Arrays.binarySearch(keys, path >>> 16);
+		return idx >= 0 && containers[idx].contains((char)path);
+	}
+	
+	/**
+	 * Computes the intersection of this set with the given set.
+	 * @param other The set to intersect with.
+	 * @return The set of paths in both this set and the given set.
+	 */
+	public PathSet intersect(PathSet other){
+		int max = Math.min(keys.length, other.keys.length);
+		long[] resultKeys = new long[max];
+		Container[] result = new Container[max];
+		long total = 0;
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while(i < keys.length && j < other.keys.length){
+			if(keys[i] < other.keys[j]){
+				i = PathSets.gallop(keys, i, other.keys[j]);
+			}else if(keys[i] > other.keys[j]){
+				j = PathSets.gallop(other.keys, j, keys[i]);
+			}else{
+				Container container = containers[i].and(other.containers[j]);
+				if(container != null){
+					resultKeys[count] = keys[i];
+					result[count++] = container;
+					total += container.cardinality();
+				}
+				
+				i++;
+				j++;
+			}
+		}
+		
+		return count == 0 ? EMPTY : new PathSet(Arrays.copyOf(resultKeys, count), Arrays.copyOf(result, count), total);
+	}
+	
+	/**
+	 * Computes the union of this set with the given set.
+	 * @param other The set to compute the union with.
+	 * @return The set of paths in either this set or the given set.
+	 */
+	public PathSet union(PathSet other){
+		long[] resultKeys = new long[keys.length + other.keys.length];
+		Container[] result = new Container[resultKeys.length];
+		long total = 0;
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while(i < keys.length || j < other.keys.length){
+			if(j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])){
+				resultKeys[count] = keys[i];
+				result[count] = containers[i++];
+			}else if(i == keys.length || keys[i] > other.keys[j]){
+				resultKeys[count] = other.keys[j];
+				result[count] = other.containers[j++];
+			}else{
+				resultKeys[count] = keys[i];
+				result[count] = containers[i++].or(other.containers[j++]);
+			}
+			
+			total += result[count++].cardinality();
+		}
+		
+		return new PathSet(Arrays.copyOf(resultKeys, count), Arrays.copyOf(result, count), total);
+	}
+	
+	/**
+	 * Gets all the paths in this set packed as longs.
+	 * @return The paths in this set, sorted on source and target.
+	 * @see Pair#pack(int, int)
+	 */
+	public long[] toPacked(){
+		long[] paths = new long[Math.toIntExact(size)];
+		int offset = 0;
+		for(int i = 0; i < keys.length; i++){
+			offset = containers[i].write(keys[i] << 16, paths, offset);
+		}
+		
+		return paths;
+	}
+	
+	@Override
+	public boolean equals(Object obj){
+		if(obj instanceof PathSet other && size == other.size && Arrays.equals(keys, other.keys)){
+			for(int i = 0; i < keys.length; i++){
+				if(!containers[i].equals(other.containers[i])){
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public int hashCode(){
+		return Arrays.hashCode(keys) ^ Long.hashCode(size);
+	}
+	
+	@Override
+	public String toString(){
+		return "PathSet[size=" + size + ",containers=" + keys.length + "]";
+	}
+	
+	/**
+	 * Container storing the lower 16 bits of the targets of the paths with the same key.
+	 * @author Roan
+	 */
+	private static abstract interface Container{
+		
+		/**
+		 * Gets the number of values in this container.
+		 * @return The number of values in this container.
+		 */
+		public abstract int cardinality();
+		
+		/**
+		 * Checks if this container contains the given value.
+		 * @param value The value to check for.
+		 * @return True if the value is in this container.
+		 */
+		public abstract boolean contains(char value);
+		
+		/**
+		 * Computes the intersection of this container with the given container.
+		 * @param other The container to intersect with.
+		 * @return The intersection of both containers or null if it is empty.
+		 */
+		public abstract Container and(Container other);
+		
+		/**
+		 * Computes the union of this container with the given container.
+		 * @param other The container to compute the union with.
+		 * @return The union of both containers.
+		 */
+		public abstract Container or(Container other);
+		
+		/**
+		 * Writes the paths in this container to the given array in sorted order.
+		 * @param key The key of this container shifted back in place.
+		 * @param paths The array to write the paths to.
+		 * @param offset The offset in the array to start writing at.
+		 * @return The offset after the last written path.
+		 */
+		public abstract int write(long key, long[] paths, int offset);
+	}
+	
+	/**
+	 * Container storing a small number of values as a sorted array.
+	 * @author Roan
+	 * @param values The sorted values in the container.
+	 */
+	private static final record ArrayContainer(char[] values) implements Container{
+		
+		@Override
+		public int cardinality(){
+			return values.length;
+		}
+		
+		@Override
+		public boolean contains(char value){
+			return Arrays.binarySearch(values, value) >= 0;
+		}
+		
+		@Override
+		public Container and(Container other){
+			if(other instanceof BitmapContainer bitmap){
+				return bitmap.and(this);
+			}
+			
+			char[] b = ((ArrayContainer)other).values;
+			char[] result = new char[Math.min(values.length, b.length)];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while(i < values.length && j < b.length){
+				if(values[i] < b[j]){
+					i++;
+				}else if(values[i] > b[j]){
+					j++;
+				}else{
+					result[size++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			
+			return size == 0 ? null : new ArrayContainer(Arrays.copyOf(result, size));
+		}
+		
+		@Override
+		public Container or(Container other){
+			if(other instanceof BitmapContainer bitmap){
+				return bitmap.or(this);
+			}
+			
+			char[] b = ((ArrayContainer)other).values;
+			char[] result = new char[values.length + b.length];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while(i < values.length || j < b.length){
+				if(j == b.length || (i < values.length && values[i] < b[j])){
+					result[size++] = values[i++];
+				}else if(i == values.length || values[i] > b[j]){
+					result[size++] = b[j++];
+				}else{
+					result[size++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			
+			if(size <= ARRAY_MAX){
+				return new ArrayContainer(Arrays.copyOf(result, size));
+			}
+			
+			long[] words = new long[BITMAP_WORDS];
+			for(int k = 0; k < size; k++){
+				words[result[k] >>> 6] |= 1L << result[k];
+			}
+			
+			return new BitmapContainer(words, size);
+		}
+		
+		@Override
+		public int write(long key, long[] paths, int offset){
+			for(char value : values){
+				paths[offset++] = key | value;
+			}
+			
+			return offset;
+		}
+		
+		@Override
+		public boolean equals(Object obj){
+			return obj instanceof ArrayContainer other && Arrays.equals(values, other.values);
+		}
+		
+		@Override
+		public int hashCode(){
+			return Arrays.hashCode(values);
+		}
+	}
+	
+	/**
+	 * Container storing a large number of values as a bitmap.
+	 * @author Roan
+	 * @param words The bitmap words, bit i is set if value i is in the container.
+	 * @param cardinality The number of set bits in the bitmap.
+	 */
+	private static final record BitmapContainer(long[] words, int cardinality) implements Container{
+		
+		@Override
+		public boolean contains(char value){
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+		
+		@Override
+		public Container and(Container other){
+			if(other instanceof ArrayContainer array){
+				char[] result = new char[array.values.length];
+				int size = 0;
+				for(char value : array.values){
+					if(contains(value)){
+						result[size++] = value;
+					}
+				}
+				
+				return size == 0 ? null : new ArrayContainer(Arrays.copyOf(result, size));
+			}
+			
+			long[] b = ((BitmapContainer)other).words;
+			long[] result = new long[BITMAP_WORDS];
+			int size = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++){
+				result[i] = words[i] & b[i];
+				size += Long.bitCount(result[i]);
+			}
+			
+			if(size == 0){
+				return null;
+			}else if(size > ARRAY_MAX){
+				return new BitmapContainer(result, size);
+			}
+			
+			return new ArrayContainer(new BitmapContainer(result, size).values());
+		}
+		
+		@Override
+		public Container or(Container other){
+			long[] result = words.clone();
+			int size = cardinality;
+			if(other instanceof ArrayContainer array){
+				for(char value : array.values){
+					if((result[value >>> 6] & (1L << value)) == 0){
+						result[value >>> 6] |= 1L << value;
+						size++;
+					}
+				}
+			}else{
+				long[] b = ((BitmapContainer)other).words;
+				size = 0;
+				for(int i = 0; i < BITMAP_WORDS; i++){
+					result[i] |= b[i];
+					size += Long.bitCount(result[i]);
+				}
+			}
+			
+			return new BitmapContainer(result, size);
+		}
+		
+		@Override
+		public int write(long key, long[] paths, int offset){
+			for(int i = 0; i < BITMAP_WORDS; i++){
+				long word = words[i];
+				while(word != 0){
+					paths[offset++] = key | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			
+			return offset;
+		}
+		
+		/**
+		 * Gets the values in this container as a sorted array.
+		 * @return The sorted values in this container.
+		 */
+		private char[] values(){
+			char[] values = new char[cardinality];
+			int offset = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++){
+				long word = words[i];
+				while(word != 0){
+					values[offset++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			
+			return values;
+		}
+		
+		@Override
+		public boolean equals(Object obj){
+			return obj instanceof BitmapContainer other && cardinality == other.cardinality && Arrays.equals(words, other.words);
+		}
+		
+		@Override
+		public int hashCode(){
+			return Arrays.hashCode(words);
+		}
+	}
+}
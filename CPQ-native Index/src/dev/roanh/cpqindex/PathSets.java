@@ -0,0 +1,203 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Utilities for sets of paths represented as sorted arrays of distinct packed
+ * paths. Since the paths stored at each index block are sorted, these sets can
+ * be combined by merging them in order without building any hash sets.
+ * @author Roan
+ * @see Pair#pack(int, int)
+ * @see Index#queryIntersection(List)
+ */
+public final class PathSets{
+	
+	/**
+	 * Prevent instantiation.
+	 */
+	private PathSets(){
+	}
+	
+	/**
+	 * Computes the union of the given sorted path sets with a k-way merge. The
+	 * sets are merged by repeatedly taking the smallest head of any set from a
+	 * binary heap, so the result is produced in order without a final sort.
+	 * @param sets The sorted path sets to merge, these arrays are not modified.
+	 * @return The sorted union of all the given sets.
+	 */
+	public static long[] merge(List<long[]> sets){
+		if(sets.isEmpty()){
+			return new long[0];
+		}else if(sets.size() == 1){
+			return sets.get(0).clone();
+		}
+		
+		long total = 0;
+		int[] heap = new int[sets.size()];
+		int[] cursor = new int[sets.size()];
+		int size = 0;
+		for(int i = 0; i < sets.size(); i++){
+			if(sets.get(i).length != 0){
+				total += sets.get(i).length;
+				heap[size++] = i;
+			}
+		}
+		
+		for(int i = size / 2 - 1; i >= 0; i--){
+			siftDown(heap, i, size, sets, cursor);
+		}
+		
+		long[] result = new long[Math.toIntExact(total)];
+		int len = 0;
+		while(size > 0){
+			int set = heap[0];
+			long path = sets.get(set)[cursor[set]++];
+			if(len == 0 || result[len - 1] != path){
+				result[len++] = path;
+			}
+			
+			if(cursor[set] == sets.get(set).length){
+				heap[0] = heap[--size];
+			}
+			
+			siftDown(heap, 0, size, sets, cursor);
+		}
+		
+		return len == result.length ? result : Arrays.copyOf(result, len);
+	}
+	
+	/**
+	 * Restores the heap property for the heap entry at the given position.
+	 * @param heap The heap of set indices, ordered on the current head of each set.
+	 * @param i The heap position to sift down.
+	 * @param size The number of entries in the heap.
+	 * @param sets The sets being merged.
+	 * @param cursor The current head position for each set.
+	 */
+	private static void siftDown(int[] heap, int i, int size, List<long[]> sets, int[] cursor){
+		while(true){
+			int min = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < size && head(heap[left], sets, cursor) < head(heap[min], sets, cursor)){
+				min = left;
+			}
+			
+			if(right < size && head(heap[right], sets, cursor) < head(heap[min], sets, cursor)){
+				min = right;
+			}
+			
+			if(min == i){
+				return;
+			}
+			
+			int tmp = heap[i];
+			heap[i] = heap[min];
+			heap[min] = tmp;
+			i = min;
+		}
+	}
+	
+	/**
+	 * Gets the current head of the given set.
+	 * @param set The index of the set.
+	 * @param sets The sets being merged.
+	 * @param cursor The current head position for each set.
+	 * @return The current head of the set.
+	 */
+	private static long head(int set, List<long[]> sets, int[] cursor){
+		return sets.get(set)[cursor[set]];
+	}
+	
+	/**
+	 * Computes the intersection of the given sorted path sets. The sets are intersected
+	 * from smallest to largest and every path in the intermediate result is located in
+	 * the next set using a galloping search. This takes time logarithmic in the size of
+	 * the larger set for each path in the smaller set, which is much faster than a linear
+	 * merge when the sizes of the sets are skewed.
+	 * @param sets The sorted path sets to intersect, these arrays are not modified.
+	 * @return The sorted intersection of all the given sets.
+	 */
+	public static long[] intersect(List<long[]> sets){
+		if(sets.isEmpty()){
+			return new long[0];
+		}
+		
+		long[][] sorted = sets.toArray(long[][]::new);
+		Arrays.sort(sorted, Comparator.comparingInt(set->set.length));
+		long[] result = sorted[0].clone();
+		int size = result.length;
+		for(int s = 1; s < sorted.length && size > 0; s++){
+			long[] set = sorted[s];
+			int len = 0;
+			int pos = 0;
+			for(int i = 0; i < size && pos < set.length; i++){
+				pos = gallop(set, pos, result[i]);
+				if(pos < set.length && set[pos] == result[i]){
+					result[len++] = result[i];
+					pos++;
+				}
+			}
+			
+			size = len;
+		}
+		
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+	
+	/**
+	 * Finds the first position in the given sorted array at or after the given start position
+	 * with a value that is at least the given key. The search first doubles its step size
+	 * until it passes the key and then performs a binary search in the last step.
+	 * @param data The sorted array to search.
+	 * @param from The position to start searching from.
+	 * @param key The key to search for.
+	 * @return The first position with a value at least the key, or the length
+	 *         of the array if all remaining values are smaller than the key.
+	 */
+	public static int gallop(long[] data, int from, long key){
+		if(from >= data.length || data[from] >= key){
+			return from;
+		}
+		
+		int low = from;
+		int step = 1;
+		while(low + step < data.length && data[low + step] < key){
+			low += step;
+			step <<= 1;
+		}
+		
+		int high = Math.min(data.length, low + step + 1);
+		low++;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(data[mid] < key){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+}
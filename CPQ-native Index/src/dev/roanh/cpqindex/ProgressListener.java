@@ -156,6 +156,17 @@ public abstract interface ProgressListener{
 	 */
 	public abstract void coresEnd(int k);
 	
+	/**
+	 * Called when core computation for a block is stopped early
+	 * because the block exceeded its core budget. By default
+	 * truncated blocks are not reported.
+	 * @param k The diameter for the layer the block is in.
+	 * @param block The ID of the truncated block.
+	 * @see Index#setCoreBudget(CoreBudget)
+	 */
+	public default void coresTruncated(int k, int block){
+	}
+	
 	/**
 	 * Called when mapping cores to blocks starts.
 	 */
@@ -317,6 +328,11 @@ public abstract interface ProgressListener{
 		public void coresEnd(int k){
 			write("Cores end k=" + k);
 		}
+		
+		@Override
+		public void coresTruncated(int k, int block){
+			write("Block truncated k=" + k + " id=" + block);
+		}
 
 		@Override
 		public void mapStart(){
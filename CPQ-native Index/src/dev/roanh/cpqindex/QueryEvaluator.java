@@ -0,0 +1,288 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import dev.roanh.gmark.lang.cpq.CPQ;
+import dev.roanh.gmark.lang.cpq.ConcatCPQ;
+import dev.roanh.gmark.lang.cpq.IntersectionCPQ;
+
+/**
+ * Evaluator for queries with a diameter larger than the diameter of the index they
+ * are evaluated on. Queries are decomposed along their concatenations and intersections
+ * into sub-queries with a diameter of at most k. Sub-queries are answered by the index
+ * directly and their results are combined using sort-merge joins for concatenations
+ * and galloping intersections for intersections. All intermediate results are kept as
+ * sorted arrays of distinct packed paths, except that dense results are intersected
+ * as compressed path sets.
+ * @author Roan
+ * @see Index#evaluate(CPQ)
+ * @see Pair#pack(int, int)
+ * @see PathSet
+ */
+public final class QueryEvaluator{
+	/**
+	 * The index to evaluate queries on.
+	 */
+	private final Index index;
+	/**
+	 * The diameter of the index.
+	 */
+	private final int k;
+	
+	/**
+	 * Constructs a new query evaluator for the given index.
+	 * @param index The index to evaluate queries on.
+	 */
+	public QueryEvaluator(Index index){
+		this.index = index;
+		k = index.getK();
+	}
+	
+	/**
+	 * Evaluates the given query. Queries with a diameter of at most k are answered
+	 * by the index directly, larger queries are decomposed into sub-queries. Note
+	 * that the intersection limit of the index has to be respected if a limit was set.
+	 * @param cpq The query to evaluate.
+	 * @return The sorted paths matched by the query packed as longs.
+	 * @throws IllegalArgumentException When the query has a diameter of 0
+	 *         or cannot be decomposed into sub-queries of at most diameter k.
+	 * @see Index#setIntersections(int)
+	 */
+	public long[] evaluate(CPQ cpq) throws IllegalArgumentException{
+		if(cpq.getDiameter() == 0){
+			throw new IllegalArgumentException("Query diameter equal to 0.");
+		}
+		
+		return evaluatePlan(cpq);
+	}
+	
+	/**
+	 * Evaluates the given query with a diameter larger than 0.
+	 * @param cpq The query to evaluate.
+	 * @return The sorted paths matched by the query packed as longs.
+	 * @throws IllegalArgumentException When the query cannot be
+	 *         decomposed into sub-queries of at most diameter k.
+	 */
+	private long[] evaluatePlan(CPQ cpq) throws IllegalArgumentException{
+		if(cpq.getDiameter() <= k){
+			return lookup(cpq);
+		}else if(cpq instanceof ConcatCPQ concat){
+			return evaluateConcatenation(concat.getItems());
+		}else if(cpq instanceof IntersectionCPQ intersection){
+			return evaluateIntersection(intersection.getItems());
+		}else{
+			throw new IllegalArgumentException("Cannot decompose query: " + cpq);
+		}
+	}
+	
+	/**
+	 * Evaluates the concatenation of the given queries. Consecutive queries are greedily
+	 * grouped into sub-queries with a diameter of at most k, these are looked up in the
+	 * index and then joined from left to right. Identity is ignored in concatenations.
+	 * @param items The queries in the concatenation.
+	 * @return The sorted paths matched by the concatenation packed as longs.
+	 * @throws IllegalArgumentException When one of the queries
+	 *         cannot be decomposed into sub-queries of at most diameter k.
+	 */
+	private long[] evaluateConcatenation(List<CPQ> items) throws IllegalArgumentException{
+		long[] result = null;
+		List<CPQ> group = new ArrayList<CPQ>();
+		int diameter = 0;
+		for(CPQ item : items){
+			int d = item.getDiameter();
+			if(d == 0){
+				continue;
+			}
+			
+			if(!group.isEmpty() && diameter + d > k){
+				result = joinGroup(result, group);
+				if(result.length == 0){
+					return result;
+				}
+				
+				group.clear();
+				diameter = 0;
+			}
+			
+			group.add(item);
+			diameter += d;
+		}
+		
+		return joinGroup(result, group);
+	}
+	
+	/**
+	 * Evaluates the given group of concatenated queries and joins it with the given result.
+	 * @param result The result so far or null if the group is the first group.
+	 * @param group The group of queries, either a single query or queries
+	 *        with a total diameter of at most k.
+	 * @return The joined result.
+	 * @throws IllegalArgumentException When the group cannot
+	 *         be decomposed into sub-queries of at most diameter k.
+	 */
+	private long[] joinGroup(long[] result, List<CPQ> group) throws IllegalArgumentException{
+		long[] paths = evaluatePlan(group.size() == 1 ? group.get(0) : CPQ.concat(List.copyOf(group)));
+		return result == null ? paths : join(result, paths);
+	}
+	
+	/**
+	 * Evaluates the intersection of the given queries. Queries with a diameter of at most
+	 * k are grouped into intersections that are looked up in the index directly, larger
+	 * queries are evaluated separately. Identity is handled by only retaining loops. The
+	 * results are intersected starting with the sub-queries that are cheapest to evaluate.
+	 * @param items The queries in the intersection.
+	 * @return The sorted paths matched by the intersection packed as longs.
+	 * @throws IllegalArgumentException When one of the queries
+	 *         cannot be decomposed into sub-queries of at most diameter k.
+	 */
+	private long[] evaluateIntersection(List<CPQ> items) throws IllegalArgumentException{
+		boolean identity = false;
+		List<CPQ> direct = new ArrayList<CPQ>();
+		List<CPQ> large = new ArrayList<CPQ>();
+		for(CPQ item : items){
+			int d = item.getDiameter();
+			if(d == 0){
+				identity = true;
+			}else if(d <= k){
+				direct.add(item);
+			}else{
+				large.add(item);
+			}
+		}
+		
+		List<CPQ> plan = new ArrayList<CPQ>();
+		int max = Math.max(1, index.getIntersections());
+		for(int i = 0; i < direct.size(); i += max){
+			List<CPQ> group = direct.subList(i, Math.min(direct.size(), i + max));
+			plan.add(group.size() == 1 ? group.get(0) : CPQ.intersect(List.copyOf(group)));
+		}
+		
+		large.sort(Comparator.comparingInt(CPQ::getDiameter));
+		plan.addAll(large);
+		
+		long[] result = null;
+		for(CPQ cpq : plan){
+			long[] paths = evaluatePlan(cpq);
+			result = result == null ? (identity ? loops(paths) : paths) : PathSet.intersect(List.of(result, paths));
+			if(result.length == 0){
+				break;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Looks up the given query in the index.
+	 * @param cpq The query to look up, with a diameter of at most k.
+	 * @return The sorted paths matched by the query packed as longs.
+	 */
+	private long[] lookup(CPQ cpq){
+		return index.queryPackedSorted(cpq);
+	}
+	
+	/**
+	 * Joins the given sets of paths, for every path (a,b) in the left
+	 * set and (b,c) in the right set the path (a,c) is in the result.
+	 * The left paths are sorted on their target and then merged with
+	 * the right paths which are already sorted on their source.
+	 * @param left The sorted left paths packed as longs.
+	 * @param right The sorted right paths packed as longs.
+	 * @return The sorted and distinct joined paths packed as longs.
+	 */
+	private static long[] join(long[] left, long[] right){
+		long[] inverse = new long[left.length];
+		for(int i = 0; i < left.length; i++){
+			inverse[i] = Pair.pack(Pair.unpackTarget(left[i]), Pair.unpackSource(left[i]));
+		}
+		Arrays.parallelSort(inverse);
+		
+		long[] result = new long[Math.max(16, Math.min(left.length, right.length))];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while(i < inverse.length && j < right.length){
+			int mid = Pair.unpackSource(inverse[i]);
+			int src = Pair.unpackSource(right[j]);
+			if(mid < src){
+				i++;
+			}else if(mid > src){
+				j++;
+			}else{
+				int leftEnd = i;
+				while(leftEnd < inverse.length && Pair.unpackSource(inverse[leftEnd]) == mid){
+					leftEnd++;
+				}
+				
+				int rightEnd = j;
+				while(rightEnd < right.length && Pair.unpackSource(right[rightEnd]) == mid){
+					rightEnd++;
+				}
+				
+				for(int l = i; l < leftEnd; l++){
+					int from = Pair.unpackTarget(inverse[l]);
+					for(int r = j; r < rightEnd; r++){
+						if(size == result.length){
+							result = Arrays.copyOf(result, result.length * 2);
+						}
+						
+						result[size++] = Pair.pack(from, Pair.unpackTarget(right[r]));
+					}
+				}
+				
+				i = leftEnd;
+				j = rightEnd;
+			}
+		}
+		
+		return sortDistinct(Arrays.copyOf(result, size));
+	}
+	
+	/**
+	 * Retains only the loops in the given set of paths.
+	 * @param paths The sorted paths packed as longs.
+	 * @return The sorted loops in the given set of paths.
+	 * @see Pair#isLoop()
+	 */
+	private static long[] loops(long[] paths){
+		return Arrays.stream(paths).filter(p->Pair.unpackSource(p) == Pair.unpackTarget(p)).toArray();
+	}
+	
+	/**
+	 * Sorts the given paths and removes duplicates.
+	 * @param paths The paths to sort, this array is modified.
+	 * @return The sorted and distinct paths.
+	 */
+	private static long[] sortDistinct(long[] paths){
+		Arrays.parallelSort(paths);
+		int size = 0;
+		for(int i = 0; i < paths.length; i++){
+			if(size == 0 || paths[i] != paths[size - 1]){
+				paths[size++] = paths[i];
+			}
+		}
+		
+		return size == paths.length ? paths : Arrays.copyOf(paths, size);
+	}
+}
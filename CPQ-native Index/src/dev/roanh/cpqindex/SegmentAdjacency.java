@@ -0,0 +1,106 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import java.util.List;
+
+/**
+ * Adjacency mapping from source vertices to the segments that start at
+ * them, stored in compressed sparse row form. The segments for a single
+ * source vertex are stored contiguously in one array and are found using
+ * an offset array indexed by source vertex. This enables a mapped join
+ * when combining segments without allocating a list per vertex.
+ * @author Roan
+ */
+public final class SegmentAdjacency{
+	/**
+	 * For each source vertex the index of the first segment starting at
+	 * that vertex, with one trailing entry equal to the segment count.
+	 */
+	private final int[] offsets;
+	/**
+	 * All segments grouped by source vertex.
+	 */
+	private final LabelledPath[] segments;
+	
+	/**
+	 * Builds a new adjacency mapping for the given segments. For each
+	 * source vertex the relative order of the given segments is preserved.
+	 * @param segs The segments to map.
+	 * @param vertexCount The total number of vertices in the graph.
+	 */
+	public SegmentAdjacency(List<LabelledPath> segs, int vertexCount){
+		offsets = new int[vertexCount + 1];
+		segments = new LabelledPath[segs.size()];
+		
+		for(LabelledPath seg : segs){
+			offsets[seg.getSource() + 1]++;
+		}
+		
+		for(int i = 0; i < vertexCount; i++){
+			offsets[i + 1] += offsets[i];
+		}
+		
+		int[] next = new int[vertexCount];
+		for(LabelledPath seg : segs){
+			int src = seg.getSource();
+			segments[offsets[src] + next[src]++] = seg;
+		}
+	}
+	
+	/**
+	 * Gets the index of the first segment that starts at the given vertex.
+	 * @param vertex The source vertex.
+	 * @return The index of the first segment starting at the given vertex.
+	 * @see #getEnd(int)
+	 * @see #get(int)
+	 */
+	public int getStart(int vertex){
+		return offsets[vertex];
+	}
+	
+	/**
+	 * Gets the index after the last segment that starts at the given vertex.
+	 * If no segments start at the given vertex this is equal to the start index.
+	 * @param vertex The source vertex.
+	 * @return The exclusive end index of the segments starting at the given vertex.
+	 * @see #getStart(int)
+	 * @see #get(int)
+	 */
+	public int getEnd(int vertex){
+		return offsets[vertex + 1];
+	}
+	
+	/**
+	 * Gets the segment at the given index.
+	 * @param index The index of the segment.
+	 * @return The segment at the given index.
+	 */
+	public LabelledPath get(int index){
+		return segments[index];
+	}
+	
+	/**
+	 * Gets the total number of segments in this mapping.
+	 * @return The total number of segments.
+	 */
+	public int size(){
+		return segments.length;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.roanh.gmark.type.schema.Predicate;
+import dev.roanh.gmark.util.graph.generic.UniqueGraph;
+
+public class CompactGraphTest{
+
+	@Test
+	public void readTest(@TempDir Path dir) throws IOException{
+		Path file = dir.resolve("test.edge");
+		Files.writeString(file, "4 6 2\n0 1 0\n2 3 1\r\n0 1 0\n0 0 1\n\n3 0 0\n0 1 1");
+		
+		CompactGraph graph = CompactGraph.read(file);
+		assertEquals(4, graph.getVertexCount());
+		assertEquals(5, graph.getEdgeCount());
+		assertEquals(2, graph.getLabels().size());
+		
+		assertEquals(0, graph.getStart(0));
+		assertEquals(3, graph.getEnd(0));
+		assertEquals(0, graph.getTarget(0));
+		assertEquals(1, graph.getLabel(0).getID());
+		assertEquals(1, graph.getTarget(1));
+		assertEquals(0, graph.getLabel(1).getID());
+		assertEquals(1, graph.getTarget(2));
+		assertEquals(1, graph.getLabel(2).getID());
+		
+		assertEquals(graph.getEnd(0), graph.getStart(1));
+		assertEquals(graph.getStart(1), graph.getEnd(1));
+		assertEquals(3, graph.getStart(2));
+		assertEquals(3, graph.getTarget(3));
+		assertEquals(0, graph.getTarget(4));
+		assertEquals(5, graph.getEnd(3));
+	}
+	
+	@Test
+	public void invalidTest(@TempDir Path dir) throws IOException{
+		Path file = dir.resolve("test.edge");
+		Files.writeString(file, "2 1 1\n0 2 0");
+		assertThrows(IOException.class, ()->CompactGraph.read(file));
+		
+		Files.writeString(file, "2 1 1\n0 1 1");
+		assertThrows(IOException.class, ()->CompactGraph.read(file));
+		
+		Files.writeString(file, "2 1 1\n0 -1 0");
+		assertThrows(IOException.class, ()->CompactGraph.read(file));
+		
+		Files.writeString(file, "2 1 1\n0 1");
+		assertThrows(IOException.class, ()->CompactGraph.read(file));
+	}
+	
+	@Test
+	public void parallelTest(@TempDir Path dir) throws IOException, URISyntaxException{
+		CompactGraph expected = CompactGraph.read(Path.of(ClassLoader.getSystemResource("robots.edge").toURI()), 1);
+		CompactGraph graph = CompactGraph.read(Path.of(ClassLoader.getSystemResource("robots.edge").toURI()), 4);
+		assertEquals(expected.getVertexCount(), graph.getVertexCount());
+		assertEquals(expected.getEdgeCount(), graph.getEdgeCount());
+		for(int v = 0; v <= graph.getVertexCount(); v++){
+			assertEquals(expected.getStart(v), graph.getStart(v));
+		}
+		
+		for(int e = 0; e < graph.getEdgeCount(); e++){
+			assertEquals(expected.getTarget(e), graph.getTarget(e));
+			assertEquals(expected.getLabel(e).getID(), graph.getLabel(e).getID());
+		}
+		
+		//more chunks than lines
+		Path file = dir.resolve("test.edge");
+		Files.writeString(file, "3 3 1\n0 1 0\n1 2 0\n2 0 0\n");
+		graph = CompactGraph.read(file, 8);
+		assertEquals(3, graph.getEdgeCount());
+		for(int v = 0; v < 3; v++){
+			assertEquals(v, graph.getStart(v));
+			assertEquals((v + 1) % 3, graph.getTarget(v));
+		}
+		
+		Files.writeString(file, "3 3 1\n0 1 0\n1 2 0\n2 0 1\n");
+		assertThrows(IOException.class, ()->CompactGraph.read(file, 8));
+	}
+	
+	@Test
+	public void binaryTest(@TempDir Path dir) throws IOException, URISyntaxException{
+		CompactGraph expected = CompactGraph.read(Path.of(ClassLoader.getSystemResource("robots.edge").toURI()));
+		Path file = dir.resolve("robots.bin");
+		try(OutputStream out = Files.newOutputStream(file)){
+			expected.write(out);
+		}
+		
+		CompactGraph graph = CompactGraph.read(file);
+		assertEquals(expected.getVertexCount(), graph.getVertexCount());
+		assertEquals(expected.getEdgeCount(), graph.getEdgeCount());
+		assertEquals(expected.getLabels().size(), graph.getLabels().size());
+		for(int v = 0; v <= graph.getVertexCount(); v++){
+			assertEquals(expected.getStart(v), graph.getStart(v));
+		}
+		
+		for(int e = 0; e < graph.getEdgeCount(); e++){
+			assertEquals(expected.getTarget(e), graph.getTarget(e));
+			assertEquals(expected.getLabel(e).getID(), graph.getLabel(e).getID());
+		}
+		
+		byte[] data = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(data, data.length - 1));
+		assertThrows(IOException.class, ()->CompactGraph.read(file));
+		
+		//version 1 stored the edge count as an integer
+		Files.write(file, new byte[]{0x43, 0x50, 0x51, 0x47, 1, 0, 0, 0, 2, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 1, 0});
+		graph = CompactGraph.read(file);
+		assertEquals(2, graph.getVertexCount());
+		assertEquals(1, graph.getEdgeCount());
+		assertEquals(1, graph.getEnd(0));
+		assertEquals(1, graph.getTarget(0));
+		assertEquals(0, graph.getLabel(0).getID());
+	}
+	
+	@Test
+	public void robotsTest() throws IOException, URISyntaxException, IllegalArgumentException, InterruptedException{
+		UniqueGraph<Integer, Predicate> graph = IndexUtil.readGraph(ClassLoader.getSystemResourceAsStream("robots.edge"));
+		CompactGraph compact = CompactGraph.read(Path.of(ClassLoader.getSystemResource("robots.edge").toURI()));
+		CompactGraph converted = new CompactGraph(graph);
+		
+		assertEquals(graph.getNodeCount(), compact.getVertexCount());
+		assertEquals(graph.getEdgeCount(), compact.getEdgeCount());
+		assertEquals(converted.getEdgeCount(), compact.getEdgeCount());
+		for(int v = 0; v < compact.getVertexCount(); v++){
+			assertEquals(converted.getStart(v), compact.getStart(v));
+			for(long e = compact.getStart(v); e < compact.getEnd(v); e++){
+				assertEquals(converted.getTarget(e), compact.getTarget(e));
+				assertEquals(converted.getLabel(e).getID(), compact.getLabel(e).getID());
+			}
+		}
+		
+		Index expected = new Index(graph, 2, false, true, 1);
+		Index index = new Index(compact, 2, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		ByteArrayOutputStream a = new ByteArrayOutputStream();
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		expected.write(a, true);
+		index.write(b, true);
+		assertArrayEquals(a.toByteArray(), b.toByteArray());
+	}
+}
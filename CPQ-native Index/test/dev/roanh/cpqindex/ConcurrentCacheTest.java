@@ -0,0 +1,79 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import dev.roanh.cpqindex.ConcurrentCache.EvictionPolicy;
+
+public class ConcurrentCacheTest{
+
+	@Test
+	public void lruTest(){
+		ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(2, EvictionPolicy.LRU);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		assertEquals(1, cache.get("a"));
+		cache.put("c", 3);
+		
+		assertNull(cache.get("b"));
+		assertEquals(1, cache.get("a"));
+		assertEquals(3, cache.get("c"));
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void fifoTest(){
+		ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(2, EvictionPolicy.FIFO);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		assertEquals(1, cache.get("a"));
+		cache.put("c", 3);
+		
+		assertNull(cache.get("a"));
+		assertEquals(2, cache.get("b"));
+		assertEquals(3, cache.get("c"));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void stripedCapacityTest(){
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<Integer, Integer>(1000, EvictionPolicy.LRU);
+		for(int i = 0; i < 10000; i++){
+			cache.put(i, i);
+		}
+		
+		assertEquals(1000, cache.size());
+		assertEquals(9000, cache.getEvictions());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void invalidCapacity(){
+		assertThrows(IllegalArgumentException.class, ()->new ConcurrentCache<String, String>(0, EvictionPolicy.LRU));
+	}
+}
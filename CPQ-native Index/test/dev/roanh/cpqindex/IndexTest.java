@@ -18,8 +18,12 @@
  */
 package dev.roanh.cpqindex;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -27,16 +31,27 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import dev.roanh.cpqindex.CanonForm.CoreHash;
+import dev.roanh.cpqindex.ConcurrentCache.EvictionPolicy;
 import dev.roanh.cpqindex.Index.Block;
+import dev.roanh.cpqindex.Nauty.Backend;
 import dev.roanh.gmark.lang.cpq.CPQ;
 import dev.roanh.gmark.type.schema.Predicate;
 import dev.roanh.gmark.util.graph.generic.UniqueGraph;
@@ -115,6 +130,93 @@ public class IndexTest{
 		assertIterableEquals(index.query(q), read.query(q));
 	}
 	
+	@Test
+	public void checkpointTest(@TempDir Path dir) throws InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, true);
+		
+		Path checkpoint = dir.resolve("cores.ckpt");
+		Index first = new Index(new ByteArrayInputStream(out.toByteArray()));
+		first.computeCores(1, checkpoint);
+		
+		//simulate a crash while writing the last record
+		try(FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.WRITE)){
+			channel.truncate(channel.size() - 3);
+		}
+		
+		Index resumed = new Index(new ByteArrayInputStream(out.toByteArray()));
+		resumed.computeCores(2, checkpoint);
+		
+		Index other = new Index(testGraph, 3, true, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		checkCanonCores(other, resumed);
+		
+		assertEquals(other.getTotalCores(), resumed.getTotalCores());
+		assertEquals(other.getUniqueCores(), resumed.getUniqueCores());
+		
+		Index different = new Index(testGraph, 2, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		assertThrows(IOException.class, ()->different.computeCores(1, checkpoint));
+	}
+	
+	@Test
+	public void coresThreadsTest() throws IllegalArgumentException, InterruptedException{
+		Index single = new Index(testGraph, 4, true, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index multi = new Index(testGraph, 4, true, true, 4, Integer.MAX_VALUE, ProgressListener.NONE);
+		
+		checkCanonCores(single, multi);
+	}
+	
+	@Test
+	public void coreBudgetTest() throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 2, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		index.setCoreBudget(new CoreBudget(Long.MAX_VALUE, Long.MAX_VALUE, 2));
+		index.computeCores(1);
+		assertEquals(0, testIndex.getTruncatedBlocks());
+		assertTrue(index.getTruncatedBlocks() > 0);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, false);
+		Index read = new Index(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(index.getTruncatedBlocks(), read.getTruncatedBlocks());
+		
+		Index full = new Index(testGraph, 2, true, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		List<Block> a = index.getBlocks();
+		List<Block> b = read.getBlocks();
+		List<Block> c = full.getBlocks();
+		for(int i = 0; i < a.size(); i++){
+			assertEquals(a.get(i).isTruncated(), b.get(i).isTruncated());
+			assertTrue(c.get(i).getCanonCores().containsAll(a.get(i).getCanonCores()));
+		}
+		
+		//without inherited cores the core limit applies to all cores of a block
+		Index single = new Index(testGraph, 1, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		single.setCoreBudget(new CoreBudget(Long.MAX_VALUE, Long.MAX_VALUE, 2));
+		single.computeCores(1);
+		for(Block block : single.getBlocks()){
+			assertTrue(block.getCanonCores().size() <= 2);
+		}
+		
+		assertThrows(IllegalArgumentException.class, ()->new CoreBudget(0, 1, 1));
+	}
+	
+	@Test
+	public void canonCacheTest() throws IllegalArgumentException, InterruptedException{
+		Index index = new Index(testGraph, 3, false, true, 2, Integer.MAX_VALUE, ProgressListener.NONE);
+		index.setCanonCache(64, EvictionPolicy.LRU);
+		index.computeCores(2);
+		assertTrue(index.getCanonCache().getHits() > 0);
+		assertTrue(index.getCanonCache().size() <= 64);
+		
+		Index uncached = new Index(testGraph, 3, true, true, 2, Integer.MAX_VALUE, ProgressListener.NONE);
+		List<Block> a = index.getBlocks();
+		List<Block> b = uncached.getBlocks();
+		assertEquals(a.size(), b.size());
+		for(int i = 0; i < a.size(); i++){
+			assertIterableEquals(a.get(i).getCanonCores(), b.get(i).getCanonCores());
+			assertEquals(a.get(i).getCores().toString(), b.get(i).getCores().toString());
+		}
+	}
+	
 	@Test
 	public void writeReadTestFull() throws IllegalArgumentException, InterruptedException, IOException{
 		Index index = new Index(testGraph, 3, true, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
@@ -144,22 +246,205 @@ public class IndexTest{
 		
 		Index read = new Index(new ByteArrayInputStream(out.toByteArray()));
 		
-		List<Block> a = index.getBlocks();
-		List<Block> b = read.getBlocks();
-		assertEquals(a.size(), b.size());
-		for(int i = 0; i < a.size(); i++){
-			assertIterableEquals(a.get(i).getPaths(), b.get(i).getPaths());
-		}
+		checkPaths(index, read);
 		
 		CPQ q = CPQ.labels(symbols.get(0), symbols.get(0));
 		assertIterableEquals(index.query(q), read.query(q));
 	}
 	
+	@Test
+	public void writeReadTestMapped(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index read = writeAndMap(index, dir);
+		assertEquals(index.getTotalCores(), read.getTotalCores());
+		assertEquals(index.getUniqueCores(), read.getUniqueCores());
+		
+		for(String query : List.of("0", "1", "0⁻", "0◦1", "0◦0⁻", "(0◦1) ∩ 0")){
+			CPQ q = CPQ.parse(query, symbols);
+			assertIterableEquals(index.query(q), read.query(q));
+			assertEquals(index.computeResultCardinality(q), read.computeResultCardinality(q));
+		}
+		
+		checkPaths(index, read);
+		
+		assertThrows(IllegalStateException.class, ()->read.getBlocks().get(0).getCores());
+		assertThrows(IllegalStateException.class, ()->read.print());
+	}
+	
+	@Test
+	public void queryStreamTest(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index mapped = writeAndMap(index, dir);
+		for(String query : List.of("0", "1", "0⁻", "0◦1", "0◦0⁻", "(0◦1) ∩ 0", "0 ∩ 1")){
+			CPQ q = CPQ.parse(query, symbols);
+			List<Pair> expected = index.query(q);
+			for(Index test : List.of(index, mapped)){
+				assertIterableEquals(expected, test.queryStream(q).toList());
+				assertArrayEquals(expected.stream().mapToLong(Pair::pack).toArray(), test.queryPackedStream(q).toArray());
+				assertEquals(expected.size(), test.queryPackedStream(q).limit(expected.size() + 1L).count());
+				
+				List<Pair> found = new ArrayList<Pair>();
+				test.query(q, (src, trg)->found.add(new Pair(src, trg)));
+				assertIterableEquals(expected, found);
+			}
+		}
+	}
+	
+	@Test
+	public void queryIntersectionTest(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index mapped = writeAndMap(index, dir);
+		for(List<String> queries : List.of(
+			List.of("0"),
+			List.of("0◦0⁻", "0⁻◦0"),
+			List.of("0◦1", "0◦0⁻◦0◦1"),
+			List.of("0", "0◦0⁻◦0", "(0◦1◦1⁻)"),
+			List.of("0", "1")
+		)){
+			List<CPQ> cpqs = queries.stream().map(q->CPQ.parse(q, symbols)).toList();
+			long[] expected = index.queryPacked(cpqs.size() == 1 ? cpqs.get(0) : CPQ.intersect(cpqs));
+			Arrays.sort(expected);
+			for(Index test : List.of(index, mapped)){
+				assertArrayEquals(expected, test.queryIntersection(cpqs), queries.toString());
+				
+				long[] sorted = test.queryPacked(cpqs.get(0));
+				Arrays.sort(sorted);
+				assertArrayEquals(sorted, test.queryPackedSorted(cpqs.get(0)));
+				
+				PathSet set = test.queryPathSet(cpqs.get(0));
+				for(int i = 1; i < cpqs.size(); i++){
+					set = set.intersect(test.queryPathSet(cpqs.get(i)));
+				}
+				
+				assertArrayEquals(expected, set.toPacked(), queries.toString());
+			}
+		}
+	}
+	
+	@Test
+	public void queryCacheTest(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index mapped = writeAndMap(index, dir);
+		mapped.setQueryCache(16, EvictionPolicy.LRU);
+		for(int i = 0; i < 3; i++){
+			for(String query : List.of("0", "1", "0◦1", "0◦0⁻", "(0◦1) ∩ 0", "0 ∩ (0◦1)")){
+				CPQ q = CPQ.parse(query, symbols);
+				long[] expected = index.queryPacked(q);
+				Arrays.sort(expected);
+				assertArrayEquals(expected, mapped.queryPackedSorted(q), query);
+				assertEquals(expected.length, mapped.computeResultCardinality(q));
+			}
+		}
+		
+		assertEquals(5, mapped.getQueryKeyCache().size());
+		assertEquals(5, mapped.getQueryKeyCache().getMisses());
+		assertEquals(31, mapped.getQueryKeyCache().getHits());
+		assertTrue(mapped.getQueryBlockCache().getHits() >= 10);
+		
+		mapped.setQueryCache(0, EvictionPolicy.LRU);
+		assertNull(mapped.getQueryKeyCache());
+		assertNull(mapped.getQueryBlockCache());
+	}
+	
+	@Test
+	public void normaliseTest(){
+		for(List<String> queries : List.of(
+			List.of("0 ∩ 1", "1 ∩ 0", "(0 ∩ 1) ∩ 0", "1 ∩ (1 ∩ 0)"),
+			List.of("0◦1◦2", "(0◦1)◦2", "0◦(1◦2)", "0◦id◦1◦2", "(0◦id)◦(1◦2◦id)"),
+			List.of("(0◦1) ∩ id", "id ∩ (0◦1)"),
+			List.of("((0◦1) ∩ 2)◦3", "(2 ∩ (0◦1))◦3"),
+			List.of("0", "0 ∩ 0", "0◦id")
+		)){
+			String expected = Index.normalise(CPQ.parse(queries.get(0), symbols));
+			for(String query : queries){
+				assertEquals(expected, Index.normalise(CPQ.parse(query, symbols)), query);
+			}
+		}
+		
+		assertNotEquals(Index.normalise(CPQ.parse("0◦1", symbols)), Index.normalise(CPQ.parse("1◦0", symbols)));
+		assertNotEquals(Index.normalise(CPQ.parse("0 ∩ 1", symbols)), Index.normalise(CPQ.parse("0◦1", symbols)));
+		assertNotEquals(Index.normalise(CPQ.parse("0 ∩ id", symbols)), Index.normalise(CPQ.parse("0", symbols)));
+	}
+	
+	@Test
+	public void queryBatchTest(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 3, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index mapped = writeAndMap(index, dir);
+		mapped.setQueryCache(16, EvictionPolicy.LRU);
+		List<CPQ> batch = new ArrayList<CPQ>();
+		for(int i = 0; i < 20; i++){
+			for(String query : List.of("0", "1", "0◦1", "0◦0⁻", "(0◦1) ∩ 0", "0 ∩ 0", "3")){
+				batch.add(CPQ.parse(query, symbols));
+			}
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for(Index test : List.of(index, mapped)){
+				List<long[]> results = test.queryBatch(batch, pool);
+				long[] counts = test.computeResultCardinalities(batch);
+				assertEquals(batch.size(), results.size());
+				assertEquals(batch.size(), counts.length);
+				for(int i = 0; i < batch.size(); i++){
+					assertArrayEquals(index.queryPackedSorted(batch.get(i)), results.get(i), batch.get(i).toString());
+					assertEquals(index.computeResultCardinality(batch.get(i)), counts[i], batch.get(i).toString());
+				}
+				
+				assertNotSame(results.get(0), results.get(7));
+			}
+		}finally{
+			pool.shutdown();
+		}
+		
+		assertEquals(6, mapped.getQueryKeyCache().getMisses());
+		assertThrows(IllegalArgumentException.class, ()->index.queryBatch(List.of(CPQ.label(symbols.get(0)), CPQ.parse("0◦1◦2◦3", symbols))));
+		assertIterableEquals(List.of(), index.queryBatch(List.of()));
+	}
+	
+	@Test
+	public void backendFamilyTest(@TempDir Path dir) throws IllegalArgumentException, InterruptedException, IOException{
+		Index index = new Index(testGraph, 2, false, true, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		ByteArrayOutputStream partial = new ByteArrayOutputStream();
+		index.write(partial, true);
+		Path checkpoint = dir.resolve("cores.ckpt");
+		index.computeCores(1, checkpoint);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, false);
+		Index mapped = writeAndMap(index, dir);
+		CPQ q = CPQ.label(symbols.get(0));
+		
+		Backend old = Nauty.getBackend();
+		try{
+			Nauty.setBackend(Backend.JAVA);
+			assertThrows(IOException.class, ()->new Index(new ByteArrayInputStream(out.toByteArray())));
+			assertThrows(IOException.class, ()->Index.map(dir.resolve("index.midx")));
+			assertThrows(IllegalStateException.class, ()->index.query(q));
+			assertThrows(IllegalStateException.class, ()->mapped.query(q));
+			
+			Index resumed = new Index(new ByteArrayInputStream(partial.toByteArray()));
+			assertThrows(IOException.class, ()->resumed.computeCores(1, checkpoint));
+		}finally{
+			Nauty.setBackend(old);
+		}
+		
+		assertIterableEquals(index.query(q), new Index(new ByteArrayInputStream(out.toByteArray())).query(q));
+		assertIterableEquals(index.query(q), mapped.query(q));
+	}
+	
 	@Test
 	public void evaluateQuery() throws IllegalArgumentException{
 		assertIterableEquals(List.of(new Pair(1, 2)), testIndex.query(CPQ.label(symbols.get(1))));
 	}
 	
+	@Test
+	public void evaluateQueryPacked() throws IllegalArgumentException{
+		assertArrayEquals(new long[]{Pair.pack(1, 2)}, testIndex.queryPacked(CPQ.label(symbols.get(1))));
+		
+		CPQ q = CPQ.label(symbols.get(0));
+		assertIterableEquals(testIndex.query(q), Arrays.stream(testIndex.queryPacked(q)).mapToObj(Pair::new).toList());
+	}
+	
 	@Test
 	public void evaluateQueryDiameterTooLarge() throws IllegalArgumentException{
 		assertThrows(IllegalArgumentException.class, ()->testIndex.query(CPQ.parse("0◦1◦2", symbols)));
@@ -365,6 +650,64 @@ public class IndexTest{
 		checkCores(block, "((2⁻)◦(2))", "((3⁻)◦(3))", "(((2⁻)◦(2)) ∩ ((3⁻)◦(3)))", "(((2⁻)◦(2)) ∩ id)", "(((3⁻)◦(3)) ∩ id)", "((((2⁻)◦(2)) ∩ ((3⁻)◦(3))) ∩ id)");
 	}
 	
+	@Test
+	public void writeReadTestRobots() throws IllegalArgumentException, InterruptedException, IOException{
+		UniqueGraph<Integer, Predicate> graph = IndexUtil.readGraph(ClassLoader.getSystemResourceAsStream("robots.edge"));
+		Index index = new Index(graph, 2, false, false, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, false);
+		
+		//paths are written in far less than 8 bytes each
+		long paths = index.getBlocks().stream().mapToLong(b->b.getPaths().size()).sum();
+		assertTrue(out.size() < paths * 4);
+		
+		Index read = new Index(new ByteArrayInputStream(out.toByteArray()));
+		checkPaths(index, read);
+		assertIterableEquals(index.getBlocks().stream().map(Block::getId).toList(), read.getBlocks().stream().map(Block::getId).toList());
+	}
+	
+	@Test
+	public void writeReadTestCompressed() throws IllegalArgumentException, InterruptedException, IOException{
+		UniqueGraph<Integer, Predicate> graph = IndexUtil.readGraph(ClassLoader.getSystemResourceAsStream("robots.edge"));
+		Index index = new Index(graph, 2, false, true, 1);
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		index.write(plain, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, true, true);
+		assertTrue(out.size() < plain.size());
+		
+		Index read = new Index(new ByteArrayInputStream(out.toByteArray()), 4);
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		read.write(copy, true);
+		assertArrayEquals(plain.toByteArray(), copy.toByteArray());
+		
+		byte[] data = out.toByteArray();
+		assertThrows(IOException.class, ()->new Index(new ByteArrayInputStream(Arrays.copyOf(data, data.length / 2)), 4));
+	}
+	
+	@Test
+	public void writeReadTestThreads() throws IllegalArgumentException, InterruptedException, IOException{
+		UniqueGraph<Integer, Predicate> graph = IndexUtil.readGraph(ClassLoader.getSystemResourceAsStream("robots.edge"));
+		Index index = new Index(graph, 2, false, true, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out, true);
+		
+		//references between blocks in different sections are restored
+		Index read = new Index(new ByteArrayInputStream(out.toByteArray()), 4);
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		read.write(copy, true);
+		assertArrayEquals(out.toByteArray(), copy.toByteArray());
+		
+		index = new Index(testGraph, 3, false, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		out.reset();
+		index.write(out, true);
+		index.computeCores(1);
+		
+		read = new Index(new ByteArrayInputStream(out.toByteArray()), 4);
+		read.computeCores(1);
+		checkCanonCores(index, read);
+	}
+	
 	@Test
 	public void robotsK2NoLabels() throws IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException{
 		UniqueGraph<Integer, Predicate> graph = IndexUtil.readGraph(ClassLoader.getSystemResourceAsStream("robots.edge"));
@@ -674,6 +1017,33 @@ public class IndexTest{
 		}
 	}
 	
+	private static Index writeAndMap(Index index, Path dir) throws IOException{
+		Path file = dir.resolve("index.midx");
+		try(OutputStream out = Files.newOutputStream(file)){
+			index.writeMapped(out);
+		}
+		
+		return Index.map(file);
+	}
+	
+	private static void checkPaths(Index expected, Index actual){
+		List<Block> a = expected.getBlocks();
+		List<Block> b = actual.getBlocks();
+		assertEquals(a.size(), b.size());
+		for(int i = 0; i < a.size(); i++){
+			assertIterableEquals(a.get(i).getPaths(), b.get(i).getPaths());
+		}
+	}
+	
+	private static void checkCanonCores(Index expected, Index actual){
+		checkPaths(expected, actual);
+		List<Block> a = expected.getBlocks();
+		List<Block> b = actual.getBlocks();
+		for(int i = 0; i < a.size(); i++){
+			assertEquals(a.get(i).getCanonCores(), b.get(i).getCanonCores());
+		}
+	}
+	
 	private void checkCores(Block block, String... expected){
 		assertEquals(expected.length, block.getCanonCores().size(), "found: " + block.getCores());
 		for(String cpq : expected){
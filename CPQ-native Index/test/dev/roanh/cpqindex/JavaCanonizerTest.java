@@ -0,0 +1,88 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import dev.roanh.cpqindex.Nauty.Backend;
+import dev.roanh.gmark.lang.cpq.CPQ;
+import dev.roanh.gmark.type.schema.Predicate;
+
+public class JavaCanonizerTest{
+	private static final Predicate l1 = new Predicate(0, "a");
+	private static final Predicate l2 = new Predicate(1, "b");
+	private static final Predicate l3 = new Predicate(2, "c");
+	private static Backend old;
+	
+	@BeforeAll
+	public static void setup(){
+		old = Nauty.getBackend();
+		Nauty.setBackend(Backend.JAVA);
+	}
+	
+	@AfterAll
+	public static void cleanup(){
+		Nauty.setBackend(old);
+	}
+	
+	@Test
+	public void canon0(){
+		assertEquals(
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l3), CPQ.labels(l1, l2)), false),
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l2), CPQ.labels(l1, l3)), false)
+		);
+	}
+	
+	@Test
+	public void canon1(){
+		assertEquals(
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l3, l1), CPQ.id(), CPQ.intersect(l1, l2)), false),
+			CanonForm.computeCanon(CPQ.intersect(CPQ.intersect(l1, l2), CPQ.labels(l1, l3, l1), CPQ.id()), false)
+		);
+	}
+	
+	@Test
+	public void canonSymmetric(){
+		assertEquals(
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l2), CPQ.labels(l1, l2), CPQ.labels(l3, l3)), false),
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l3, l3), CPQ.labels(l1, l2)), false)
+		);
+	}
+	
+	@Test
+	public void canonDistinct(){
+		assertNotEquals(
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l2), CPQ.labels(l2, l1)), false),
+			CanonForm.computeCanon(CPQ.intersect(CPQ.labels(l1, l1), CPQ.labels(l2, l2)), false)
+		);
+	}
+	
+	@Test
+	public void canonInverse(){
+		assertEquals(
+			CanonForm.computeCanon(CPQ.concat(CPQ.label(l1), CPQ.label(l1.getInverse())), false).toHashCanon(),
+			CanonForm.computeCanon(CPQ.concat(CPQ.intersect(CPQ.label(l1), CPQ.label(l1)), CPQ.label(l1.getInverse())), false).toHashCanon()
+		);
+	}
+}
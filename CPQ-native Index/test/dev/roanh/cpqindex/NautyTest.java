@@ -19,12 +19,22 @@
 package dev.roanh.cpqindex;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 
+import dev.roanh.cpqindex.Nauty.Backend;
+import dev.roanh.cpqindex.Nauty.ColoredGraph;
+import dev.roanh.gmark.lang.cpq.CPQ;
+import dev.roanh.gmark.type.schema.Predicate;
+
 public class NautyTest{
 	private static final int[][] TEST_GRAPH = new int[][]{
 		new int[]{2, 3},
@@ -166,4 +176,89 @@ public class NautyTest{
 		
 		return graph;
 	}
+	
+	@Test
+	public void batchCanon(){
+		int[][] g0 = new int[][]{
+			new int[]{5},
+			new int[]{4},
+			new int[]{7, 6},
+			new int[]{},
+			new int[]{3},
+			new int[]{3},
+			new int[]{1},
+			new int[]{0},
+		};
+		int[][] g1 = new int[][]{
+			new int[]{5},
+			new int[]{4},
+			new int[]{7, 6},
+			new int[]{},
+			new int[]{3},
+			new int[]{3},
+			new int[]{0},
+			new int[]{1},
+		};
+		int[] c = new int[]{-5, -6, 7, -8, 1, 2, 3, -4};
+		
+		int[] data = new int[1 + 2 * (2 + 8 + 8 + 8)];
+		data[0] = 2;
+		int idx = 1;
+		for(int[][] g : new int[][][]{g0, g1}){
+			data[idx++] = 8;
+			data[idx++] = 8;
+			System.arraycopy(c, 0, data, idx, 8);
+			idx += 8;
+			for(int[] row : g){
+				data[idx++] = row.length;
+			}
+			for(int[] row : g){
+				System.arraycopy(row, 0, data, idx, row.length);
+				idx += row.length;
+			}
+		}
+		
+		assertArrayEquals(new int[]{4, 5, 6, 7, 2, 1, 0, 3, 4, 5, 7, 6, 2, 1, 0, 3}, Nauty.computeCanonSparseBatch(data));
+	}
+	
+	@Test
+	public void backendsEqual(){
+		Predicate l1 = new Predicate(0, "a");
+		Predicate l2 = new Predicate(1, "b");
+		Predicate l3 = new Predicate(2, "c");
+		
+		List<ColoredGraph> graphs = Stream.of(
+			CPQ.intersect(CPQ.labels(l1, l3), CPQ.labels(l1, l2)),
+			CPQ.intersect(CPQ.labels(l1, l2, l3), CPQ.id()),
+			CPQ.concat(CPQ.intersect(CPQ.label(l1), CPQ.label(l2.getInverse())), CPQ.label(l3)),
+			CPQ.labels(l1, l1, l1)
+		).map(q->CanonForm.toColoredGraph(q.toQueryGraph())).toList();
+		
+		Backend old = Nauty.getBackend();
+		try{
+			Nauty.setBackend(Backend.JNI);
+			List<int[]> jni = Nauty.computeCanonicalLabellings(graphs);
+			
+			Nauty.setBackend(Backend.FFM);
+			List<int[]> ffm = Nauty.computeCanonicalLabellings(graphs);
+			
+			for(int i = 0; i < graphs.size(); i++){
+				assertArrayEquals(jni.get(i), ffm.get(i));
+				assertArrayEquals(jni.get(i), Nauty.computeCanonicalLabelling(graphs.get(i)));
+			}
+		}finally{
+			Nauty.setBackend(old);
+		}
+	}
+	
+	@Test
+	public void parseBackend(){
+		assertEquals(Backend.JNI, Backend.parse("JNI"));
+		assertEquals(Backend.FFM, Backend.parse(" ffm "));
+		assertEquals(Backend.JAVA, Backend.parse("Java"));
+		assertThrows(IllegalArgumentException.class, ()->Backend.parse("nauty"));
+		assertTrue(Backend.JNI.usesNauty());
+		assertTrue(Backend.FFM.usesNauty());
+		assertFalse(Backend.JAVA.usesNauty());
+	}
 }
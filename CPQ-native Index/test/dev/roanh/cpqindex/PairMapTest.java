@@ -0,0 +1,126 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class PairMapTest{
+	
+	@Test
+	public void basicTest(){
+		PairMap<String> map = new PairMap<String>();
+		assertNull(map.get(1, 2));
+		assertNull(map.put(Pair.pack(1, 2), "a"));
+		assertEquals("a", map.get(1, 2));
+		assertEquals("a", map.put(Pair.pack(1, 2), "b"));
+		assertEquals("b", map.computeIfAbsent(Pair.pack(1, 2), p->"c"));
+		assertEquals("d", map.computeIfAbsent(Pair.pack(2, 1), p->"d"));
+		assertEquals(2, map.size());
+		assertEquals("b", map.remove(Pair.pack(1, 2)));
+		assertNull(map.remove(Pair.pack(1, 2)));
+		assertEquals(1, map.size());
+		map.clear();
+		assertNull(map.get(2, 1));
+		assertEquals(0, map.size());
+	}
+	
+	@Test
+	public void randomTest(){
+		Random random = new Random(1234);
+		PairMap<Integer> map = new PairMap<Integer>();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		
+		for(int i = 0; i < 100000; i++){
+			long key = Pair.pack(random.nextInt(200), random.nextInt(200));
+			if(random.nextInt(3) == 0){
+				assertEquals(expected.remove(key), map.remove(key));
+			}else{
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+		}
+		
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected.size(), map.values().count());
+		for(Map.Entry<Long, Integer> entry : expected.entrySet()){
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+	
+	@Test
+	public void shardTest(){
+		Random random = new Random(1234);
+		PairMap<Integer> map = new PairMap<Integer>(0, 16);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		
+		for(int i = 0; i < 100000; i++){
+			long key = Pair.pack(random.nextInt(200), random.nextInt(200));
+			if(random.nextInt(3) == 0){
+				assertEquals(expected.remove(key), map.remove(key));
+			}else if(random.nextBoolean()){
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}else{
+				Integer value = i;
+				assertEquals(expected.computeIfAbsent(key, k->value), map.computeIfAbsent(key, k->value));
+			}
+		}
+		
+		assertTrue(map.getShardCount() > 1);
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected.size(), map.values().count());
+		for(Map.Entry<Long, Integer> entry : expected.entrySet()){
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+		
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(0, map.values().count());
+	}
+	
+	@Test
+	public void presizedShardTest(){
+		PairMap<Integer> map = new PairMap<Integer>(1000, 64);
+		assertEquals(32, map.getShardCount());
+		for(int i = 0; i < 1000; i++){
+			map.put(Pair.pack(i, i + 1), i);
+		}
+		
+		for(int i = 0; i < 1000; i++){
+			assertEquals(Integer.valueOf(i), map.get(i, i + 1));
+		}
+	}
+	
+	@Test
+	public void capacityTest(){
+		assertEquals(16L, PairMap.capacityFor(0));
+		assertEquals(16L, PairMap.capacityFor(11));
+		assertEquals(32L, PairMap.capacityFor(12));
+		assertEquals(1L << 32, PairMap.capacityFor(Integer.MAX_VALUE));
+		assertThrows(IllegalArgumentException.class, ()->new PairMap<Integer>(0, 24));
+		assertThrows(IllegalArgumentException.class, ()->new PairMap<Integer>(0, PairMap.MAX_CAPACITY << 1));
+	}
+}
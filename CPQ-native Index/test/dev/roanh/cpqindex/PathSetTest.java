@@ -0,0 +1,107 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+public class PathSetTest{
+	
+	@Test
+	public void basicTest(){
+		PathSet set = PathSet.of(new long[]{Pair.pack(0, 1), Pair.pack(0, 70000), Pair.pack(2, 3)});
+		assertEquals(3, set.size());
+		assertTrue(set.contains(0, 1));
+		assertTrue(set.contains(0, 70000));
+		assertTrue(set.contains(2, 3));
+		assertFalse(set.contains(0, 3));
+		assertFalse(set.contains(1, 1));
+		assertArrayEquals(new long[]{Pair.pack(0, 1), Pair.pack(0, 70000), Pair.pack(2, 3)}, set.toPacked());
+	}
+	
+	@Test
+	public void emptyTest(){
+		PathSet set = PathSet.of(new long[0]);
+		assertTrue(set.isEmpty());
+		assertEquals(0, set.size());
+		assertArrayEquals(new long[0], set.toPacked());
+		assertTrue(set.intersect(PathSet.of(new long[]{1})).isEmpty());
+	}
+	
+	@Test
+	public void unsortedTest(){
+		assertThrows(IllegalArgumentException.class, ()->PathSet.of(new long[]{Pair.pack(1, 2), Pair.pack(1, 1)}));
+		assertThrows(IllegalArgumentException.class, ()->PathSet.of(new long[]{Pair.pack(1, 2), Pair.pack(1, 2)}));
+	}
+	
+	@Test
+	public void denseTest(){
+		long[] even = LongStream.range(0, 20000).map(i->Pair.pack(1, 2 * (int)i)).toArray();
+		long[] third = LongStream.range(0, 20000).map(i->Pair.pack(1, 3 * (int)i)).toArray();
+		PathSet a = PathSet.of(even);
+		PathSet b = PathSet.of(third);
+		
+		assertArrayEquals(PathSets.intersect(List.of(even, third)), a.intersect(b).toPacked());
+		assertArrayEquals(PathSets.merge(List.of(even, third)), a.union(b).toPacked());
+		assertEquals(PathSets.merge(List.of(even, third)).length, a.union(b).size());
+		
+		assertTrue(PathSet.isDense(even));
+		assertFalse(PathSet.isDense(LongStream.range(0, 20000).map(i->Pair.pack((int)i, 1)).toArray()));
+		assertFalse(PathSet.isDense(Arrays.copyOf(even, 100)));
+		assertFalse(PathSet.isDense(new long[0]));
+		
+		long[] sparse = LongStream.range(0, 20000).map(i->Pair.pack((int)i, (int)i)).toArray();
+		assertArrayEquals(PathSets.intersect(List.of(even, third)), PathSet.intersect(List.of(even, third)));
+		assertArrayEquals(PathSets.intersect(List.of(even, sparse)), PathSet.intersect(List.of(even, sparse)));
+	}
+	
+	@Test
+	public void randomTest(){
+		Random random = new Random(1234);
+		for(int n = 0; n < 100; n++){
+			int sources = 1 + random.nextInt(4);
+			int targets = random.nextBoolean() ? 200000 : 70000;
+			long[] a = random.longs(random.nextInt(n % 3 == 0 ? 30000 : 500)).map(v->Pair.pack(random.nextInt(sources), random.nextInt(targets))).sorted().distinct().toArray();
+			long[] b = random.longs(random.nextInt(n % 3 == 0 ? 30000 : 500)).map(v->Pair.pack(random.nextInt(sources), random.nextInt(targets))).sorted().distinct().toArray();
+			
+			PathSet first = PathSet.of(a);
+			PathSet second = PathSet.of(b);
+			assertArrayEquals(a, first.toPacked());
+			
+			long[] intersection = PathSets.intersect(List.of(a, b));
+			assertArrayEquals(intersection, first.intersect(second).toPacked());
+			assertEquals(intersection.length, first.intersect(second).size());
+			assertEquals(PathSet.of(intersection), first.intersect(second));
+			
+			long[] union = PathSets.merge(List.of(a, b));
+			assertArrayEquals(union, first.union(second).toPacked());
+			assertEquals(union.length, first.union(second).size());
+		}
+	}
+}
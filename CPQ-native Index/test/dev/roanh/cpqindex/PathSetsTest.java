@@ -0,0 +1,86 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+public class PathSetsTest{
+	
+	@Test
+	public void mergeTest(){
+		assertArrayEquals(new long[]{1, 2, 3, 5, 7, 8, 9}, PathSets.merge(List.of(
+			new long[]{2, 7},
+			new long[]{},
+			new long[]{1, 3, 9},
+			new long[]{3, 5, 8}
+		)));
+	}
+	
+	@Test
+	public void mergeEmptyTest(){
+		assertArrayEquals(new long[0], PathSets.merge(List.of()));
+		assertArrayEquals(new long[0], PathSets.merge(List.of(new long[0], new long[0])));
+	}
+	
+	@Test
+	public void intersectTest(){
+		assertArrayEquals(new long[]{3, 9}, PathSets.intersect(List.of(
+			new long[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10},
+			new long[]{3, 9},
+			new long[]{0, 3, 6, 9, 12}
+		)));
+		
+		assertArrayEquals(new long[0], PathSets.intersect(List.of(new long[]{1, 2}, new long[]{3, 4})));
+	}
+	
+	@Test
+	public void gallopTest(){
+		long[] data = LongStream.range(0, 100).map(i->2 * i).toArray();
+		for(int from = 0; from < data.length; from += 7){
+			for(long key = -1; key < 202; key++){
+				int expected = from;
+				while(expected < data.length && data[expected] < key){
+					expected++;
+				}
+				
+				assertEquals(expected, PathSets.gallop(data, from, key));
+			}
+		}
+	}
+	
+	@Test
+	public void randomTest(){
+		Random random = new Random(1234);
+		for(int n = 0; n < 50; n++){
+			long[] a = random.longs(random.nextInt(200), 0, 500).sorted().distinct().toArray();
+			long[] b = random.longs(random.nextInt(2000), 0, 500).sorted().distinct().toArray();
+			
+			assertArrayEquals(LongStream.concat(Arrays.stream(a), Arrays.stream(b)).sorted().distinct().toArray(), PathSets.merge(List.of(a, b)));
+			assertArrayEquals(Arrays.stream(a).filter(v->Arrays.binarySearch(b, v) >= 0).toArray(), PathSets.intersect(List.of(a, b)));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * CPQ-native Index: A graph database index with native support for CPQs.
+ * Copyright (C) 2023  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQ-native-index
+ *
+ * CPQ-native Index is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQ-native Index is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqindex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.roanh.gmark.lang.cpq.CPQ;
+import dev.roanh.gmark.type.schema.Predicate;
+import dev.roanh.gmark.util.graph.generic.UniqueGraph;
+
+public class QueryEvaluatorTest{
+	private static final List<Predicate> symbols = List.of(
+		new Predicate(0, "0"),
+		new Predicate(1, "1")
+	);
+	private static final UniqueGraph<Integer, Predicate> graph;
+	
+	static{
+		graph = new UniqueGraph<Integer, Predicate>();
+		for(int i = 0; i < 5; i++){
+			graph.addUniqueNode(i);
+		}
+		
+		graph.addUniqueEdge(0, 1, symbols.get(0));
+		graph.addUniqueEdge(1, 2, symbols.get(1));
+		graph.addUniqueEdge(2, 3, symbols.get(0));
+		graph.addUniqueEdge(3, 0, symbols.get(1));
+		graph.addUniqueEdge(1, 4, symbols.get(0));
+		graph.addUniqueEdge(4, 4, symbols.get(1));
+	}
+	
+	@Test
+	public void largeQueryTest() throws IllegalArgumentException, InterruptedException{
+		Index small = new Index(graph, 2, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index large = new Index(graph, 4, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		Index full = new Index(graph, 6, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		
+		for(String query : List.of(
+			"0",
+			"0◦1",
+			"0◦1◦0",
+			"0◦1◦0◦1",
+			"0◦id◦1◦0◦1",
+			"0◦0◦1◦1",
+			"0◦1◦1⁻◦0⁻",
+			"(0◦1◦0◦1) ∩ id",
+			"(0◦1◦0) ∩ (0◦0◦1)",
+			"(0◦1◦0) ∩ 0 ∩ (0◦1◦0◦1◦0⁻◦0)",
+			"((0◦1◦0) ∩ 0)◦1◦0",
+			"0◦1◦0◦1◦0",
+			"(0◦1◦0◦1◦0) ∩ 0",
+			"0◦1◦0◦1◦0◦1"
+		)){
+			//the full index answers every query directly from the graph
+			CPQ q = CPQ.parse(query, symbols);
+			long[] expected = full.queryPackedSorted(q);
+			assertArrayEquals(expected, small.evaluatePacked(q), query);
+			assertArrayEquals(expected, large.evaluatePacked(q), query);
+			assertArrayEquals(expected, full.evaluatePacked(q), query);
+		}
+		
+		//results derived by hand from the graph
+		assertArrayEquals(new long[]{Pair.pack(0, 1), Pair.pack(2, 3)}, small.evaluatePacked(CPQ.parse("(0◦1◦0◦1◦0) ∩ 0", symbols)));
+		assertArrayEquals(new long[]{Pair.pack(0, 2), Pair.pack(2, 0)}, small.evaluatePacked(CPQ.parse("0◦1◦0◦1◦0◦1", symbols)));
+		assertArrayEquals(new long[0], small.evaluatePacked(CPQ.parse("(0◦1◦0) ∩ 0 ∩ (0◦1◦0◦1◦0⁻◦0)", symbols)));
+	}
+	
+	@Test
+	public void identityTest() throws IllegalArgumentException, InterruptedException{
+		Index small = new Index(graph, 2, true, false, 1, Integer.MAX_VALUE, ProgressListener.NONE);
+		assertThrows(IllegalArgumentException.class, ()->small.evaluate(CPQ.id()));
+	}
+}